@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.benchmarks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Chain throughput of promises against plain {@link CompletableFuture}s, and the cost of
+ * bridging between the two.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompletableFutureBenchmark {
+	
+	private static final Integer VALUE = 42;
+	
+	private static final SuccessCallBack<Integer, Integer> IDENTITY = new SuccessCallBack<Integer, Integer>() {
+		@Override
+		public Object call(Integer value) {
+			return value;
+		}
+	};
+	
+	private static final Function<Integer, Integer> FUTURE_IDENTITY = new Function<Integer, Integer>() {
+		@Override
+		public Integer apply(Integer value) {
+			return value;
+		}
+	};
+	
+	@Param({"1", "10"})
+	public int depth;
+	
+	@Benchmark
+	public Promise<Integer> promiseChain() {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		Promise<Integer> last = deferred.promise();
+		for(int i = 0; i < depth; i++) {
+			last = last.then(IDENTITY);
+		}
+		deferred.resolve(VALUE);
+		return last;
+	}
+	
+	@Benchmark
+	public CompletableFuture<Integer> futureChain() {
+		CompletableFuture<Integer> future = new CompletableFuture<>();
+		CompletableFuture<Integer> last = future;
+		for(int i = 0; i < depth; i++) {
+			last = last.thenApply(FUTURE_IDENTITY);
+		}
+		future.complete(VALUE);
+		return last;
+	}
+	
+	@Benchmark
+	public CompletableFuture<Integer> promiseChainToFuture() {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		Promise<Integer> last = deferred.promise();
+		for(int i = 0; i < depth; i++) {
+			last = last.then(IDENTITY);
+		}
+		CompletableFuture<Integer> future = last.toCompletableFuture();
+		deferred.resolve(VALUE);
+		return future;
+	}
+	
+	@Benchmark
+	public Promise<Integer> futureChainFromPromise() {
+		CompletableFuture<Integer> future = new CompletableFuture<>();
+		CompletableFuture<Integer> last = future;
+		for(int i = 0; i < depth; i++) {
+			last = last.thenApply(FUTURE_IDENTITY);
+		}
+		Promise<Integer> promise = DeferredFactory.from(last);
+		future.complete(VALUE);
+		return promise;
+	}
+}
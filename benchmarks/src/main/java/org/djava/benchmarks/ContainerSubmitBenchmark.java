@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.benchmarks;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.util.DeferredContainer;
+import org.djava.async.util.DeferredContainer.DeferredTask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the {@link DeferredContainer}. Every invocation submits a batch of trivial tasks
+ * and waits for all of them, so the numbers are tasks per second, end to end. The tasks count
+ * themselves down, no handler is registered on their promises.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContainerSubmitBenchmark {
+	
+	private static final int BATCH = 1000;
+	
+	private static final int KEYS = 16;
+	
+	private static final Integer VALUE = 42;
+	
+	private DeferredContainer container;
+	
+	@Setup(Level.Trial)
+	public void setUp() {
+		container = DeferredContainer.createNewContainer();
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		container.stop();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void submit() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(BATCH);
+		Callable<Integer> task = countDown(done);
+		for(int i = 0; i < BATCH; i++) {
+			new DeferredTask<>(task).submit();
+		}
+		done.await();
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void submitKeyed() throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(BATCH);
+		Callable<Integer> task = countDown(done);
+		for(int i = 0; i < BATCH; i++) {
+			container.submit(i % KEYS, task);
+		}
+		done.await();
+	}
+	
+	private static Callable<Integer> countDown(final CountDownLatch done) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				done.countDown();
+				return VALUE;
+			}
+		};
+	}
+}
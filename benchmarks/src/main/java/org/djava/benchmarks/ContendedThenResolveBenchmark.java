@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Contended <tt>then()</tt> against <tt>resolve()</tt>. Three threads keep registering handlers on
+ * the current promise while one thread keeps replacing it with a fresh one and resolving the old
+ * one, so handlers race with resolution all the time.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class ContendedThenResolveBenchmark {
+	
+	private static final Integer VALUE = 42;
+	
+	private static final SuccessCallBack<Integer, Integer> IDENTITY = new SuccessCallBack<Integer, Integer>() {
+		@Override
+		public Object call(Integer value) {
+			return value;
+		}
+	};
+	
+	private final AtomicReference<Deferred<Integer>> current = new AtomicReference<>();
+	
+	@Setup(Level.Iteration)
+	public void setUp() {
+		current.set(DeferredFactory.<Integer>createDeferred());
+	}
+	
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		current.getAndSet(null).resolve(VALUE);
+	}
+	
+	@Benchmark
+	@Group("race")
+	@GroupThreads(3)
+	public Promise<Integer> then() {
+		return current.get().then(IDENTITY);
+	}
+	
+	@Benchmark
+	@Group("race")
+	@GroupThreads(1)
+	public Deferred<Integer> resolve() {
+		Deferred<Integer> next = DeferredFactory.createDeferred();
+		Deferred<Integer> previous = current.getAndSet(next);
+		previous.resolve(VALUE);
+		return previous;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of registering the given number of handlers on one promise and resolving it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FanOutBenchmark {
+	
+	private static final Integer VALUE = 42;
+	
+	private static final SuccessCallBack<Integer, Integer> IDENTITY = new SuccessCallBack<Integer, Integer>() {
+		@Override
+		public Object call(Integer value) {
+			return value;
+		}
+	};
+	
+	@Param({"1", "10", "100", "1000"})
+	public int handlers;
+	
+	@Benchmark
+	public Deferred<Integer> fanOut() {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		for(int i = 0; i < handlers; i++) {
+			deferred.then(IDENTITY);
+		}
+		deferred.resolve(VALUE);
+		return deferred;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a then-chain of the given depth, once built on a pending promise that is resolved
+ * afterwards and once built on an already resolved promise.
+ * 
+ * <p>
+ * Resolving a pending chain runs the handlers recursively, so the fork gets a larger thread
+ * stack to survive the deepest chain.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+@State(Scope.Thread)
+public class ThenChainBenchmark {
+	
+	private static final Integer VALUE = 42;
+	
+	private static final SuccessCallBack<Integer, Integer> IDENTITY = new SuccessCallBack<Integer, Integer>() {
+		@Override
+		public Object call(Integer value) {
+			return value;
+		}
+	};
+	
+	@Param({"1", "10", "100", "1000", "10000"})
+	public int depth;
+	
+	@Benchmark
+	public Promise<Integer> chainThenResolve() {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		Promise<Integer> last = deferred.promise();
+		for(int i = 0; i < depth; i++) {
+			last = last.then(IDENTITY);
+		}
+		deferred.resolve(VALUE);
+		return last;
+	}
+	
+	@Benchmark
+	public Promise<Integer> resolveThenChain() {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		deferred.resolve(VALUE);
+		Promise<Integer> last = deferred.promise();
+		for(int i = 0; i < depth; i++) {
+			last = last.then(IDENTITY);
+		}
+		return last;
+	}
+}
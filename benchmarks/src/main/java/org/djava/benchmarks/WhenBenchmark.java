@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of {@link Deferred#when(Promise...)} over the given number of inputs, including
+ * creating and resolving the inputs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+@SuppressWarnings("unchecked")
+public class WhenBenchmark {
+	
+	private static final Integer VALUE = 42;
+	
+	@Param({"1", "10", "100", "1000"})
+	public int inputs;
+	
+	@Benchmark
+	public Promise<List<Integer>> whenPending() {
+		Deferred<Integer>[] deferreds = new Deferred[inputs];
+		Promise<Integer>[] promises = new Promise[inputs];
+		for(int i = 0; i < inputs; i++) {
+			deferreds[i] = DeferredFactory.createDeferred();
+			promises[i] = deferreds[i].promise();
+		}
+		
+		Promise<List<Integer>> all = Deferred.when(promises);
+		
+		for(int i = 0; i < inputs; i++) {
+			deferreds[i].resolve(VALUE);
+		}
+		return all;
+	}
+	
+	@Benchmark
+	public Promise<List<Integer>> whenResolved() {
+		Promise<Integer>[] promises = new Promise[inputs];
+		for(int i = 0; i < inputs; i++) {
+			Deferred<Integer> deferred = DeferredFactory.createDeferred();
+			deferred.resolve(VALUE);
+			promises[i] = deferred.promise();
+		}
+		
+		return Deferred.when(promises);
+	}
+}
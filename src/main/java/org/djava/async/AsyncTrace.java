@@ -0,0 +1,233 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.djava.async.Callbacks.FailureCallBack;
+
+/**
+ * Optional tracing of the asynchronous creation sites.
+ * 
+ * <p>
+ * When tracing is enabled, a sampled share of the root promises (deferred objects, <tt>when</tt>
+ * promises and deferred tasks) records the call site in the application code which created it. 
+ * Every <tt>then</tt> on a traced promise records its call site as well, so a traced chain is
+ * always complete. When a rejection reaches a {@link FailureCallBack} of a traced chain, the chain
+ * of creation sites is attached to the exception as a suppressed {@link AsyncStackTrace}.
+ * </p>
+ * 
+ * <p>
+ * The sample rate is read from the <tt>org.djava.async.trace.sampleRate</tt> system property and
+ * can be changed by {@link #setSampleRate(double)}. It is zero by default. The call site frames 
+ * are interned, so a traced chain holds one small node per promise.
+ * </p>
+ */
+public class AsyncTrace {
+	
+	public static final String SAMPLE_RATE_PROPERTY = "org.djava.async.trace.sampleRate";
+	
+	static final int MAX_FRAMES = 64;
+	private static final int MAX_INTERNED_SITES = 8192;
+	
+	private static final String LIBRARY_PACKAGE = "org.djava.async.";
+	
+	private static final ConcurrentHashMap<StackTraceElement, StackTraceElement> sites = new ConcurrentHashMap<>();
+	
+	private static volatile double sampleRate = readSampleRate();
+	
+	/**
+	 * Sets the share of the root promises to trace.
+	 * 
+	 * @param rate the sample rate between 0 (disabled) and 1 (all)
+	 */
+	public static void setSampleRate(double rate) {
+		if(rate < 0.0 || rate > 1.0) {
+			throw new IllegalArgumentException("The sample rate should be between 0 and 1.");
+		}
+		sampleRate = rate;
+	}
+	
+	public static double getSampleRate() {
+		return sampleRate;
+	}
+	
+	/**
+	 * Samples a root promise.
+	 * 
+	 * @return the trace node, null when the promise is not sampled
+	 */
+	static Node root() {
+		double rate = sampleRate;
+		if(rate <= 0.0) {
+			return null;
+		}
+		
+		if(rate < 1.0 && ThreadLocalRandom.current().nextDouble() >= rate) {
+			return null;
+		}
+		
+		return capture(null);
+	}
+	
+	/**
+	 * Traces a promise which is created by a traced promise.
+	 * 
+	 * @param parent the trace of the creating promise
+	 * 
+	 * @return the trace node, null when the parent is not traced
+	 */
+	static Node child(Node parent) {
+		if(parent == null) {
+			return null;
+		}
+		return capture(parent);
+	}
+	
+	/**
+	 * Attaches the creation sites of a chain to an exception. The sites are attached only once
+	 * to the same exception.
+	 * 
+	 * @param ex the rejection reason
+	 * @param node the trace of the promise which delivers the rejection
+	 */
+	static void attach(Exception ex, Node node) {
+		if(node == null || ex == null) {
+			return;
+		}
+		
+		for(Throwable suppressed : ex.getSuppressed()) {
+			if(suppressed instanceof AsyncStackTrace) {
+				return;
+			}
+		}
+		
+		ex.addSuppressed(new AsyncStackTrace(node));
+	}
+	
+	private static Node capture(Node parent) {
+		StackTraceElement[] frames = new Throwable().getStackTrace();
+		
+		String operation = null;
+		for(StackTraceElement frame : frames) {
+			if(isLibraryFrame(frame.getClassName())) {
+				operation = simpleName(frame.getClassName()) + "." + frame.getMethodName();
+				continue;
+			}
+			
+			return new Node(intern(frame), operation, parent);
+		}
+		
+		return new Node(null, operation, parent);
+	}
+	
+	static boolean isLibraryFrame(String className) {
+		if(!className.startsWith(LIBRARY_PACKAGE)) {
+			return false;
+		}
+		
+		//the tests of the library share its packages
+		int nested = className.indexOf('$');
+		return !(nested < 0 ? className : className.substring(0, nested)).endsWith("Test");
+	}
+	
+	private static String simpleName(String className) {
+		return className.substring(className.lastIndexOf('.') + 1);
+	}
+	
+	private static StackTraceElement intern(StackTraceElement frame) {
+		StackTraceElement interned = sites.get(frame);
+		if(interned != null) {
+			return interned;
+		}
+		
+		if(sites.size() >= MAX_INTERNED_SITES) {
+			return frame;
+		}
+		
+		interned = sites.putIfAbsent(frame, frame);
+		return interned != null ? interned : frame;
+	}
+	
+	private static double readSampleRate() {
+		try {
+			double rate = Double.parseDouble(System.getProperty(SAMPLE_RATE_PROPERTY, "0"));
+			return Math.max(0.0, Math.min(1.0, rate));
+		} catch (NumberFormatException ex) {
+			return 0.0;
+		}
+	}
+	
+	/**
+	 * A creation site of a traced promise.
+	 */
+	static class Node {
+		
+		final StackTraceElement site;
+		final String operation;
+		final Node parent;
+		
+		Node(StackTraceElement site, String operation, Node parent) {
+			this.site = site;
+			this.operation = operation;
+			this.parent = parent;
+		}
+	}
+	
+	/**
+	 * The chain of the creation sites of a rejected promise, the most recent first. It is 
+	 * attached as a suppressed exception to the rejection reason.
+	 */
+	public static class AsyncStackTrace extends Exception {
+		
+		private static final long serialVersionUID = 1L;
+		
+		AsyncStackTrace(Node node) {
+			super(message(node));
+			
+			StackTraceElement[] frames = new StackTraceElement[MAX_FRAMES];
+			int count = 0;
+			for(Node current = node; current != null && count < MAX_FRAMES; current = current.parent) {
+				if(current.site != null) {
+					frames[count++] = current.site;
+				}
+			}
+			setStackTrace(Arrays.copyOf(frames, count));
+		}
+		
+		@Override
+		public synchronized Throwable fillInStackTrace() {
+			//the stack trace is the chain of the creation sites
+			return this;
+		}
+		
+		private static String message(Node node) {
+			StringBuilder message = new StringBuilder("Async chain:");
+			int count = 0;
+			for(Node current = node; current != null; current = current.parent) {
+				if(count++ == MAX_FRAMES) {
+					message.append(" ...");
+					break;
+				}
+				message.append(count == 1 ? " " : " <- ").append(current.operation);
+			}
+			return message.toString();
+		}
+	}
+
+}
@@ -53,7 +53,41 @@ public class Callbacks {
 		CallBackType getType();
 	}
 	
-	public abstract static class SuccessCallBack<F, A> implements CallBack<Object, A> {
+	/**
+	 * The functional success callback. The returned value is handled the same way as the value 
+	 * returned by {@link SuccessCallBack#call(Object)}: null forwards the resolved value, an
+	 * exception rejects the next promise and a promise or a thenable is adopted.
+	 * 
+	 * <p>
+	 * A lambda without captured variables is created once by the JVM, so it costs no allocation 
+	 * per call site.
+	 * </p>
+	 *
+	 * @param <F> the type of final resolved value
+	 * @param <A> the type of resolved value
+	 */
+	@FunctionalInterface
+	public static interface OnSuccess<F, A> {
+		Object onSuccess(A value);
+	}
+	
+	/**
+	 * The functional failure callback.
+	 */
+	@FunctionalInterface
+	public static interface OnFailure {
+		void onFailure(Exception reason);
+	}
+	
+	/**
+	 * The functional notification callback.
+	 */
+	@FunctionalInterface
+	public static interface OnNotification {
+		void onNotification(NotificationEvent event);
+	}
+	
+	public abstract static class SuccessCallBack<F, A> implements CallBack<Object, A>, OnSuccess<F, A> {
 		
 		protected int index;
 
@@ -68,28 +102,43 @@ public class Callbacks {
 		@Override
 		public abstract Object call(A arg);
 		
+		@Override
+		public final Object onSuccess(A value) {
+			return call(value);
+		}
+		
 		@Override
 		public CallBackType getType() {
 			return CallBackType.SUCCESS;
 		}
 	}
 	
-	public abstract static class FailureCallBack implements CallBack<VoidType, Exception> {
+	public abstract static class FailureCallBack implements CallBack<VoidType, Exception>, OnFailure {
 
 		@Override
 		public abstract VoidType call(Exception arg);
 		
+		@Override
+		public final void onFailure(Exception reason) {
+			call(reason);
+		}
+		
 		@Override
 		public CallBackType getType() {
 			return CallBackType.FAILURE;
 		}
 	}
 	
-	public abstract static class NotificationCallBack implements CallBack<VoidType, NotificationEvent> {
+	public abstract static class NotificationCallBack implements CallBack<VoidType, NotificationEvent>, OnNotification {
 
 		@Override
 		public abstract VoidType call(NotificationEvent event);
 		
+		@Override
+		public final void onNotification(NotificationEvent event) {
+			call(event);
+		}
+		
 		@Override
 		public CallBackType getType() {
 			return CallBackType.NOTIFICATION;
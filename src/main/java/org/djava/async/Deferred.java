@@ -18,12 +18,19 @@ package org.djava.async;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.djava.async.Callbacks.FailureCallBack;
 import org.djava.async.Callbacks.NotificationCallBack;
 import org.djava.async.Callbacks.NotificationEvent;
+import org.djava.async.Callbacks.OnFailure;
+import org.djava.async.Callbacks.OnNotification;
 import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.jfr.JfrEvents;
 import org.djava.async.util.DeferredContainer;
 import org.djava.async.util.VoidType;
 import org.djava.async.util.DeferredContainer.DeferredTask;
@@ -85,6 +92,28 @@ public abstract class Deferred<R> extends Promise<R> {
 		
 		final T[] result = (T[]) new Object[promises.length];
 		final AtomicInteger completionRemainCount = new AtomicInteger(promises.length);
+		final int inputs = promises.length;
+		final Object event = JfrEvents.ENABLED ? JfrEvents.whenStarted() : null;
+		
+		//the failure and notification callbacks are the same for all of the promises
+		OnFailure failure = new OnFailure() {
+			@Override
+			public void onFailure(Exception reason) {
+				//only the first failure rejects
+				if(deferred.isPending()) {
+					if(event != null) {
+						JfrEvents.whenFinished(event, inputs, true);
+					}
+					deferred.reject(reason);
+				}
+			}
+		};
+		OnNotification notification = new OnNotification() {
+			@Override
+			public void onNotification(NotificationEvent event) {
+				deferred.notify(event);
+			}
+		};
 		
 		for(int i = 0; i < promises.length; i++) {
 			promises[i].then(new SuccessCallBack<Object, T>(i) {
@@ -92,23 +121,14 @@ public abstract class Deferred<R> extends Promise<R> {
 				public Object call(T value) {
 					result[index] = value;
 					if(completionRemainCount.decrementAndGet() == 0) {
+						if(event != null) {
+							JfrEvents.whenFinished(event, inputs, false);
+						}
 						deferred.resolve(Arrays.asList(result));
 					}
 					return VoidType.NOTHING;
 				}
-			}, new FailureCallBack() {
-				@Override
-				public VoidType call(Exception reason) {
-					deferred.reject(reason);
-					return VoidType.NOTHING;
-				}
-			}, new NotificationCallBack() {
-				@Override
-				public VoidType call(NotificationEvent event) {
-					deferred.notify(event);
-					return VoidType.NOTHING;
-				}
-			});
+			}, failure, notification);
 		}
 		
 		return deferred.promise();
@@ -201,4 +221,73 @@ public abstract class Deferred<R> extends Promise<R> {
 		return when(promises);
 	}
 	
+	/**
+	 * Maps the items of a list and reduces the mapped values in parallel on the deferred 
+	 * container. The list is split in halves recursively, fork-join style, into about four pieces 
+	 * per unit of parallelism. Every piece is mapped and reduced sequentially and the partial
+	 * results are combined up the tree as the halves finish, so only a few tasks and no promise
+	 * per item are created. At most <tt>parallelism</tt> container tasks map and reduce at a time,
+	 * the other pieces wait until one of the tasks is free.
+	 * 
+	 * <p>
+	 * The partial results are combined in the list order, so the reducer needs to be associative
+	 * only. The first failure of the mapper or the reducer rejects the promise and stops the 
+	 * pieces which are not started yet. An empty list resolves the promise with null.
+	 * </p>
+	 * 
+	 * @see DeferredContainer
+	 * 
+	 * @param items the items, should be a random access list
+	 * @param mapper maps an item
+	 * @param reducer combines two adjacent mapped or reduced values, must be associative
+	 * @param parallelism the maximum number of the container tasks which run at a time
+	 * 
+	 * @return the promise of the reduced value
+	 */
+	public static <T, R> Promise<R> mapReduce(List<? extends T> items, Function<? super T, ? extends R> mapper, 
+			BinaryOperator<R> reducer, int parallelism) {
+		return MapReduce.start(items, mapper, reducer, parallelism);
+	}
+	
+	/**
+	 * Calls a dependency with hedged requests to cut the tail latency. The first attempt is 
+	 * submitted to the container at once. When it does not succeed within the delay of the policy
+	 * a second attempt is submitted, and so on up to the maximum attempts of the policy. A failed
+	 * attempt starts the next one at once. 
+	 * 
+	 * <p>
+	 * The first success resolves the promise and the other attempts are cancelled, their 
+	 * threads are interrupted. The promise is rejected by the last failure when all of the 
+	 * attempts fail. The attempts should be idempotent, e.g. reads of replicas. Share the
+	 * policy between the calls to the same dependency so that its delay follows the latency
+	 * and its metrics count how often the hedges fire and win.
+	 * </p>
+	 * 
+	 * @see HedgePolicy
+	 * 
+	 * @param callableSupplier supplies a callable for every attempt
+	 * @param policy the hedge policy
+	 * 
+	 * @return the promise of the first successful attempt
+	 */
+	public static <T> Promise<T> hedge(Supplier<? extends Callable<T>> callableSupplier, HedgePolicy policy) {
+		return Hedge.start(callableSupplier, policy);
+	}
+	
+	/**
+	 * Calls a dependency with hedged requests after a fixed delay.
+	 * 
+	 * @see #hedge(Supplier, HedgePolicy)
+	 * 
+	 * @param callableSupplier supplies a callable for every attempt
+	 * @param delay the delay before the next attempt
+	 * @param unit the unit of the delay
+	 * @param maxAttempts the maximum number of the attempts, the first one included
+	 * 
+	 * @return the promise of the first successful attempt
+	 */
+	public static <T> Promise<T> hedge(Supplier<? extends Callable<T>> callableSupplier, long delay, 
+			TimeUnit unit, int maxAttempts) {
+		return Hedge.start(callableSupplier, new HedgePolicy(delay, unit, maxAttempts));
+	}
 }
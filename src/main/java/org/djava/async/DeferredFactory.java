@@ -16,6 +16,10 @@
 package org.djava.async;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
 
 import org.djava.async.util.DeferredContainer.DeferredTask;
 import org.djava.async.util.DeferredContainer.RunnableDeffered;
@@ -51,4 +55,39 @@ public class DeferredFactory {
 		return new DeferredTask<>(callable);
 	}
 	
+	/**
+	 * Factory method to convert a completion stage to a promise. The promise is resolved by the
+	 * thread that completes the stage, there is no extra thread hop.
+	 * 
+	 * <p>
+	 * When the stage is a {@link Future}, rejecting the promise with a {@link CancellationException},
+	 * for example by closing its {@link PromiseScope}, cancels the stage. A future returned by 
+	 * {@link Promise#toCompletableFuture()} is converted back to its original promise.
+	 * </p>
+	 * 
+	 * @param stage the completion stage
+	 * 
+	 * @return the promise
+	 */
+	public static <R> Promise<R> from(CompletionStage<R> stage) {
+		return DeferredImpl.from(stage);
+	}
+	
+	/**
+	 * Converts the failure of a completion stage to the reason to reject a promise with, the
+	 * same way as {@link #from(CompletionStage)} does. A {@link CompletionException} is unwrapped 
+	 * and an error is wrapped in a {@link CompletionException}.
+	 * 
+	 * <p>
+	 * Use it when a stage is observed directly, for example because its null values matter.
+	 * </p>
+	 * 
+	 * @param failure the failure
+	 * 
+	 * @return the rejection reason
+	 */
+	public static Exception toException(Throwable failure) {
+		return DeferredImpl.toException(failure);
+	}
+	
 }
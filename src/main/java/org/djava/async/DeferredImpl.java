@@ -16,15 +16,25 @@
 package org.djava.async;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 
-import org.djava.async.Callbacks.CallBack;
+import org.djava.async.Callbacks.CallBackType;
 import org.djava.async.Callbacks.FailureCallBack;
 import org.djava.async.Callbacks.NotificationCallBack;
 import org.djava.async.Callbacks.NotificationEvent;
+import org.djava.async.Callbacks.OnFailure;
+import org.djava.async.Callbacks.OnNotification;
+import org.djava.async.Callbacks.OnSuccess;
 import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.jfr.JfrEvents;
 import org.djava.async.util.PromiseResult;
 import org.djava.async.util.VoidType;
 
@@ -54,8 +64,60 @@ class DeferredImpl<R> extends Deferred<R> {
 	
 	private PromiseImpl promise;
 	
+	volatile PromiseScope scope;
+	
+	/**
+	 * The creation site, null when the promise is not traced.
+	 */
+	final AsyncTrace.Node trace;
+	
+	/**
+	 * The leak record, null when the promise is not sampled.
+	 */
+	private final PromiseLeakDetector.LeakRecord leak;
+	
+	/**
+	 * The listeners, null when there is none. Always null when the listeners are not enabled.
+	 */
+	volatile PromiseListener[] listeners;
+	
 	public DeferredImpl() {
+		this(AsyncTrace.root(), PromiseListeners.ENABLED ? PromiseListeners.global() : null);
+	}
+	
+	DeferredImpl(AsyncTrace.Node trace, PromiseListener[] listeners) {
+		this.trace = trace;
 		promise = new PromiseImpl(); 
+		leak = PromiseLeakDetector.track(this);
+		
+		if(PromiseListeners.ENABLED && listeners != null) {
+			this.listeners = listeners;
+			PromiseListeners.fireCreate(listeners, promise);
+		}
+		
+		PromiseScope current = PromiseScope.current();
+		if(current != null) {
+			current.track(this);
+		}
+	}
+	
+	/**
+	 * Gets the deferred implementation behind a promise.
+	 * 
+	 * @param promise the promise
+	 * 
+	 * @return the deferred object, null when the promise is not created by this library
+	 */
+	static DeferredImpl<?> of(Promise<?> promise) {
+		if(promise instanceof DeferredImpl) {
+			return (DeferredImpl<?>) promise;
+		}
+		
+		if(promise instanceof DeferredImpl.PromiseImpl) {
+			return ((DeferredImpl<?>.PromiseImpl) promise).deferred;
+		}
+		
+		return null;
 	}
 	
 	/**
@@ -104,12 +166,42 @@ class DeferredImpl<R> extends Deferred<R> {
 	 * @param the resolved value
 	 */
 	private void fulfill(Object value) {
-		if(!promise.state.compareAndSet(STATE.PENDING, STATE.FULFILLED)) {
+		if(!tryFulfill(value)) {
 			throw new RuntimeException("Promise is resolved.");
 		}
+	}
+	
+	/**
+	 * Fulfills the promise with the value as it is, if it is still pending.
+	 * 
+	 * @param value the resolved value
+	 * 
+	 * @return false when the promise is already resolved
+	 */
+	boolean tryFulfill(Object value) {
+		if(!promise.state.compareAndSet(STATE.PENDING, STATE.FULFILLED)) {
+			return false;
+		}
 		
 		promise.newResult = new PromiseResult(value);
-		signalHandlersResolved(value);
+		if(leak != null) {
+			leak.close();
+		}
+		
+		if(PromiseListeners.ENABLED) {
+			PromiseListener[] current = listeners;
+			if(current != null) {
+				PromiseListeners.fireFulfill(current, promise, value);
+			}
+		}
+		
+		try {
+			signalHandlersResolved(value);
+		} finally {
+			settled(null);
+		}
+		
+		return true;
 	}
 
 	/**
@@ -120,12 +212,65 @@ class DeferredImpl<R> extends Deferred<R> {
 	 * @param ex the rejection reason
 	 */
 	public void reject(Exception ex) {
-		if(!promise.state.compareAndSet(STATE.PENDING, STATE.REJECTED)) {
+		if(!tryReject(ex)) {
 			throw new RuntimeException("Promise is resolved.");
 		}
+	}
+	
+	/**
+	 * Rejects the promise if it is still pending.
+	 * 
+	 * @param ex the rejection reason
+	 * 
+	 * @return false when the promise is already resolved
+	 */
+	boolean tryReject(Exception ex) {
+		if(!promise.state.compareAndSet(STATE.PENDING, STATE.REJECTED)) {
+			return false;
+		}
 		
 		promise.newResult = new PromiseResult(ex);
-		signalHandlersRejected((Exception) promise.newResult.get());
+		
+		if(PromiseListeners.ENABLED) {
+			PromiseListener[] current = listeners;
+			if(current != null) {
+				PromiseListeners.fireReject(current, promise, ex);
+			}
+		}
+		
+		try {
+			boolean observed = signalHandlersRejected((Exception) promise.newResult.get());
+			if(leak != null) {
+				leak.rejected(ex, observed);
+			}
+		} finally {
+			settled(ex);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Called when the promise will stay pending forever because the rejection of the previous 
+	 * promise in the chain is consumed by a failure callback.
+	 */
+	void abandoned() {
+		if(leak != null) {
+			leak.close();
+		}
+		settled(null);
+	}
+	
+	/**
+	 * Informs the owner scope, if any, that the promise is settled.
+	 * 
+	 * @param ex the rejection reason, null when fulfilled
+	 */
+	private void settled(Exception ex) {
+		PromiseScope owner = scope;
+		if(owner != null) {
+			owner.childSettled(this, ex);
+		}
 	}
 	
 	/**
@@ -139,7 +284,14 @@ class DeferredImpl<R> extends Deferred<R> {
 			return;
 		}
 		
-		for(CompletionHandler<?, ?> handler : promise.handlers) {
+		if(PromiseListeners.ENABLED) {
+			PromiseListener[] current = listeners;
+			if(current != null) {
+				PromiseListeners.fireNotify(current, promise, event);
+			}
+		}
+		
+		for(Handler handler : promise.handlers) {
 			handler.notify(event);
 		}
 	}
@@ -151,7 +303,7 @@ class DeferredImpl<R> extends Deferred<R> {
 	 */
 	private void signalHandlersResolved(Object value) {
 		while(true) {
-			CompletionHandler<?, ?> handler = promise.handlers.poll();
+			Handler handler = promise.handlers.poll();
 			if(handler == null) {
 				break;
 			}
@@ -164,16 +316,20 @@ class DeferredImpl<R> extends Deferred<R> {
 	 * Calls rejection handlers.
 	 * 
 	 * @param ex the exception
+	 * @return true when at least one handler observes the rejection
 	 */
-	private void signalHandlersRejected(Exception ex) {
+	private boolean signalHandlersRejected(Exception ex) {
+		boolean observed = false;
 		while(true) {
-			CompletionHandler<?, ?> handler = promise.handlers.poll();
+			Handler handler = promise.handlers.poll();
 			if(handler == null) {
 				break;
 			}
 			
+			observed |= handler.observesRejection();
 			handler.reject(ex);
 		}
+		return observed;
 	}
 	
 	/**
@@ -188,6 +344,18 @@ class DeferredImpl<R> extends Deferred<R> {
 			FailureCallBack failure, NotificationCallBack notification) {
 		return promise.then(success, failure, notification);
 	}
+	
+	/**
+	 * The then method with functional callbacks. The call is delegated to the public promise interface.
+	 * 
+	 * @see PromiseImpl
+	 * 
+	 * @return a new promise
+	 */
+	@Override
+	public <F> Promise<F> then(OnSuccess<F, R> success, OnFailure failure, OnNotification notification) {
+		return promise.then(success, failure, notification);
+	}
 
 	/**
 	 * The join method. The call is delegated to the public promise interface.
@@ -202,6 +370,18 @@ class DeferredImpl<R> extends Deferred<R> {
 		return promise.join(otherPromise, failure, notification);
 	}
 	
+	/**
+	 * The toCompletableFuture method. The call is delegated to the public promise interface.
+	 * 
+	 * @see PromiseImpl
+	 * 
+	 * @return a new future
+	 */
+	@Override
+	public CompletableFuture<R> toCompletableFuture() {
+		return promise.toCompletableFuture();
+	}
+	
 	/**
 	 * Gets the promise's resolved value
 	 * 
@@ -211,6 +391,79 @@ class DeferredImpl<R> extends Deferred<R> {
 	public <T> T getResult() {
 		return promise.getResult();
 	}
+	
+	/**
+	 * Converts the failure of a completion stage, see {@link DeferredFactory#toException(Throwable)}.
+	 * 
+	 * @param failure the failure
+	 * 
+	 * @return the rejection reason
+	 */
+	static Exception toException(Throwable failure) {
+		if(failure instanceof CompletionException && failure.getCause() != null) {
+			failure = failure.getCause();
+		}
+		return failure instanceof Exception ? (Exception) failure : new CompletionException(failure);
+	}
+	
+	/**
+	 * Creates a promise that settles with the completion stage, see {@link DeferredFactory#from(CompletionStage)}.
+	 * 
+	 * @param stage the completion stage
+	 * 
+	 * @return the promise
+	 */
+	static <R> Promise<R> from(CompletionStage<R> stage) {
+		if(stage instanceof PromiseFuture) {
+			//round trip, the future is backed by a promise
+			return ((PromiseFuture<R>) stage).deferred.promise();
+		}
+		
+		final DeferredImpl<R> deferred = new DeferredImpl<>();
+		
+		if(stage instanceof CompletableFuture) {
+			CompletableFuture<R> future = (CompletableFuture<R>) stage;
+			if(future.isDone() && !future.isCompletedExceptionally()) {
+				deferred.tryFulfill(future.getNow(null));
+				return deferred.promise();
+			}
+		}
+		
+		stage.whenComplete(new BiConsumer<R, Throwable>() {
+			@Override
+			public void accept(R value, Throwable ex) {
+				if(ex == null) {
+					deferred.tryFulfill(value);
+					return;
+				}
+				
+				deferred.tryReject(toException(ex));
+			}
+		});
+		
+		if(stage instanceof Future) {
+			final Future<?> future = (Future<?>) stage;
+			deferred.promise.addHandler(new Handler() {
+				@Override
+				void resolve(Object value) {
+				}
+				
+				@Override
+				void reject(Exception ex) {
+					if(ex instanceof CancellationException) {
+						future.cancel(false);
+					}
+				}
+				
+				@Override
+				boolean observesRejection() {
+					return false;
+				}
+			});
+		}
+		
+		return deferred.promise();
+	}
 
 	@Override
 	public boolean isPending() {
@@ -293,12 +546,12 @@ class DeferredImpl<R> extends Deferred<R> {
 	 * @param value
 	 * @return
 	 */
-	private <P> Object executeCallBack(CallBack<?, P> callBack, P value) {
+	private <P> Object executeCallBack(OnSuccess<?, P> callBack, P value) {
 		
 		if(value == null) return null;
 		
 		try {
-			Object callBackResult = callBack.call(value);
+			Object callBackResult = callBack.onSuccess(value);
 			return callBackResult;
 		}
 		catch(Exception ex) {
@@ -353,14 +606,17 @@ class DeferredImpl<R> extends Deferred<R> {
 		AtomicBoolean resolveCalledButWaiting = new AtomicBoolean(false);
 		AtomicReference<STATE> state = new AtomicReference<>(STATE.PENDING);
 		
-		PromiseResult newResult;
+		/**
+		 * Written right after the state changes. It must be volatile, the readers spin on it.
+		 */
+		volatile PromiseResult newResult;
 		
 		DeferredImpl<R> deferred = (DeferredImpl<R>) DeferredImpl.this;
 		
-		ConcurrentLinkedQueue<CompletionHandler<?, ?>> handlers;
+		ConcurrentLinkedQueue<Handler> handlers;
 		
 		public PromiseImpl() {
-			handlers = new ConcurrentLinkedQueue<CompletionHandler<?, ?>>();
+			handlers = new ConcurrentLinkedQueue<Handler>();
 		}
 
 		/**
@@ -389,30 +645,26 @@ class DeferredImpl<R> extends Deferred<R> {
 		 */
 		@Override
 		public <F> Promise<F> then(SuccessCallBack<F, R> success, FailureCallBack failure, NotificationCallBack notification) {
-			DeferredImpl<F> deferred = new DeferredImpl<>();
+			return then((OnSuccess<F, R>) success, (OnFailure) failure, (OnNotification) notification);
+		}
+		
+		/**
+		 * The main then method with functional callbacks. The callbacks are stored as they are,
+		 * the abstract callback classes implement the functional interfaces.
+		 * 
+		 * @param success the success callback, can be optional
+		 * @param failure the failure callback, can be optional
+		 * @param notification the notification callback, can be optional
+		 * 
+		 * @return a new promise
+		 */
+		@Override
+		public <F> Promise<F> then(OnSuccess<F, R> success, OnFailure failure, OnNotification notification) {
+			DeferredImpl<F> deferred = new DeferredImpl<>(AsyncTrace.child(trace), listeners);
 			
 			CompletionHandler<F, R> handler = new CompletionHandler<F, R>(success, failure, notification, deferred);
 			
-			if(!isPending()) {
-				
-				waitTillResultUpdated();
-				
-				//FIXME: order is not thread safe
-//				if(!isRejected()) handler.resolve(newResult.get());
-//				else handler.reject((Exception) newResult.get());
-				
-				if(!isRejected()) {
-					handlers.add(handler);
-					signalHandlersResolved(newResult.get());
-				}
-				else {
-					signalHandlersRejected((Exception) newResult.get());
-				}
-				
-				return deferred.promise();
-			}
-			
-			handlers.add(handler);
+			addHandler(handler);
 			
 			return deferred.promise();
 		}
@@ -428,7 +680,7 @@ class DeferredImpl<R> extends Deferred<R> {
 		 * @return the results from the both promises
 		 */
 		public Promise<List<Object>> join(final Promise<?> promise, FailureCallBack failure, NotificationCallBack notification) {
-			DeferredImpl<List<Object>> deferred = new DeferredImpl<>();
+			DeferredImpl<List<Object>> deferred = new DeferredImpl<>(AsyncTrace.child(trace), listeners);
 			
 			promise.fail(failure);
 			
@@ -441,19 +693,64 @@ class DeferredImpl<R> extends Deferred<R> {
 			}; 
 			
 			CompletionHandler<List<Object>, Object> handler = new CompletionHandler<>(success, failure, notification, deferred);
-			if(!isPending()) {
-				if(isFulfilled()) {
-					handler.resolve(getResult());
+			
+			addHandler(handler);
+			
+			return deferred.promise();
+		}
+		
+		/**
+		 * Gets a future that completes with the promise. The future is completed by the thread
+		 * that resolves the promise, without any intermediate promise. Cancelling the future
+		 * rejects the promise with a {@link CancellationException}.
+		 * 
+		 * @return a new future
+		 */
+		@Override
+		public CompletableFuture<R> toCompletableFuture() {
+			final PromiseFuture<R> future = new PromiseFuture<>(deferred);
+			addHandler(new Handler() {
+				@Override
+				void resolve(Object value) {
+					future.complete((R) value);
 				}
-				if(isRejected()) {
-					handler.reject((Exception) getResult());
+				
+				@Override
+				void reject(Exception ex) {
+					future.completeExceptionally(ex);
 				}
-				return deferred.promise();
+			});
+			return future;
+		}
+		
+		/**
+		 * Adds a handler and runs it when the promise is already resolved.
+		 * 
+		 * <p>
+		 * The handler is queued before the state is checked. A concurrent resolve either finds the 
+		 * handler in the queue or has changed the state before the check, in which case the handlers
+		 * are drained here. Both sides drain with <tt>poll()</tt>, so a handler runs exactly once and
+		 * can not be lost between the check and the add.
+		 * </p>
+		 * 
+		 * @param handler the handler
+		 */
+		private void addHandler(Handler handler) {
+			handlers.add(handler);
+			
+			if(isPending()) {
+				return;
 			}
 			
-			handlers.add(handler);
+			waitTillResultUpdated();
 			
-			return deferred.promise();
+			if(!isRejected()) {
+				signalHandlersResolved(newResult.get());
+			}
+			else if(signalHandlersRejected((Exception) newResult.get()) && leak != null) {
+				//a late handler observes the rejection
+				leak.close();
+			}
 		}
 		
 		/**
@@ -464,7 +761,7 @@ class DeferredImpl<R> extends Deferred<R> {
 		 */
 		private void waitTillResultUpdated() {
 			while(promise.newResult == null) {
-				//wait loop
+				Thread.onSpinWait();
 			}
 		}
 		
@@ -496,33 +793,70 @@ class DeferredImpl<R> extends Deferred<R> {
 
 	}
 	
+	/**
+	 * A handler waiting for the promise to be resolved. Every handler is called once, either
+	 * with the resolved value or with the rejection reason.
+	 */
+	private static abstract class Handler {
+		
+		abstract void resolve(Object value);
+		
+		abstract void reject(Exception ex);
+		
+		void notify(NotificationEvent event) {
+		}
+		
+		/**
+		 * Whether the handler handles a rejection. A rejection that no handler observes is
+		 * reported by the leak detector.
+		 * 
+		 * @return true when the handler handles a rejection
+		 */
+		boolean observesRejection() {
+			return true;
+		}
+	}
+	
 	/**
 	 * The completion handler.
 	 * 
 	 * @param <F> the type of final resolved value
 	 * @param <P> the type of current promise's resolved value
 	 */
-	private class CompletionHandler<F, P> {
+	private class CompletionHandler<F, P> extends Handler {
 		
-		private SuccessCallBack<F, P> success;
-		private FailureCallBack failure;
-		private NotificationCallBack notification;
-		private Deferred<F> deferred;
+		private OnSuccess<F, P> success;
+		private OnFailure failure;
+		private OnNotification notification;
+		private DeferredImpl<F> deferred;
 
-		CompletionHandler(SuccessCallBack<F, P> success, FailureCallBack failure, NotificationCallBack notification, Deferred<F> deferred) {
+		CompletionHandler(OnSuccess<F, P> success, OnFailure failure, OnNotification notification, DeferredImpl<F> deferred) {
 			this.success = success;
 			this.failure = failure;
 			this.notification = notification;
 			this.deferred = deferred;
 		}
 		
+		@Override
 		void resolve(Object value) {
+			if(!deferred.isPending()) {
+				//cancelled
+				return;
+			}
+			
 			if(success == null) {
 				deferred.resolve((F)value);
 				return;
 			}
 			
+			callbackStarted(CallBackType.SUCCESS);
+			Object event = JfrEvents.ENABLED ? JfrEvents.callbackStarted() : null;
 			Object callBackValue = executeCallBack(success, (P)value);
+			if(event != null) {
+				JfrEvents.callbackFinished(event, CallBackType.SUCCESS, success.getClass(), callBackValue instanceof Exception);
+			}
+			callbackEnded(CallBackType.SUCCESS);
+			
 			if(callBackValue == null) {
 				deferred.resolve((F)value);
 				return;
@@ -536,21 +870,73 @@ class DeferredImpl<R> extends Deferred<R> {
 			fulfillPromise(deferred, callBackValue);
 		}
 		
+		@Override
 		void reject(Exception ex) {
+			if(!deferred.isPending()) {
+				//cancelled
+				return;
+			}
+			
 			if(failure == null) {
 				deferred.reject(ex);
 				return;
 			}
 			
-			failure.call(ex);
+			AsyncTrace.attach(ex, deferred.trace);
+			
+			callbackStarted(CallBackType.FAILURE);
+			Object event = JfrEvents.ENABLED ? JfrEvents.callbackStarted() : null;
+			boolean completed = false;
+			try {
+				failure.onFailure(ex);
+				completed = true;
+			} finally {
+				if(event != null) {
+					JfrEvents.callbackFinished(event, CallBackType.FAILURE, failure.getClass(), !completed);
+				}
+				callbackEnded(CallBackType.FAILURE);
+				
+				//the rejection is consumed, nobody can settle the next promise anymore
+				deferred.abandoned();
+			}
 		}
 		
+		@Override
 		void notify(NotificationEvent event) {
 			if(notification == null) {
 				return;
 			}
 			
-			notification.call(event);
+			callbackStarted(CallBackType.NOTIFICATION);
+			Object jfrEvent = JfrEvents.ENABLED ? JfrEvents.callbackStarted() : null;
+			boolean completed = false;
+			try {
+				notification.onNotification(event);
+				completed = true;
+			} finally {
+				if(jfrEvent != null) {
+					JfrEvents.callbackFinished(jfrEvent, CallBackType.NOTIFICATION, notification.getClass(), !completed);
+				}
+				callbackEnded(CallBackType.NOTIFICATION);
+			}
+		}
+		
+		private void callbackStarted(CallBackType type) {
+			if(PromiseListeners.ENABLED) {
+				PromiseListener[] current = listeners;
+				if(current != null) {
+					PromiseListeners.fireCallbackStart(current, promise, type);
+				}
+			}
+		}
+		
+		private void callbackEnded(CallBackType type) {
+			if(PromiseListeners.ENABLED) {
+				PromiseListener[] current = listeners;
+				if(current != null) {
+					PromiseListeners.fireCallbackEnd(current, promise, type);
+				}
+			}
 		}
 	}
 }
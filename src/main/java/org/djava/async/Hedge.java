@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.djava.async.util.AsyncTimer;
+import org.djava.async.util.DeferredContainer.DeferredTask;
+
+/**
+ * A hedged call of {@link Deferred#hedge(Supplier, HedgePolicy)}.
+ * 
+ * <p>
+ * Every attempt is a container task with a fresh callable from the supplier. The timer starts
+ * the next attempt when the delay passes without a success, a failed attempt starts the next 
+ * one at once. Attempts are claimed from <tt>launched</tt>, so the timer and a failure never
+ * start the same attempt twice. The first success settles the call and cancels the other 
+ * attempts like a cancelled {@link PromiseScope} cancels its tasks. The call is rejected by
+ * the failure of the last attempt when all of the attempts fail.
+ * </p>
+ */
+final class Hedge<T> implements Runnable {
+	
+	private final Deferred<T> deferred = DeferredFactory.createDeferred();
+	
+	private final Supplier<? extends Callable<T>> supplier;
+	
+	private final HedgePolicy policy;
+	
+	private final long delay;
+	
+	private final AtomicReferenceArray<DeferredTask<T>> tasks;
+	
+	//written before the task is published to tasks
+	private final long[] launchedAt;
+	
+	private final AtomicInteger launched = new AtomicInteger();
+	
+	private final AtomicInteger failed = new AtomicInteger();
+	
+	private final AtomicBoolean settled = new AtomicBoolean();
+	
+	private Hedge(Supplier<? extends Callable<T>> supplier, HedgePolicy policy) {
+		this.supplier = supplier;
+		this.policy = policy;
+		this.delay = policy.delayNanos();
+		this.tasks = new AtomicReferenceArray<>(policy.getMaxAttempts());
+		this.launchedAt = new long[policy.getMaxAttempts()];
+	}
+	
+	static <T> Promise<T> start(Supplier<? extends Callable<T>> supplier, HedgePolicy policy) {
+		if(supplier == null || policy == null) {
+			throw new NullPointerException("The supplier or the policy is empty.");
+		}
+		
+		Hedge<T> hedge = new Hedge<>(supplier, policy);
+		policy.callStarted();
+		
+		//the first attempt is submitted on the calling thread, a stopped container throws
+		hedge.launched.set(1);
+		hedge.launch(0);
+		hedge.scheduleNext();
+		return hedge.deferred.promise();
+	}
+	
+	/**
+	 * The delay passed, starts the next attempt.
+	 */
+	@Override
+	public void run() {
+		if(settled.get()) {
+			return;
+		}
+		
+		int index = claim();
+		if(index < 0) {
+			return;
+		}
+		
+		policy.hedgeStarted();
+		launchSafely(index);
+		scheduleNext();
+	}
+	
+	private void scheduleNext() {
+		if(launched.get() < tasks.length() && !settled.get()) {
+			AsyncTimer.schedule(this, delay, TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Claims the next attempt.
+	 * 
+	 * @return the index of the attempt, or -1 if all of the attempts are started
+	 */
+	private int claim() {
+		for(int index = launched.get(); index < tasks.length(); index = launched.get()) {
+			if(launched.compareAndSet(index, index + 1)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	private void launch(int index) {
+		DeferredTask<T> task = new DeferredTask<>(supplier.get());
+		long now = System.nanoTime();
+		launchedAt[index] = now;
+		tasks.set(index, task);
+		task.promise().toCompletableFuture().whenComplete(new Attempt(index, now));
+		task.submit();
+		
+		if(settled.get()) {
+			//won by another attempt while submitting
+			cancel(task);
+		}
+	}
+	
+	private void launchSafely(int index) {
+		try {
+			launch(index);
+		} catch(RuntimeException ex) {
+			failed(ex);
+		}
+	}
+	
+	private void succeeded(int index, T value, long latency) {
+		if(!settled.compareAndSet(false, true)) {
+			return;
+		}
+		
+		long now = System.nanoTime();
+		policy.callSucceeded(index > 0);
+		policy.attemptFinished(latency);
+		for(int i = 0; i < tasks.length(); i++) {
+			DeferredTask<T> task = tasks.get(i);
+			if(i != index && task != null) {
+				if(task.promise().isPending()) {
+					//outrun, its latency is at least the time it ran
+					policy.attemptFinished(now - launchedAt[i]);
+				}
+				cancel(task);
+			}
+		}
+		deferred.resolve(value);
+	}
+	
+	private void failed(Exception ex) {
+		if(settled.get()) {
+			return;
+		}
+		
+		if(failed.incrementAndGet() == tasks.length()) {
+			if(settled.compareAndSet(false, true)) {
+				deferred.reject(ex);
+			}
+			return;
+		}
+		
+		int index = claim();
+		if(index >= 0) {
+			policy.hedgeStarted();
+			launchSafely(index);
+		}
+	}
+	
+	private static void cancel(DeferredTask<?> task) {
+		task.cancel(true);
+		
+		DeferredImpl<?> attempt = DeferredImpl.of(task.promise());
+		if(attempt != null) {
+			attempt.tryReject(new CancellationException("The attempt is hedged."));
+		}
+	}
+	
+	/**
+	 * Observes an attempt, a null value is a success too.
+	 */
+	private class Attempt implements BiConsumer<T, Throwable> {
+		
+		final int index;
+		
+		final long startedAt;
+		
+		Attempt(int index, long startedAt) {
+			this.index = index;
+			this.startedAt = startedAt;
+		}
+		
+		@Override
+		public void accept(T value, Throwable ex) {
+			if(ex == null) {
+				succeeded(index, value, System.nanoTime() - startedAt);
+				return;
+			}
+			
+			failed(DeferredFactory.toException(ex));
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.djava.async.metrics.LogLinearHistogram;
+
+/**
+ * The policy and the metrics of the hedged calls of {@link Deferred#hedge(Supplier, HedgePolicy)}.
+ * Share one policy between the calls to the same kind of dependency: the policy tracks the 
+ * latency of the single attempts and moves the hedge delay to the configured percentile of the
+ * last {@value #WINDOW_SIZE} attempts. Until a full window is recorded the initial delay is used.
+ * 
+ * <p>
+ * The latency of a call is not used, because the hedges cut the very tail the delay is learned 
+ * from. An attempt which is outrun by another one records the time it ran so far, its latency 
+ * is at least that, so the cut tail stays in the window.
+ * </p>
+ */
+public class HedgePolicy {
+	
+	public static final double DEFAULT_PERCENTILE = 95.0;
+	
+	/**
+	 * The number of the attempts from which the delay is computed.
+	 */
+	public static final int WINDOW_SIZE = 128;
+	
+	private final int maxAttempts;
+	
+	private final double percentile;
+	
+	private final LongAdder calls = new LongAdder();
+	
+	private final LongAdder hedges = new LongAdder();
+	
+	private final LongAdder hedgeWins = new LongAdder();
+	
+	private final AtomicInteger recorded = new AtomicInteger();
+	
+	private volatile LogLinearHistogram window = new LogLinearHistogram();
+	
+	private volatile long delay;
+	
+	/**
+	 * Creates a policy which hedges after the 95th percentile of the latency.
+	 * 
+	 * @param initialDelay the delay until the latency is known
+	 * @param unit the unit of the delay
+	 * @param maxAttempts the maximum number of the attempts of a call, the first one included
+	 */
+	public HedgePolicy(long initialDelay, TimeUnit unit, int maxAttempts) {
+		this(initialDelay, unit, maxAttempts, DEFAULT_PERCENTILE);
+	}
+	
+	/**
+	 * Creates a policy.
+	 * 
+	 * @param initialDelay the delay until the latency is known
+	 * @param unit the unit of the delay
+	 * @param maxAttempts the maximum number of the attempts of a call, the first one included
+	 * @param percentile the percentile of the latency to hedge after, between 0 and 100
+	 */
+	public HedgePolicy(long initialDelay, TimeUnit unit, int maxAttempts, double percentile) {
+		if(initialDelay < 0 || maxAttempts < 1) {
+			throw new IllegalArgumentException("The delay can not be negative and the attempts must be positive.");
+		}
+		
+		if(!(percentile > 0 && percentile <= 100)) {
+			throw new IllegalArgumentException("The percentile must be greater than 0 and at most 100.");
+		}
+		
+		this.delay = unit.toNanos(initialDelay);
+		this.maxAttempts = maxAttempts;
+		this.percentile = percentile;
+	}
+	
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+	
+	/**
+	 * Gets the current hedge delay.
+	 * 
+	 * @param unit the unit of the delay
+	 * 
+	 * @return the delay
+	 */
+	public long getDelay(TimeUnit unit) {
+		return unit.convert(delay, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * @return the number of the hedged calls
+	 */
+	public long getCalls() {
+		return calls.sum();
+	}
+	
+	/**
+	 * @return the number of the extra attempts which are started
+	 */
+	public long getHedges() {
+		return hedges.sum();
+	}
+	
+	/**
+	 * @return the number of the calls which are won by an extra attempt
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.sum();
+	}
+	
+	long delayNanos() {
+		return delay;
+	}
+	
+	void callStarted() {
+		calls.increment();
+	}
+	
+	void hedgeStarted() {
+		hedges.increment();
+	}
+	
+	void callSucceeded(boolean hedgeWon) {
+		if(hedgeWon) {
+			hedgeWins.increment();
+		}
+	}
+	
+	/**
+	 * Records the latency of an attempt, from its own start. The recorder which fills the 
+	 * window computes the new delay and starts a new window.
+	 */
+	void attemptFinished(long latency) {
+		LogLinearHistogram current = window;
+		current.record(latency);
+		if(recorded.incrementAndGet() % WINDOW_SIZE == 0) {
+			window = new LogLinearHistogram();
+			delay = current.snapshot().getPercentile(percentile);
+		}
+	}
+	
+	@Override
+	public String toString() {
+		return "calls=" + getCalls() + ", hedges=" + getHedges() + ", hedgeWins=" + getHedgeWins() 
+				+ ", delay=" + delay;
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import org.djava.async.util.DeferredContainer.DeferredTask;
+
+/**
+ * The fork-join map-reduce of {@link Deferred#mapReduce(List, Function, BinaryOperator, int)}.
+ * 
+ * <p>
+ * A task keeps the left half of its range and forks the right half as a new container task 
+ * until the range is small enough to be a leaf. No task waits for another: every split is a 
+ * {@link Join} which counts its two halves down, the half which finishes last combines both
+ * and passes the value up to the parent join. The last join settles the promise.
+ * </p>
+ * 
+ * <p>
+ * At most <tt>parallelism</tt> container tasks run at a time. A forked half which finds all of 
+ * them busy is queued, and a task which finishes its half takes the next queued one instead of
+ * ending, so the other users of the container are not flooded.
+ * </p>
+ */
+final class MapReduce<T, R> {
+	
+	/**
+	 * The number of the leaves per unit of parallelism, so that a slow leaf does not leave the
+	 * other threads idle at the end.
+	 */
+	private static final int LEAVES_PER_THREAD = 4;
+	
+	private final Deferred<R> deferred = DeferredFactory.createDeferred();
+	
+	private final List<? extends T> items;
+	
+	private final Function<? super T, ? extends R> mapper;
+	
+	private final BinaryOperator<R> reducer;
+	
+	private final int leafSize;
+	
+	private final int parallelism;
+	
+	private final AtomicBoolean failed = new AtomicBoolean();
+	
+	//the forked halves which wait for a task
+	private final ConcurrentLinkedQueue<Range> forked = new ConcurrentLinkedQueue<>();
+	
+	//the submitted and the running tasks
+	private final AtomicInteger tasks = new AtomicInteger();
+	
+	private MapReduce(List<? extends T> items, Function<? super T, ? extends R> mapper, BinaryOperator<R> reducer, 
+			int leafSize, int parallelism) {
+		this.items = items;
+		this.mapper = mapper;
+		this.reducer = reducer;
+		this.leafSize = leafSize;
+		this.parallelism = parallelism;
+	}
+	
+	static <T, R> Promise<R> start(List<? extends T> items, Function<? super T, ? extends R> mapper, 
+			BinaryOperator<R> reducer, int parallelism) {
+		if(mapper == null || reducer == null) {
+			throw new NullPointerException("The mapper or the reducer is empty.");
+		}
+		
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be positive.");
+		}
+		
+		int size = items.size();
+		long leaves = (long) parallelism * LEAVES_PER_THREAD;
+		int leafSize = (int) Math.max(1, (size + leaves - 1) / leaves);
+		
+		MapReduce<T, R> mapReduce = new MapReduce<>(items, mapper, reducer, leafSize, parallelism);
+		if(size == 0) {
+			mapReduce.deferred.resolve(null);
+		} else {
+			mapReduce.fork(0, size, null, false);
+		}
+		return mapReduce.deferred.promise();
+	}
+	
+	private void fork(int from, int to, Join parent, boolean right) {
+		forked.offer(new Range(from, to, parent, right));
+		schedule();
+	}
+	
+	/**
+	 * Submits tasks for the queued halves while fewer than <tt>parallelism</tt> tasks are running.
+	 * A half which is left in the queue is taken by a running task.
+	 */
+	private void schedule() {
+		while(!forked.isEmpty()) {
+			int current = tasks.get();
+			if(current >= parallelism) {
+				return;
+			}
+			
+			if(!tasks.compareAndSet(current, current + 1)) {
+				continue;
+			}
+			
+			Range range = forked.poll();
+			if(range == null) {
+				tasks.decrementAndGet();
+				continue;
+			}
+			
+			submit(range);
+		}
+	}
+	
+	private void submit(final Range first) {
+		try {
+			new DeferredTask<>(new Callable<Object>() {
+				@Override
+				public Object call() {
+					Range range = first;
+					while(range != null) {
+						compute(range.from, range.to, range.parent, range.right);
+						range = forked.poll();
+					}
+					
+					tasks.decrementAndGet();
+					//a half can be queued after the last poll while this task still counted as running
+					schedule();
+					return null;
+				}
+			}).submit();
+		} catch(RuntimeException ex) {
+			//the container is not running
+			tasks.decrementAndGet();
+			fail(ex);
+		}
+	}
+	
+	private void compute(int from, int to, Join parent, boolean right) {
+		while(to - from > leafSize && !failed.get()) {
+			int middle = (from + to) >>> 1;
+			Join join = new Join(parent, right);
+			fork(middle, to, join, true);
+			
+			to = middle;
+			parent = join;
+			right = false;
+		}
+		
+		if(failed.get()) {
+			return;
+		}
+		
+		R value;
+		try {
+			List<? extends T> leaf = items.subList(from, to);
+			value = null;
+			boolean first = true;
+			for(T item : leaf) {
+				R mapped = mapper.apply(item);
+				value = first ? mapped : reducer.apply(value, mapped);
+				first = false;
+			}
+		} catch(RuntimeException ex) {
+			fail(ex);
+			return;
+		}
+		
+		complete(parent, right, value);
+	}
+	
+	private void complete(Join join, boolean right, R value) {
+		while(join != null) {
+			if(right) {
+				join.rightValue = value;
+			} else {
+				join.leftValue = value;
+			}
+			
+			if(join.pending.decrementAndGet() != 0) {
+				//the other half passes the value up
+				return;
+			}
+			
+			if(failed.get()) {
+				return;
+			}
+			
+			try {
+				value = reducer.apply(join.leftValue, join.rightValue);
+			} catch(RuntimeException ex) {
+				fail(ex);
+				return;
+			}
+			
+			right = join.isRight;
+			join = join.parent;
+		}
+		
+		deferred.resolve(value);
+	}
+	
+	private void fail(Exception ex) {
+		if(failed.compareAndSet(false, true)) {
+			deferred.reject(ex);
+		}
+	}
+	
+	/**
+	 * A forked half which waits for a task.
+	 */
+	private final class Range {
+		
+		final int from;
+		
+		final int to;
+		
+		final Join parent;
+		
+		final boolean right;
+		
+		Range(int from, int to, Join parent, boolean right) {
+			this.from = from;
+			this.to = to;
+			this.parent = parent;
+			this.right = right;
+		}
+	}
+	
+	/**
+	 * A split. The halves are written before the count down, so the half which counts down to 
+	 * zero sees both.
+	 */
+	private final class Join {
+		
+		final Join parent;
+		
+		final boolean isRight;
+		
+		final AtomicInteger pending = new AtomicInteger(2);
+		
+		R leftValue;
+		
+		R rightValue;
+		
+		Join(Join parent, boolean isRight) {
+			this.parent = parent;
+			this.isRight = isRight;
+		}
+	}
+}
@@ -16,10 +16,17 @@
 package org.djava.async;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 
 import org.djava.async.Callbacks.FailureCallBack;
 import org.djava.async.Callbacks.NotificationCallBack;
+import org.djava.async.Callbacks.NotificationEvent;
+import org.djava.async.Callbacks.OnFailure;
+import org.djava.async.Callbacks.OnNotification;
+import org.djava.async.Callbacks.OnSuccess;
 import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.util.VoidType;
 
 /**
  * Public interface to access the deferred object.
@@ -105,6 +112,74 @@ public abstract class Promise<R> {
 		return then(null, null, notification);
 	}
 	
+	/**
+	 * The then method with functional callbacks, see {@link #then(SuccessCallBack, FailureCallBack, NotificationCallBack)}.
+	 * 
+	 * <p>
+	 * The promises of this library keep the callbacks as they are. This implementation adapts them
+	 * to the callback classes for the other promise implementations.
+	 * </p>
+	 * 
+	 * @param success the success callback, can be optional
+	 * @param failure the failure callback, can be optional
+	 * @param notification the notification callback, can be optional
+	 * 
+	 * @return a new promise
+	 */
+	public <F> Promise<F> then(final OnSuccess<F, R> success, final OnFailure failure, final OnNotification notification) {
+		return then(success == null ? null : new SuccessCallBack<F, R>() {
+			@Override
+			public Object call(R value) {
+				return success.onSuccess(value);
+			}
+		}, failure == null ? null : new FailureCallBack() {
+			@Override
+			public VoidType call(Exception reason) {
+				failure.onFailure(reason);
+				return VoidType.NOTHING;
+			}
+		}, notification == null ? null : new NotificationCallBack() {
+			@Override
+			public VoidType call(NotificationEvent event) {
+				notification.onNotification(event);
+				return VoidType.NOTHING;
+			}
+		});
+	}
+	
+	/**
+	 * The then method with a functional success callback.
+	 * 
+	 * @param success the success callback
+	 * 
+	 * @return a new promise
+	 */
+	public <F> Promise<F> then(OnSuccess<F, R> success) {
+		return then(success, (OnFailure) null, (OnNotification) null);
+	}
+	
+	/**
+	 * The fail method with a functional failure callback.
+	 * 
+	 * @param failure the failure callback
+	 * 
+	 * @return a new promise
+	 */
+	public Promise<R> fail(OnFailure failure) {
+		return then((OnSuccess<R, R>) null, failure, (OnNotification) null);
+	}
+	
+	/**
+	 * The notification method with a functional notification callback.
+	 * 
+	 * @param notification the notification callback
+	 * 
+	 * @return a new promise
+	 */
+	public Promise<R> notify(OnNotification notification) {
+		return then((OnSuccess<R, R>) null, (OnFailure) null, notification);
+	}
+	
 	/**
 	 * The join method to join two different promises and forwards their results in a list
 	 * to the next promise in the chain.
@@ -129,6 +204,35 @@ public abstract class Promise<R> {
 		return join(promise, null, null);
 	}
 	
+	/**
+	 * Gets a future that completes when the promise is resolved. Each call returns a new future.
+	 * 
+	 * <p>
+	 * This implementation goes through {@link #then(SuccessCallBack, FailureCallBack, NotificationCallBack)}.
+	 * The promises of this library complete the future directly and are rejected with a
+	 * {@link CancellationException} when the future is cancelled.
+	 * </p>
+	 * 
+	 * @return a new future
+	 */
+	public CompletableFuture<R> toCompletableFuture() {
+		final CompletableFuture<R> future = new CompletableFuture<>();
+		then(new SuccessCallBack<Object, R>() {
+			@Override
+			public Object call(R value) {
+				future.complete(value);
+				return VoidType.NOTHING;
+			}
+		}, new FailureCallBack() {
+			@Override
+			public VoidType call(Exception reason) {
+				future.completeExceptionally(reason);
+				return VoidType.NOTHING;
+			}
+		}, null);
+		return future;
+	}
+	
 	/**
 	 * Gets the promise'e resolved value. It returns null when the promise is
 	 * rejected and throws exception when the promise is pending.
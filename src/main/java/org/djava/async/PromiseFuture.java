@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The future returned by {@link Promise#toCompletableFuture()}. Cancelling the future rejects
+ * the promise with a {@link CancellationException}.
+ *
+ * @param <R> the result type
+ */
+class PromiseFuture<R> extends CompletableFuture<R> {
+	
+	final DeferredImpl<R> deferred;
+	
+	PromiseFuture(DeferredImpl<R> deferred) {
+		this.deferred = deferred;
+	}
+	
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if(cancelled) {
+			deferred.tryReject(new CancellationException("The future is cancelled."));
+		}
+		return cancelled;
+	}
+}
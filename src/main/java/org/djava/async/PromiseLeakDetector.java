@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.djava.async.Callbacks.FailureCallBack;
+
+/**
+ * A sampling detector of leaked promises.
+ * 
+ * <p>
+ * A sampled deferred object is tracked by a phantom reference. When the deferred object
+ * is garbage collected the detector reports it if
+ * <ul>
+ * <li>it is still pending, nobody can resolve it anymore and its callbacks are never called, or</li>
+ * <li>it is rejected and the rejection is never delivered to a callback or to a next promise.</li>
+ * </ul>
+ * A promise whose rejection is consumed by a {@link FailureCallBack} of the previous promise stays
+ * pending on purpose and is not reported. Cancellations are not reported either.
+ * </p>
+ * 
+ * <p>
+ * The collected references are checked whenever a new deferred object is sampled and by
+ * {@link #reportLeaks()}, the detector does not start a thread. The level and the sampling 
+ * interval are read from the <tt>org.djava.async.leakDetection.level</tt> and
+ * <tt>org.djava.async.leakDetection.samplingInterval</tt> system properties.
+ * </p>
+ */
+public class PromiseLeakDetector {
+	
+	public static final String LEVEL_PROPERTY = "org.djava.async.leakDetection.level";
+	public static final String SAMPLING_INTERVAL_PROPERTY = "org.djava.async.leakDetection.samplingInterval";
+	
+	public static final int DEFAULT_SAMPLING_INTERVAL = 128;
+	
+	/**
+	 * The detection levels.
+	 */
+	public static enum Level {
+		/**
+		 * No deferred object is tracked.
+		 */
+		DISABLED,
+		
+		/**
+		 * One in every sampling interval deferred objects is tracked.
+		 */
+		SIMPLE,
+		
+		/**
+		 * Like <tt>SIMPLE</tt> and the creation site is recorded for the report.
+		 */
+		ADVANCED,
+		
+		/**
+		 * Every deferred object is tracked and its creation site is recorded. Use only for testing.
+		 */
+		PARANOID;
+	}
+	
+	/**
+	 * Receives the leak reports.
+	 */
+	public static interface Reporter {
+		
+		/**
+		 * A pending promise is garbage collected.
+		 * 
+		 * @param creationSite the creation site, null when not recorded
+		 */
+		void reportPendingLeak(Throwable creationSite);
+		
+		/**
+		 * A rejected promise is garbage collected without the rejection being observed.
+		 * 
+		 * @param reason the rejection reason
+		 * @param creationSite the creation site, null when not recorded
+		 */
+		void reportUnhandledRejection(Exception reason, Throwable creationSite);
+	}
+	
+	private static final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+	private static final Set<LeakRecord> records = Collections.newSetFromMap(new ConcurrentHashMap<LeakRecord, Boolean>());
+	
+	private static final AtomicLong pendingLeaks = new AtomicLong();
+	private static final AtomicLong unhandledRejections = new AtomicLong();
+	
+	private static volatile Level level = readLevel();
+	private static volatile int samplingInterval = readSamplingInterval();
+	private static volatile Reporter reporter = new StandardErrorReporter();
+	
+	public static Level getLevel() {
+		return level;
+	}
+	
+	public static void setLevel(Level newLevel) {
+		if(newLevel == null) {
+			throw new NullPointerException("Level is empty.");
+		}
+		level = newLevel;
+	}
+	
+	public static int getSamplingInterval() {
+		return samplingInterval;
+	}
+	
+	/**
+	 * Sets the sampling interval of the <tt>SIMPLE</tt> and <tt>ADVANCED</tt> levels.
+	 * 
+	 * @param interval one in every <tt>interval</tt> deferred objects is tracked
+	 */
+	public static void setSamplingInterval(int interval) {
+		if(interval < 1) {
+			throw new IllegalArgumentException("The sampling interval should be positive.");
+		}
+		samplingInterval = interval;
+	}
+	
+	public static void setReporter(Reporter newReporter) {
+		reporter = newReporter != null ? newReporter : new StandardErrorReporter();
+	}
+	
+	/**
+	 * Gets the number of reported pending promises.
+	 * 
+	 * @return the number of leaks
+	 */
+	public static long getPendingLeakCount() {
+		return pendingLeaks.get();
+	}
+	
+	/**
+	 * Gets the number of reported unobserved rejections.
+	 * 
+	 * @return the number of unhandled rejections
+	 */
+	public static long getUnhandledRejectionCount() {
+		return unhandledRejections.get();
+	}
+	
+	/**
+	 * Reports the tracked deferred objects which are garbage collected by now.
+	 */
+	public static void reportLeaks() {
+		Reference<?> reference;
+		while((reference = collected.poll()) != null) {
+			LeakRecord record = (LeakRecord) reference;
+			if(records.remove(record)) {
+				record.report();
+			}
+		}
+	}
+	
+	/**
+	 * Samples a new deferred object.
+	 * 
+	 * @param deferred the deferred object
+	 * 
+	 * @return the leak record, null when the deferred object is not tracked
+	 */
+	static LeakRecord track(DeferredImpl<?> deferred) {
+		Level current = level;
+		if(current == Level.DISABLED) {
+			return null;
+		}
+		
+		if(current != Level.PARANOID && ThreadLocalRandom.current().nextInt(samplingInterval) != 0) {
+			return null;
+		}
+		
+		reportLeaks();
+		
+		Throwable creationSite = current.compareTo(Level.ADVANCED) >= 0 ? new Throwable("Created at") : null;
+		LeakRecord record = new LeakRecord(deferred, creationSite);
+		records.add(record);
+		return record;
+	}
+	
+	private static Level readLevel() {
+		try {
+			return Level.valueOf(System.getProperty(LEVEL_PROPERTY, Level.DISABLED.name()).trim().toUpperCase());
+		} catch (IllegalArgumentException ex) {
+			return Level.DISABLED;
+		}
+	}
+	
+	private static int readSamplingInterval() {
+		try {
+			return Math.max(1, Integer.parseInt(System.getProperty(SAMPLING_INTERVAL_PROPERTY, 
+					String.valueOf(DEFAULT_SAMPLING_INTERVAL))));
+		} catch (NumberFormatException ex) {
+			return DEFAULT_SAMPLING_INTERVAL;
+		}
+	}
+	
+	/**
+	 * The record of a tracked deferred object. It must not refer the deferred object.
+	 */
+	static class LeakRecord extends PhantomReference<Object> {
+		
+		private final Throwable creationSite;
+		private volatile Exception rejection;
+		
+		LeakRecord(Object referent, Throwable creationSite) {
+			super(referent, collected);
+			this.creationSite = creationSite;
+		}
+		
+		/**
+		 * The promise is fulfilled, its rejection is observed or it is abandoned.
+		 */
+		void close() {
+			if(records.remove(this)) {
+				clear();
+			}
+		}
+		
+		void rejected(Exception reason, boolean observed) {
+			if(observed || reason instanceof CancellationException) {
+				close();
+				return;
+			}
+			
+			rejection = reason;
+		}
+		
+		private void report() {
+			Exception reason = rejection;
+			if(reason != null) {
+				unhandledRejections.incrementAndGet();
+				reporter.reportUnhandledRejection(reason, creationSite);
+			} else {
+				pendingLeaks.incrementAndGet();
+				reporter.reportPendingLeak(creationSite);
+			}
+		}
+	}
+	
+	/**
+	 * The default reporter which prints to the standard error.
+	 */
+	static class StandardErrorReporter implements Reporter {
+
+		@Override
+		public void reportPendingLeak(Throwable creationSite) {
+			System.err.println("LEAK: a pending promise is garbage collected, its callbacks are never called. " 
+					+ hint(creationSite));
+			if(creationSite != null) {
+				creationSite.printStackTrace();
+			}
+		}
+
+		@Override
+		public void reportUnhandledRejection(Exception reason, Throwable creationSite) {
+			System.err.println("LEAK: a rejected promise is garbage collected, the rejection is never handled. " 
+					+ hint(creationSite));
+			reason.printStackTrace();
+			if(creationSite != null) {
+				creationSite.printStackTrace();
+			}
+		}
+		
+		private String hint(Throwable creationSite) {
+			if(creationSite != null) {
+				return "";
+			}
+			return "Set " + LEVEL_PROPERTY + "=" + Level.ADVANCED.name() + " to see where it is created.";
+		}
+	}
+
+}
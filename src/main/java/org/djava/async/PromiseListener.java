@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import org.djava.async.Callbacks.CallBackType;
+import org.djava.async.Callbacks.NotificationEvent;
+
+/**
+ * Listener of the promise state transitions and the callback executions. 
+ * 
+ * <p>
+ * Listeners are registered globally by {@link PromiseListeners} or for the tasks of a deferred
+ * container. A promise created by <tt>then</tt> inherits the listeners of its previous promise.
+ * The times are {@link System#nanoTime()} values and the thread is the thread which causes the
+ * event. Listeners are called synchronously, they should be fast and should not throw. Exceptions
+ * thrown by a listener are ignored.
+ * </p>
+ * 
+ * <p>
+ * Extend {@link PromiseListenerAdapter} to receive only some of the events.
+ * </p>
+ * 
+ * @see PromiseListeners
+ */
+public interface PromiseListener {
+	
+	void onCreate(Promise<?> promise, long time, Thread thread);
+	
+	void onCallbackStart(Promise<?> promise, CallBackType type, long time, Thread thread);
+	
+	void onCallbackEnd(Promise<?> promise, CallBackType type, long time, Thread thread);
+	
+	void onFulfill(Promise<?> promise, Object value, long time, Thread thread);
+	
+	void onReject(Promise<?> promise, Exception reason, long time, Thread thread);
+	
+	void onNotify(Promise<?> promise, NotificationEvent event, long time, Thread thread);
+	
+	/**
+	 * An empty implementation of {@link PromiseListener}.
+	 */
+	public static abstract class PromiseListenerAdapter implements PromiseListener {
+
+		@Override
+		public void onCreate(Promise<?> promise, long time, Thread thread) {
+		}
+
+		@Override
+		public void onCallbackStart(Promise<?> promise, CallBackType type, long time, Thread thread) {
+		}
+
+		@Override
+		public void onCallbackEnd(Promise<?> promise, CallBackType type, long time, Thread thread) {
+		}
+
+		@Override
+		public void onFulfill(Promise<?> promise, Object value, long time, Thread thread) {
+		}
+
+		@Override
+		public void onReject(Promise<?> promise, Exception reason, long time, Thread thread) {
+		}
+
+		@Override
+		public void onNotify(Promise<?> promise, NotificationEvent event, long time, Thread thread) {
+		}
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import org.djava.async.Callbacks.CallBackType;
+import org.djava.async.Callbacks.NotificationEvent;
+
+/**
+ * The registry of the {@link PromiseListener}s.
+ * 
+ * <p>
+ * Listeners are enabled when an implementation is registered as a service in 
+ * <tt>META-INF/services/org.djava.async.PromiseListener</tt> or when the 
+ * <tt>org.djava.async.listeners.enabled</tt> system property is true. The decision is made
+ * once when the class is loaded and is kept in a constant, so when the listeners are not 
+ * enabled the JIT removes the listener calls and promises do not pay for them.
+ * </p>
+ * 
+ * <p>
+ * Global listeners receive the events of every promise created after the registration.
+ * </p>
+ */
+public class PromiseListeners {
+	
+	public static final String ENABLED_PROPERTY = "org.djava.async.listeners.enabled";
+	
+	private static final PromiseListener[] NONE = new PromiseListener[0];
+	
+	private static volatile PromiseListener[] global = loadServices();
+	
+	static final boolean ENABLED = global.length > 0 || Boolean.getBoolean(ENABLED_PROPERTY);
+	
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+	
+	/**
+	 * Adds a global listener.
+	 * 
+	 * @param listener the listener
+	 */
+	public static synchronized void addGlobalListener(PromiseListener listener) {
+		checkEnabled();
+		
+		List<PromiseListener> listeners = new ArrayList<>(Arrays.asList(global));
+		listeners.add(listener);
+		global = listeners.toArray(NONE);
+	}
+	
+	/**
+	 * Removes a global listener.
+	 * 
+	 * @param listener the listener
+	 */
+	public static synchronized void removeGlobalListener(PromiseListener listener) {
+		List<PromiseListener> listeners = new ArrayList<>(Arrays.asList(global));
+		listeners.remove(listener);
+		global = listeners.toArray(NONE);
+	}
+	
+	/**
+	 * Adds listeners to a promise. The promises chained to it afterwards inherit the listeners.
+	 * 
+	 * @param promise the promise, should be created by this library
+	 * @param listeners the listeners
+	 */
+	public static void attach(Promise<?> promise, PromiseListener[] listeners) {
+		checkEnabled();
+		
+		DeferredImpl<?> deferred = DeferredImpl.of(promise);
+		if(deferred == null || listeners.length == 0) {
+			return;
+		}
+		
+		deferred.listeners = concat(deferred.listeners, listeners);
+	}
+	
+	static PromiseListener[] global() {
+		PromiseListener[] listeners = global;
+		return listeners.length == 0 ? null : listeners;
+	}
+	
+	static void fireCreate(PromiseListener[] listeners, Promise<?> promise) {
+		long time = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		for(PromiseListener listener : listeners) {
+			try {
+				listener.onCreate(promise, time, thread);
+			} catch (RuntimeException ex) {
+				//ignore, a listener should not break the promise
+			}
+		}
+	}
+	
+	static void fireCallbackStart(PromiseListener[] listeners, Promise<?> promise, CallBackType type) {
+		long time = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		for(PromiseListener listener : listeners) {
+			try {
+				listener.onCallbackStart(promise, type, time, thread);
+			} catch (RuntimeException ex) {
+				//ignore, a listener should not break the promise
+			}
+		}
+	}
+	
+	static void fireCallbackEnd(PromiseListener[] listeners, Promise<?> promise, CallBackType type) {
+		long time = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		for(PromiseListener listener : listeners) {
+			try {
+				listener.onCallbackEnd(promise, type, time, thread);
+			} catch (RuntimeException ex) {
+				//ignore, a listener should not break the promise
+			}
+		}
+	}
+	
+	static void fireFulfill(PromiseListener[] listeners, Promise<?> promise, Object value) {
+		long time = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		for(PromiseListener listener : listeners) {
+			try {
+				listener.onFulfill(promise, value, time, thread);
+			} catch (RuntimeException ex) {
+				//ignore, a listener should not break the promise
+			}
+		}
+	}
+	
+	static void fireReject(PromiseListener[] listeners, Promise<?> promise, Exception reason) {
+		long time = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		for(PromiseListener listener : listeners) {
+			try {
+				listener.onReject(promise, reason, time, thread);
+			} catch (RuntimeException ex) {
+				//ignore, a listener should not break the promise
+			}
+		}
+	}
+	
+	static void fireNotify(PromiseListener[] listeners, Promise<?> promise, NotificationEvent event) {
+		long time = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		for(PromiseListener listener : listeners) {
+			try {
+				listener.onNotify(promise, event, time, thread);
+			} catch (RuntimeException ex) {
+				//ignore, a listener should not break the promise
+			}
+		}
+	}
+	
+	private static void checkEnabled() {
+		if(!ENABLED) {
+			throw new IllegalStateException("Promise listeners are not enabled. Set the " + ENABLED_PROPERTY 
+					+ " system property to true or register a listener service.");
+		}
+	}
+	
+	private static PromiseListener[] concat(PromiseListener[] first, PromiseListener[] second) {
+		if(first == null) {
+			return second.clone();
+		}
+		
+		PromiseListener[] result = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+	
+	private static PromiseListener[] loadServices() {
+		List<PromiseListener> listeners = new ArrayList<>();
+		for(PromiseListener listener : ServiceLoader.load(PromiseListener.class)) {
+			listeners.add(listener);
+		}
+		return listeners.toArray(NONE);
+	}
+
+}
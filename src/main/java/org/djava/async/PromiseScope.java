@@ -0,0 +1,408 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.djava.async.util.DeferredContainer.DeferredTask;
+import org.djava.async.util.DeferredContainer.RunnableDeffered;
+import org.djava.async.util.VoidType;
+
+/**
+ * A scope which owns the promises and the deferred tasks created inside it.
+ * 
+ * <p>
+ * While a scope is current on a thread every deferred object and every deferred task created 
+ * by that thread is tracked as a child of the scope. A {@link DeferredTask} created inside the
+ * scope makes the scope current again while its callable is running, so the promises created
+ * by the task are tracked as well. Settled children are removed from the scope immediately.
+ * </p>
+ * 
+ * <p>
+ * {@link #close()} or, when the scope is fail-fast, the first rejected child cancels all of the 
+ * outstanding children. Cancelled deferred objects are rejected with a {@link CancellationException}
+ * and cancelled deferred tasks are interrupted. {@link #seal()} leaves the scope without cancelling 
+ * the outstanding children. The promise of a nested scope is a child of the outer scope, cancelling 
+ * it cancels the children of the nested scope as well.
+ * </p>
+ * 
+ * <p>
+ * The promise of the scope is settled only after the scope is sealed or closed and every child 
+ * is settled. It is rejected with the first failure of a child, otherwise it is fulfilled with
+ * {@link VoidType#NOTHING}. Cancellations are not failures.
+ * </p>
+ * 
+ * <pre>
+ *	PromiseScope scope = PromiseScope.open(true);
+ *	Deferred.when(callable1, callable2, callable3).then(success);
+ *	scope.seal();
+ *	
+ *	scope.promise().then(allSettled);
+ * </pre>
+ */
+public class PromiseScope implements AutoCloseable {
+	
+	private static final ThreadLocal<PromiseScope> CURRENT = new ThreadLocal<>();
+	
+	//number of threads with a current scope, avoids the thread local lookup when there is none
+	private static final AtomicInteger entered = new AtomicInteger();
+	
+	private final boolean failFast;
+	private final DeferredImpl<VoidType> deferred;
+	
+	private final Map<DeferredImpl<?>, Child> children = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong();
+	
+	//outstanding children plus one while the scope is open
+	private final AtomicInteger outstanding = new AtomicInteger(1);
+	private final AtomicBoolean sealed = new AtomicBoolean(false);
+	private final AtomicBoolean cancelled = new AtomicBoolean(false);
+	private final AtomicReference<Exception> failure = new AtomicReference<>();
+	
+	private final Thread owner;
+	private PromiseScope previous;
+	
+	//the entry made by open() is left, by the owner or by any other thread
+	private final AtomicBoolean left = new AtomicBoolean(false);
+	//the entry is left by another thread, the owner drops the scope from its thread local lazily
+	private volatile boolean detached;
+	//read and written by the owner thread only
+	private boolean dropped;
+	
+	private PromiseScope(boolean failFast) {
+		this.failFast = failFast;
+		this.deferred = new DeferredImpl<VoidType>() {
+			@Override
+			boolean tryReject(Exception ex) {
+				if(!super.tryReject(ex)) {
+					return false;
+				}
+				
+				//cancelled by an outer scope, a rejection by countDown() finds no children
+				cancelChildren();
+				return true;
+			}
+		};
+		this.owner = Thread.currentThread();
+	}
+	
+	/**
+	 * Opens a scope which is not fail-fast and makes it current on this thread.
+	 * 
+	 * @return the scope
+	 */
+	public static PromiseScope open() {
+		return open(false);
+	}
+	
+	/**
+	 * Opens a scope and makes it current on this thread.
+	 * 
+	 * @param failFast when true the first rejected child cancels the other children
+	 * 
+	 * @return the scope
+	 */
+	public static PromiseScope open(boolean failFast) {
+		PromiseScope scope = new PromiseScope(failFast);
+		scope.previous = scope.enter();
+		return scope;
+	}
+	
+	/**
+	 * Gets the current scope of this thread.
+	 * 
+	 * @return the scope, null when there is none
+	 */
+	public static PromiseScope current() {
+		if(entered.get() == 0) {
+			return null;
+		}
+		return live(CURRENT.get());
+	}
+	
+	/**
+	 * Makes the scope current on this thread. Use {@link #restore(PromiseScope)} with the
+	 * returned scope to leave it.
+	 * 
+	 * @return the previous scope of this thread, can be null
+	 */
+	public PromiseScope enter() {
+		PromiseScope previous = live(CURRENT.get());
+		CURRENT.set(this);
+		entered.incrementAndGet();
+		return previous;
+	}
+	
+	/**
+	 * Leaves the current scope of this thread and makes the previous one current again.
+	 * 
+	 * @param previous the scope which is returned by {@link #enter()}
+	 */
+	public static void restore(PromiseScope previous) {
+		if(previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+		entered.decrementAndGet();
+	}
+	
+	/**
+	 * Drops the scopes which were sealed by another thread than their owner from the 
+	 * thread local of the owner.
+	 * 
+	 * @param scope the current scope of this thread
+	 * 
+	 * @return the current scope which is still entered
+	 */
+	private static PromiseScope live(PromiseScope scope) {
+		PromiseScope live = scope;
+		while(live != null && live.owner == Thread.currentThread() && live.detached && !live.dropped) {
+			live.dropped = true;
+			live = live.previous;
+		}
+		
+		if(live != scope) {
+			if(live == null) {
+				CURRENT.remove();
+			} else {
+				CURRENT.set(live);
+			}
+		}
+		return live;
+	}
+	
+	static int getEnteredCount() {
+		return entered.get();
+	}
+	
+	/**
+	 * Tracks a deferred task which is created outside of the scope. Cancelling the scope
+	 * cancels the task.
+	 * 
+	 * @param task the task
+	 */
+	public void track(RunnableDeffered<?> task) {
+		DeferredImpl<?> child = DeferredImpl.of(task.promise());
+		if(child == null) {
+			return;
+		}
+		
+		if(child.scope == this) {
+			Child tracked = children.get(child);
+			if(tracked != null) {
+				tracked.task = task;
+			}
+			return;
+		}
+		
+		track(child, task);
+	}
+	
+	/**
+	 * Tracks a promise which is created outside of the scope. Promises which are not
+	 * created by this library can not be tracked.
+	 * 
+	 * @param promise the promise
+	 */
+	public void track(Promise<?> promise) {
+		DeferredImpl<?> child = DeferredImpl.of(promise);
+		if(child == null) {
+			throw new IllegalArgumentException("The promise can not be tracked.");
+		}
+		
+		track(child, null);
+	}
+	
+	void track(DeferredImpl<?> child) {
+		track(child, null);
+	}
+	
+	private void track(DeferredImpl<?> child, RunnableDeffered<?> task) {
+		if(child == deferred || child.scope != null || !child.isPending()) {
+			return;
+		}
+		
+		while(true) {
+			int current = outstanding.get();
+			if(current == 0) {
+				//the scope is completed
+				return;
+			}
+			
+			if(outstanding.compareAndSet(current, current + 1)) {
+				break;
+			}
+		}
+		
+		Child tracked = new Child(child, sequence.getAndIncrement(), task);
+		children.put(child, tracked);
+		child.scope = this;
+		
+		if(!child.isPending()) {
+			//settled before the scope is set
+			childSettled(child, null);
+		} else if(cancelled.get()) {
+			cancel(tracked);
+		}
+	}
+	
+	void childSettled(DeferredImpl<?> child, Exception reason) {
+		if(children.remove(child) == null) {
+			return;
+		}
+		
+		if(reason != null && !(reason instanceof CancellationException)) {
+			if(failure.compareAndSet(null, reason) && failFast) {
+				cancelChildren();
+			}
+		}
+		
+		countDown();
+	}
+	
+	/**
+	 * Leaves the scope. The outstanding children are not cancelled and the scope's promise is 
+	 * settled when all of them are settled, children created by the outstanding tasks of the 
+	 * scope are still tracked.
+	 * 
+	 * <p>
+	 * When the scope is sealed by another thread than its owner, the owner thread leaves 
+	 * the scope the next time it looks up its current scope.
+	 * </p>
+	 */
+	public void seal() {
+		if(left.compareAndSet(false, true)) {
+			if(owner == Thread.currentThread() && CURRENT.get() == this) {
+				restore(previous);
+			} else {
+				detached = true;
+				entered.decrementAndGet();
+			}
+		}
+		
+		if(sealed.compareAndSet(false, true)) {
+			countDown();
+		}
+	}
+	
+	/**
+	 * Closes the scope. All of the outstanding children are cancelled.
+	 */
+	@Override
+	public void close() {
+		seal();
+		cancelChildren();
+	}
+	
+	/**
+	 * Gets the promise of the scope.
+	 * 
+	 * @return the promise
+	 */
+	public Promise<VoidType> promise() {
+		return deferred.promise();
+	}
+	
+	/**
+	 * Gets the number of children which are not settled yet.
+	 * 
+	 * @return the number of outstanding children
+	 */
+	public int getOutstandingCount() {
+		return children.size();
+	}
+	
+	public boolean isFailFast() {
+		return failFast;
+	}
+	
+	public boolean isSealed() {
+		return sealed.get();
+	}
+	
+	private void cancelChildren() {
+		cancelled.set(true);
+		
+		//cancel in creation order so that a cancellation flows down a chain to its callbacks
+		List<Child> outstandingChildren = new ArrayList<>(children.values());
+		Collections.sort(outstandingChildren, Child.CREATION_ORDER);
+		for(Child child : outstandingChildren) {
+			cancel(child);
+		}
+	}
+	
+	private void cancel(Child child) {
+		try {
+			RunnableDeffered<?> task = child.task;
+			if(task != null) {
+				task.cancel(true);
+			}
+			
+			child.deferred.tryReject(new CancellationException("The scope is cancelled."));
+		} catch (RuntimeException ex) {
+			//a callback of the child failed, the other children should be cancelled anyway
+		}
+	}
+	
+	/**
+	 * A tracked child.
+	 */
+	private static class Child {
+		
+		static final Comparator<Child> CREATION_ORDER = new Comparator<Child>() {
+			@Override
+			public int compare(Child c1, Child c2) {
+				return Long.compare(c1.sequence, c2.sequence);
+			}
+		};
+		
+		final DeferredImpl<?> deferred;
+		final long sequence;
+		volatile RunnableDeffered<?> task;
+		
+		Child(DeferredImpl<?> deferred, long sequence, RunnableDeffered<?> task) {
+			this.deferred = deferred;
+			this.sequence = sequence;
+			this.task = task;
+		}
+	}
+	
+	private void countDown() {
+		if(outstanding.decrementAndGet() != 0) {
+			return;
+		}
+		
+		//the promise is already settled when an outer scope cancelled it
+		Exception reason = failure.get();
+		if(reason != null) {
+			deferred.tryReject(reason);
+		} else {
+			deferred.tryFulfill(VoidType.NOTHING);
+		}
+	}
+
+}
@@ -0,0 +1,573 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.flow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.djava.async.util.DeferredContainer;
+
+/**
+ * A multi-stage pipeline with bounded queues, e.g. parse, enrich and write. Every stage has 
+ * its own parallelism and a bounded queue of the items waiting for it. A stage starts an item
+ * only when the queue of the next stage has room for its output, so a slow stage fills the 
+ * queues in front of it one by one up to the source, and the source is read only as fast as
+ * the slowest stage. No thread waits for room, a finished item moves the pipeline forward.
+ * 
+ * <pre>
+ * Pipeline pipeline = Pipeline.from(lines)
+ * 		.stage("parse", 2, 256, parser)
+ * 		.stageAsync("write", 4, 64, writer)
+ * 		.build();
+ * pipeline.start().then(...);
+ * </pre>
+ * 
+ * <p>
+ * A {@link Builder#stage(String, int, int, Function) stage} runs its function as a task on the 
+ * {@link DeferredContainer}. An {@link Builder#stageAsync(String, int, int, Function) async stage}
+ * calls its function on the thread which moves the pipeline and holds the item until the 
+ * returned promise settles, so the function should only start an asynchronous operation. A
+ * function which returns null drops the item. The first failure of a stage or of the source
+ * rejects the completion promise and no more items are started.
+ * </p>
+ * 
+ * <p>
+ * The stages are moved by a drain loop which only one thread runs at a time, so the queues
+ * need no lock. The counters of the stages are visible to other threads for monitoring.
+ * </p>
+ */
+public class Pipeline {
+	
+	private final Iterable<?> source;
+	
+	private final List<Stage> stages;
+	
+	private final Deferred<Long> completion = DeferredFactory.createDeferred();
+	
+	private final AtomicBoolean started = new AtomicBoolean();
+	
+	private final AtomicInteger wip = new AtomicInteger();
+	
+	private final ConcurrentLinkedQueue<Result> results = new ConcurrentLinkedQueue<>();
+	
+	private volatile long startedAt;
+	
+	//owned by the drain loop
+	
+	private Iterator<?> iterator;
+	
+	private boolean sourceDone;
+	
+	private boolean done;
+	
+	private long completed;
+	
+	private Pipeline(Iterable<?> source, List<Stage> stages) {
+		this.source = source;
+		this.stages = Collections.unmodifiableList(stages);
+	}
+	
+	/**
+	 * Starts to build a pipeline. The source is read when the pipeline starts, on the thread
+	 * which moves the pipeline. Null items are skipped.
+	 * 
+	 * @param source the items
+	 * 
+	 * @return the builder
+	 */
+	public static <T> Builder<T> from(Iterable<? extends T> source) {
+		if(source == null) {
+			throw new NullPointerException("The source is empty.");
+		}
+		return new Builder<>(source);
+	}
+	
+	/**
+	 * Starts the pipeline. A pipeline can be started once.
+	 * 
+	 * @return the promise of the number of the items which passed the last stage, settled when
+	 * the source is exhausted and every stage is idle
+	 */
+	public Promise<Long> start() {
+		if(!started.compareAndSet(false, true)) {
+			throw new IllegalStateException("The pipeline is already started.");
+		}
+		
+		startedAt = System.nanoTime();
+		drain();
+		return completion.promise();
+	}
+	
+	/**
+	 * Gets the stages in their order, for monitoring.
+	 * 
+	 * @return the stages
+	 */
+	public List<Stage> getStages() {
+		return stages;
+	}
+	
+	/**
+	 * Gets the time since the start.
+	 * 
+	 * @param unit the unit of the time
+	 * 
+	 * @return the elapsed time, zero before the start
+	 */
+	public long getElapsed(TimeUnit unit) {
+		long start = startedAt;
+		return start == 0 ? 0 : unit.convert(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("Pipeline[");
+		for(int i = 0; i < stages.size(); i++) {
+			if(i > 0) {
+				builder.append(" -> ");
+			}
+			builder.append(stages.get(i));
+		}
+		return builder.append(']').toString();
+	}
+	
+	private void drain() {
+		if(wip.getAndIncrement() != 0) {
+			return;
+		}
+		
+		int missed = 1;
+		for(;;) {
+			try {
+				step();
+			} catch(RuntimeException ex) {
+				//the source failed or the container is not running
+				fail(ex);
+			}
+			
+			missed = wip.addAndGet(-missed);
+			if(missed == 0) {
+				return;
+			}
+		}
+	}
+	
+	private void step() {
+		if(done) {
+			results.clear();
+			return;
+		}
+		
+		for(Result result = results.poll(); result != null; result = results.poll()) {
+			if(result.failure != null) {
+				fail(result.failure);
+				return;
+			}
+			result.stage.finished(result.value);
+		}
+		
+		if(iterator == null) {
+			iterator = source.iterator();
+		}
+		
+		Stage first = stages.get(0);
+		boolean progress;
+		do {
+			progress = false;
+			
+			//downstream first, so that the room of a queue is taken by its own stage
+			for(int i = stages.size() - 1; i >= 0; i--) {
+				progress |= stages.get(i).launch();
+			}
+			
+			while(!sourceDone && first.hasRoom()) {
+				if(!iterator.hasNext()) {
+					sourceDone = true;
+					break;
+				}
+				
+				Object item = iterator.next();
+				if(item != null) {
+					first.enqueue(item);
+					progress = true;
+				}
+			}
+		} while(progress && !done);
+		
+		if(sourceDone && !done && idle()) {
+			done = true;
+			completion.resolve(completed);
+		}
+	}
+	
+	private boolean idle() {
+		for(Stage stage : stages) {
+			if(stage.running != 0 || stage.queue.size() != 0 || stage.reserved != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void fail(Exception ex) {
+		if(done) {
+			return;
+		}
+		
+		done = true;
+		results.clear();
+		completion.reject(ex);
+	}
+	
+	/**
+	 * A stage of a pipeline. The counters are written by the drain loop only.
+	 */
+	public static class Stage {
+		
+		private final Pipeline pipeline;
+		
+		private final String name;
+		
+		private final int parallelism;
+		
+		private final int capacity;
+		
+		private final Function<Object, Object> function;
+		
+		private final boolean async;
+		
+		private final ArrayDeque<Object> queue = new ArrayDeque<>();
+		
+		private Stage next;
+		
+		/**
+		 * The room of the queue which is promised to the running items of the previous stage.
+		 */
+		private int reserved;
+		
+		private volatile int queued;
+		
+		private volatile int running;
+		
+		private volatile long processed;
+		
+		private volatile long dropped;
+		
+		private Stage(Pipeline pipeline, String name, int parallelism, int capacity, 
+				Function<Object, Object> function, boolean async) {
+			this.pipeline = pipeline;
+			this.name = name;
+			this.parallelism = parallelism;
+			this.capacity = capacity;
+			this.function = function;
+			this.async = async;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public int getParallelism() {
+			return parallelism;
+		}
+		
+		public int getCapacity() {
+			return capacity;
+		}
+		
+		/**
+		 * @return the number of the items waiting in the queue of the stage
+		 */
+		public int getQueueSize() {
+			return queued;
+		}
+		
+		/**
+		 * @return the number of the items in the stage
+		 */
+		public int getRunning() {
+			return running;
+		}
+		
+		/**
+		 * @return the number of the items which passed the stage, dropped ones included
+		 */
+		public long getProcessed() {
+			return processed;
+		}
+		
+		/**
+		 * @return the number of the items for which the stage returned null
+		 */
+		public long getDropped() {
+			return dropped;
+		}
+		
+		/**
+		 * Gets the throughput since the start of the pipeline.
+		 * 
+		 * @return the processed items per second
+		 */
+		public double getThroughput() {
+			long elapsed = pipeline.getElapsed(TimeUnit.NANOSECONDS);
+			return elapsed == 0 ? 0.0 : processed * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+		}
+		
+		@Override
+		public String toString() {
+			return name + "(queue=" + queued + "/" + capacity + ", running=" + running + "/" + parallelism 
+					+ ", processed=" + processed + ")";
+		}
+		
+		private boolean hasRoom() {
+			return queue.size() + reserved < capacity;
+		}
+		
+		private void enqueue(Object item) {
+			queue.add(item);
+			queued = queue.size();
+		}
+		
+		/**
+		 * Starts the waiting items while the parallelism and the next queue have room.
+		 * 
+		 * @return true if an item is started
+		 */
+		private boolean launch() {
+			boolean launched = false;
+			while(running < parallelism && !queue.isEmpty() && (next == null || next.hasRoom()) && !pipeline.done) {
+				Object item = queue.poll();
+				queued = queue.size();
+				if(next != null) {
+					next.reserved++;
+				}
+				running++;
+				launched = true;
+				
+				if(async) {
+					callAsync(item);
+				} else {
+					call(item);
+				}
+			}
+			return launched;
+		}
+		
+		private void call(final Object item) {
+			Deferred.when(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					//wrapped, a promise returned by the function should not be adopted
+					return new Object[] {function.apply(item)};
+				}
+			}).toCompletableFuture().whenComplete(new Completion(this, true));
+		}
+		
+		private void callAsync(Object item) {
+			Completion completion = new Completion(this, false);
+			try {
+				Object promise = function.apply(item);
+				if(promise == null) {
+					throw new NullPointerException("The stage " + name + " returned no promise.");
+				}
+				((Promise<?>) promise).toCompletableFuture().whenComplete(completion);
+			} catch(Exception ex) {
+				completion.accept(null, ex);
+			}
+		}
+		
+		/**
+		 * An item left the stage.
+		 */
+		private void finished(Object value) {
+			running--;
+			processed++;
+			
+			if(value == null) {
+				dropped++;
+			}
+			
+			if(next == null) {
+				if(value != null) {
+					pipeline.completed++;
+				}
+				return;
+			}
+			
+			next.reserved--;
+			if(value != null) {
+				next.enqueue(value);
+			}
+		}
+	}
+	
+	/**
+	 * Passes the outcome of an item to the drain loop.
+	 */
+	private static class Completion implements BiConsumer<Object, Throwable> {
+		
+		final Stage stage;
+		
+		final boolean wrapped;
+		
+		Completion(Stage stage, boolean wrapped) {
+			this.stage = stage;
+			this.wrapped = wrapped;
+		}
+		
+		@Override
+		public void accept(Object value, Throwable ex) {
+			Pipeline pipeline = stage.pipeline;
+			if(ex == null) {
+				pipeline.results.add(new Result(stage, wrapped ? ((Object[]) value)[0] : value, null));
+			} else {
+				pipeline.results.add(new Result(stage, null, DeferredFactory.toException(ex)));
+			}
+			pipeline.drain();
+		}
+	}
+	
+	private static class Result {
+		
+		final Stage stage;
+		
+		final Object value;
+		
+		final Exception failure;
+		
+		Result(Stage stage, Object value, Exception failure) {
+			this.stage = stage;
+			this.value = value;
+			this.failure = failure;
+		}
+	}
+	
+	/**
+	 * Builds a pipeline stage by stage.
+	 *
+	 * @param <T> the output type of the last stage
+	 */
+	public static class Builder<T> {
+		
+		private final Iterable<?> source;
+		
+		private final List<StageSpec> specs = new ArrayList<>();
+		
+		private Builder(Iterable<?> source) {
+			this.source = source;
+		}
+		
+		/**
+		 * Adds a stage which runs its function as a task on the container.
+		 * 
+		 * @param name the name for monitoring
+		 * @param parallelism the maximum number of the items running at a time
+		 * @param capacity the maximum number of the items waiting for the stage
+		 * @param function maps an item, null drops the item
+		 * 
+		 * @return the builder
+		 */
+		public <O> Builder<O> stage(String name, int parallelism, int capacity, Function<? super T, ? extends O> function) {
+			return add(name, parallelism, capacity, function, false);
+		}
+		
+		/**
+		 * Adds a stage whose function starts an asynchronous operation. The item stays in the
+		 * stage until the returned promise settles.
+		 * 
+		 * @param name the name for monitoring
+		 * @param parallelism the maximum number of the operations at a time
+		 * @param capacity the maximum number of the items waiting for the stage
+		 * @param function starts the operation of an item, its promise resolved with null drops the item
+		 * 
+		 * @return the builder
+		 */
+		public <O> Builder<O> stageAsync(String name, int parallelism, int capacity, 
+				Function<? super T, ? extends Promise<? extends O>> function) {
+			return add(name, parallelism, capacity, function, true);
+		}
+		
+		/**
+		 * Builds the pipeline.
+		 * 
+		 * @return the pipeline, not started
+		 */
+		public Pipeline build() {
+			if(specs.isEmpty()) {
+				throw new IllegalStateException("The pipeline has no stage.");
+			}
+			
+			List<Stage> stages = new ArrayList<>(specs.size());
+			Pipeline pipeline = new Pipeline(source, stages);
+			for(StageSpec spec : specs) {
+				Stage stage = new Stage(pipeline, spec.name, spec.parallelism, spec.capacity, spec.function, spec.async);
+				if(!stages.isEmpty()) {
+					stages.get(stages.size() - 1).next = stage;
+				}
+				stages.add(stage);
+			}
+			return pipeline;
+		}
+		
+		@SuppressWarnings("unchecked")
+		private <O> Builder<O> add(String name, int parallelism, int capacity, Function<? super T, ?> function, boolean async) {
+			if(function == null) {
+				throw new NullPointerException("The function of the stage " + name + " is empty.");
+			}
+			
+			if(parallelism < 1 || capacity < 1) {
+				throw new IllegalArgumentException("The parallelism and the capacity must be positive.");
+			}
+			
+			specs.add(new StageSpec(name, parallelism, capacity, (Function<Object, Object>) function, async));
+			return (Builder<O>) this;
+		}
+	}
+	
+	private static class StageSpec {
+		
+		final String name;
+		
+		final int parallelism;
+		
+		final int capacity;
+		
+		final Function<Object, Object> function;
+		
+		final boolean async;
+		
+		StageSpec(String name, int parallelism, int capacity, Function<Object, Object> function, boolean async) {
+			this.name = name;
+			this.parallelism = parallelism;
+			this.capacity = capacity;
+			this.function = function;
+			this.async = async;
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.flow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.BiFunction;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * A {@link Flow.Subscriber} which folds a stream into a promise. The promise is resolved with
+ * the folded value when the stream completes and is rejected with the failure of the stream.
+ * 
+ * <p>
+ * The items are requested in batches, the next batch is requested when the previous one is
+ * received, so a slow publisher is never asked for more than one batch ahead.
+ * </p>
+ *
+ * @param <T> the item type
+ * @param <A> the folded value type
+ */
+public class PromiseSubscriber<T, A> implements Flow.Subscriber<T> {
+	
+	public static final int DEFAULT_BATCH_SIZE = 16;
+	
+	private final Deferred<A> deferred = DeferredFactory.createDeferred();
+	
+	private final BiFunction<A, ? super T, A> accumulator;
+	
+	private final int batchSize;
+	
+	private A accumulated;
+	
+	private Flow.Subscription subscription;
+	
+	private int received;
+	
+	/**
+	 * Creates a subscriber.
+	 * 
+	 * @param initial the initial value
+	 * @param accumulator folds an item into the value
+	 * @param batchSize the number of items to request at a time
+	 */
+	public PromiseSubscriber(A initial, BiFunction<A, ? super T, A> accumulator, int batchSize) {
+		if(accumulator == null) {
+			throw new NullPointerException("The accumulator is empty.");
+		}
+		
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive.");
+		}
+		
+		this.accumulated = initial;
+		this.accumulator = accumulator;
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Creates a subscriber which collects the items into a list.
+	 * 
+	 * @return the subscriber
+	 */
+	public static <T> PromiseSubscriber<T, List<T>> toList() {
+		return new PromiseSubscriber<>(new ArrayList<T>(), new BiFunction<List<T>, T, List<T>>() {
+			@Override
+			public List<T> apply(List<T> list, T item) {
+				list.add(item);
+				return list;
+			}
+		}, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Creates a subscriber which folds the items into a value.
+	 * 
+	 * @param initial the initial value
+	 * @param accumulator folds an item into the value
+	 * 
+	 * @return the subscriber
+	 */
+	public static <T, A> PromiseSubscriber<T, A> fold(A initial, BiFunction<A, ? super T, A> accumulator) {
+		return new PromiseSubscriber<>(initial, accumulator, DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Gets the promise of the folded value.
+	 * 
+	 * @return the promise
+	 */
+	public Promise<A> promise() {
+		return deferred.promise();
+	}
+	
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if(this.subscription != null) {
+			//rule 2.5, only one subscription at a time
+			subscription.cancel();
+			return;
+		}
+		
+		this.subscription = subscription;
+		subscription.request(batchSize);
+	}
+	
+	@Override
+	public void onNext(T item) {
+		if(!deferred.isPending()) {
+			return;
+		}
+		
+		try {
+			accumulated = accumulator.apply(accumulated, item);
+		} catch(RuntimeException ex) {
+			subscription.cancel();
+			deferred.reject(ex);
+			return;
+		}
+		
+		if(++received == batchSize) {
+			received = 0;
+			subscription.request(batchSize);
+		}
+	}
+	
+	@Override
+	public void onError(Throwable throwable) {
+		if(deferred.isPending()) {
+			deferred.reject(DeferredFactory.toException(throwable));
+		}
+	}
+	
+	@Override
+	public void onComplete() {
+		if(deferred.isPending()) {
+			deferred.resolve(accumulated);
+		}
+	}
+}
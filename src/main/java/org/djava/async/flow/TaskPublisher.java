@@ -0,0 +1,280 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.flow;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.djava.async.Promise;
+import org.djava.async.util.DeferredContainer;
+import org.djava.async.util.DeferredContainer.DeferredTask;
+
+/**
+ * A {@link Flow.Publisher} which emits the results of a sequence of tasks in the order of the 
+ * sequence. Every task is converted to a {@link DeferredTask} and submitted to the 
+ * {@link DeferredContainer} only when the subscriber has requested its result, so the number 
+ * of running tasks never exceeds the outstanding demand or the concurrency limit.
+ * 
+ * <p>
+ * The first failed task terminates the stream with its failure and the remaining tasks are
+ * cancelled. A task may not return null, it fails the stream with a {@link NullPointerException}.
+ * </p>
+ * 
+ * <p>
+ * The sequence is consumed once, so the publisher accepts only one subscriber.
+ * </p>
+ *
+ * @param <T> the result type of the tasks
+ */
+public class TaskPublisher<T> implements Flow.Publisher<T> {
+	
+	private final Iterator<? extends Callable<? extends T>> tasks;
+	
+	private final int maxConcurrency;
+	
+	private final AtomicBoolean subscribed = new AtomicBoolean();
+	
+	/**
+	 * Creates a publisher which runs at most as many tasks at a time as there are processors.
+	 * 
+	 * @param tasks the tasks
+	 */
+	public TaskPublisher(Iterable<? extends Callable<? extends T>> tasks) {
+		this(tasks.iterator(), Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Creates a publisher.
+	 * 
+	 * @param tasks the tasks, consumed lazily as the demand allows
+	 * @param maxConcurrency the maximum number of running tasks
+	 */
+	public TaskPublisher(Iterator<? extends Callable<? extends T>> tasks, int maxConcurrency) {
+		if(tasks == null) {
+			throw new NullPointerException("The tasks are empty.");
+		}
+		
+		if(maxConcurrency < 1) {
+			throw new IllegalArgumentException("The concurrency must be positive.");
+		}
+		
+		this.tasks = tasks;
+		this.maxConcurrency = maxConcurrency;
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if(subscriber == null) {
+			throw new NullPointerException("The subscriber is empty.");
+		}
+		
+		if(!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+				
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException("The publisher allows only one subscriber."));
+			return;
+		}
+		
+		TaskSubscription subscription = new TaskSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscription.drain();
+	}
+	
+	/**
+	 * The subscription.
+	 * 
+	 * <p>
+	 * All of the work is done by {@link #drain()}. Requests, cancellation and finished tasks only
+	 * record what happened and call it, the <tt>wip</tt> counter makes sure that only one thread
+	 * drains at a time and that no signal is missed. So the subscriber is called serially and 
+	 * the in-flight queue needs no lock.
+	 * </p>
+	 */
+	private class TaskSubscription implements Flow.Subscription, BiConsumer<Object, Throwable> {
+		
+		private final Flow.Subscriber<? super T> subscriber;
+		
+		private final AtomicLong requested = new AtomicLong();
+		
+		private final AtomicInteger wip = new AtomicInteger();
+		
+		/**
+		 * The submitted tasks which are not emitted yet, in the order of the sequence.
+		 */
+		private final ArrayDeque<DeferredTask<T>> inFlight = new ArrayDeque<>();
+		
+		private volatile boolean cancelled;
+		
+		private volatile Throwable requestError;
+		
+		TaskSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+		
+		@Override
+		public void request(long n) {
+			if(n <= 0) {
+				requestError = new IllegalArgumentException("The request must be positive, see rule 3.9.");
+			}
+			else {
+				while(true) {
+					long current = requested.get();
+					long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+					if(requested.compareAndSet(current, next)) {
+						break;
+					}
+				}
+			}
+			
+			drain();
+		}
+		
+		@Override
+		public void cancel() {
+			cancelled = true;
+			drain();
+		}
+		
+		/**
+		 * Called when a task is finished.
+		 */
+		@Override
+		public void accept(Object value, Throwable ex) {
+			drain();
+		}
+		
+		void drain() {
+			if(wip.getAndIncrement() != 0) {
+				return;
+			}
+			
+			int missed = 1;
+			do {
+				if(cancelled) {
+					cancelAll();
+					return;
+				}
+				
+				if(requestError != null) {
+					terminate(requestError);
+					return;
+				}
+				
+				if(!emit()) {
+					return;
+				}
+				
+				try {
+					submit();
+				} catch(RuntimeException ex) {
+					//the sequence failed
+					terminate(ex);
+					return;
+				}
+				
+				if(inFlight.isEmpty() && !tasks.hasNext()) {
+					cancelled = true;
+					subscriber.onComplete();
+					return;
+				}
+				
+				missed = wip.addAndGet(-missed);
+			} while(missed != 0);
+		}
+		
+		/**
+		 * Emits the finished tasks from the head of the queue.
+		 * 
+		 * @return false when the stream is terminated
+		 */
+		private boolean emit() {
+			while(!cancelled) {
+				DeferredTask<T> head = inFlight.peek();
+				if(head == null) {
+					break;
+				}
+				
+				Promise<T> promise = head.promise();
+				if(promise.isPending()) {
+					break;
+				}
+				
+				if(promise.isRejected()) {
+					inFlight.poll();
+					terminate((Throwable) promise.getResult());
+					return false;
+				}
+				
+				T value = promise.getResult();
+				if(value == null) {
+					inFlight.poll();
+					terminate(new NullPointerException("The task returned null."));
+					return false;
+				}
+				
+				inFlight.poll();
+				if(requested.get() != Long.MAX_VALUE) {
+					requested.decrementAndGet();
+				}
+				subscriber.onNext(value);
+			}
+			
+			return !cancelled;
+		}
+		
+		/**
+		 * Submits the next tasks while the demand and the concurrency allow.
+		 */
+		@SuppressWarnings("unchecked")
+		private void submit() {
+			while(!cancelled && inFlight.size() < maxConcurrency && inFlight.size() < requested.get() && tasks.hasNext()) {
+				DeferredTask<T> task = new DeferredTask<>((Callable<T>) tasks.next());
+				task.promise().toCompletableFuture().whenComplete(this);
+				inFlight.add(task);
+				task.submit();
+			}
+		}
+		
+		private void terminate(Throwable ex) {
+			cancelled = true;
+			cancelAll();
+			subscriber.onError(ex);
+		}
+		
+		private void cancelAll() {
+			while(true) {
+				DeferredTask<T> task = inFlight.poll();
+				if(task == null) {
+					break;
+				}
+				task.cancel(true);
+			}
+		}
+	}
+}
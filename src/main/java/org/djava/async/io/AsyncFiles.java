@@ -0,0 +1,497 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * Asynchronous file reads and writes as promises. The operations run on the thread pool of the
+ * {@link AsynchronousFileChannel}, so no container thread waits for the disk, and the NIO
+ * completion handler settles the promise directly. The callbacks of the promises therefore run
+ * on a channel thread and should hand blocking work over to the container.
+ */
+public final class AsyncFiles {
+	
+	public static final int DEFAULT_PIPELINE_DEPTH = 4;
+	
+	/**
+	 * Settles the deferred passed as the attachment, shared by all the single reads and writes.
+	 */
+	private static final CompletionHandler<Integer, Deferred<Integer>> SETTLE = new CompletionHandler<Integer, Deferred<Integer>>() {
+		@Override
+		public void completed(Integer result, Deferred<Integer> deferred) {
+			deferred.resolve(result);
+		}
+		
+		@Override
+		public void failed(Throwable ex, Deferred<Integer> deferred) {
+			deferred.reject(DeferredFactory.toException(ex));
+		}
+	};
+	
+	private AsyncFiles() {
+	}
+	
+	/**
+	 * Reads a sequence of bytes from the channel into the buffer.
+	 * 
+	 * @param channel the channel
+	 * @param dst the buffer to read into
+	 * @param position the file position to start at
+	 * 
+	 * @return the promise of the number of the bytes read, or -1 at the end of the file
+	 */
+	public static Promise<Integer> read(AsynchronousFileChannel channel, ByteBuffer dst, long position) {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		channel.read(dst, position, deferred, SETTLE);
+		return deferred.promise();
+	}
+	
+	/**
+	 * Writes all the remaining bytes of the buffer to the channel. A partial write is continued
+	 * until the buffer is drained.
+	 * 
+	 * @param channel the channel
+	 * @param src the buffer to write
+	 * @param position the file position to start at
+	 * 
+	 * @return the promise of the number of the bytes written
+	 */
+	public static Promise<Integer> write(AsynchronousFileChannel channel, ByteBuffer src, long position) {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		new WriteAll(channel, src, position, deferred, false).start();
+		return deferred.promise();
+	}
+	
+	/**
+	 * Loads a whole file into a heap buffer. Use {@link #readChunks(Path, ChunkHandler)} for
+	 * files which should not be held in memory at once.
+	 * 
+	 * @param path the file
+	 * 
+	 * @return the promise of the buffer, ready to be read
+	 */
+	public static Promise<ByteBuffer> readAll(Path path) {
+		Deferred<ByteBuffer> deferred = DeferredFactory.createDeferred();
+		
+		AsynchronousFileChannel channel;
+		long size;
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		} catch(IOException ex) {
+			deferred.reject(ex);
+			return deferred.promise();
+		}
+		
+		try {
+			size = channel.size();
+		} catch(IOException ex) {
+			close(channel);
+			deferred.reject(ex);
+			return deferred.promise();
+		}
+		
+		if(size > Integer.MAX_VALUE - 8) {
+			close(channel);
+			deferred.reject(new IOException("The file is too large to load, read it in chunks."));
+			return deferred.promise();
+		}
+		
+		new ReadAll(channel, ByteBuffer.allocate((int) size), deferred).start();
+		return deferred.promise();
+	}
+	
+	/**
+	 * Writes all the remaining bytes of the buffer to a file. The file is created or truncated.
+	 * 
+	 * @param path the file
+	 * @param src the buffer to write
+	 * 
+	 * @return the promise of the number of the bytes written
+	 */
+	public static Promise<Integer> writeAll(Path path, ByteBuffer src) {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		
+		AsynchronousFileChannel channel;
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE, 
+					StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		} catch(IOException ex) {
+			deferred.reject(ex);
+			return deferred.promise();
+		}
+		
+		new WriteAll(channel, src, 0, deferred, true).start();
+		return deferred.promise();
+	}
+	
+	/**
+	 * Reads a file in chunks into the buffers of the shared pool with 
+	 * {@value #DEFAULT_PIPELINE_DEPTH} reads in flight.
+	 * 
+	 * @param path the file
+	 * @param handler receives the chunks in the file order
+	 * 
+	 * @return the promise of the number of the bytes read
+	 * 
+	 * @see #readChunks(Path, ChunkHandler, BufferPool, int)
+	 */
+	public static Promise<Long> readChunks(Path path, ChunkHandler handler) {
+		return readChunks(path, handler, BufferPool.shared(), DEFAULT_PIPELINE_DEPTH);
+	}
+	
+	/**
+	 * Reads a file in chunks of the pool's buffer size. Up to <tt>depth</tt> reads are in flight
+	 * at a time, so the next chunks are read from the disk while the handler works on the current
+	 * one. The handler gets the chunks one at a time in the file order, each buffer goes back to
+	 * the pool when the handler returns.
+	 * 
+	 * @param path the file
+	 * @param handler receives the chunks in the file order
+	 * @param pool the pool to take the buffers from
+	 * @param depth the maximum number of the reads in flight
+	 * 
+	 * @return the promise of the number of the bytes read
+	 */
+	public static Promise<Long> readChunks(Path path, ChunkHandler handler, BufferPool pool, int depth) {
+		if(handler == null) {
+			throw new NullPointerException("The chunk handler is empty.");
+		}
+		
+		if(depth < 1) {
+			throw new IllegalArgumentException("The pipeline depth must be positive.");
+		}
+		
+		Deferred<Long> deferred = DeferredFactory.createDeferred();
+		
+		AsynchronousFileChannel channel;
+		long size;
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+		} catch(IOException ex) {
+			deferred.reject(ex);
+			return deferred.promise();
+		}
+		
+		try {
+			size = channel.size();
+		} catch(IOException ex) {
+			close(channel);
+			deferred.reject(ex);
+			return deferred.promise();
+		}
+		
+		new ChunkReader(channel, size, handler, pool, depth, deferred).drain();
+		return deferred.promise();
+	}
+	
+	static IOException close(AsynchronousFileChannel channel) {
+		try {
+			channel.close();
+			return null;
+		} catch(IOException ex) {
+			return ex;
+		}
+	}
+	
+	/**
+	 * Continues the partial writes until the buffer is drained.
+	 */
+	private static final class WriteAll implements CompletionHandler<Integer, Void> {
+		
+		private final AsynchronousFileChannel channel;
+		
+		private final ByteBuffer src;
+		
+		private final long position;
+		
+		private final Deferred<Integer> deferred;
+		
+		private final boolean closeOnDone;
+		
+		private int written;
+		
+		WriteAll(AsynchronousFileChannel channel, ByteBuffer src, long position, Deferred<Integer> deferred, boolean closeOnDone) {
+			this.channel = channel;
+			this.src = src;
+			this.position = position;
+			this.deferred = deferred;
+			this.closeOnDone = closeOnDone;
+		}
+		
+		void start() {
+			if(!src.hasRemaining()) {
+				completed(0, null);
+				return;
+			}
+			
+			channel.write(src, position, null, this);
+		}
+		
+		@Override
+		public void completed(Integer result, Void attachment) {
+			written += result;
+			if(src.hasRemaining()) {
+				channel.write(src, position + written, null, this);
+				return;
+			}
+			
+			if(closeOnDone) {
+				IOException ex = close(channel);
+				if(ex != null) {
+					deferred.reject(ex);
+					return;
+				}
+			}
+			deferred.resolve(written);
+		}
+		
+		@Override
+		public void failed(Throwable ex, Void attachment) {
+			if(closeOnDone) {
+				close(channel);
+			}
+			deferred.reject(DeferredFactory.toException(ex));
+		}
+	}
+	
+	/**
+	 * Continues the partial reads until the buffer is full or the file ends.
+	 */
+	private static final class ReadAll implements CompletionHandler<Integer, Void> {
+		
+		private final AsynchronousFileChannel channel;
+		
+		private final ByteBuffer dst;
+		
+		private final Deferred<ByteBuffer> deferred;
+		
+		ReadAll(AsynchronousFileChannel channel, ByteBuffer dst, Deferred<ByteBuffer> deferred) {
+			this.channel = channel;
+			this.dst = dst;
+			this.deferred = deferred;
+		}
+		
+		void start() {
+			if(!dst.hasRemaining()) {
+				completed(-1, null);
+				return;
+			}
+			
+			channel.read(dst, 0, null, this);
+		}
+		
+		@Override
+		public void completed(Integer result, Void attachment) {
+			if(result >= 0 && dst.hasRemaining()) {
+				channel.read(dst, dst.position(), null, this);
+				return;
+			}
+			
+			close(channel);
+			dst.flip();
+			deferred.resolve(dst);
+		}
+		
+		@Override
+		public void failed(Throwable ex, Void attachment) {
+			close(channel);
+			deferred.reject(DeferredFactory.toException(ex));
+		}
+	}
+	
+	/**
+	 * A chunk in flight, the slots of the pipeline are reused once their chunk is delivered.
+	 */
+	private static final class Chunk {
+		
+		long position;
+		
+		int length;
+		
+		ByteBuffer buffer;
+		
+		volatile boolean done;
+	}
+	
+	/**
+	 * The pipelined chunk read. The reads complete in any order on the channel threads, the
+	 * drain loop delivers them in the file order and issues the next reads. The loop is run by 
+	 * one thread at a time, guarded by the work-in-progress counter. 
+	 */
+	private static final class ChunkReader implements CompletionHandler<Integer, Chunk> {
+		
+		private final AsynchronousFileChannel channel;
+		
+		private final long size;
+		
+		private final ChunkHandler handler;
+		
+		private final BufferPool pool;
+		
+		private final Deferred<Long> deferred;
+		
+		private final Chunk[] slots;
+		
+		private final AtomicInteger wip = new AtomicInteger();
+		
+		private volatile Exception failure;
+		
+		//only touched in the drain loop
+		
+		private long nextPosition;
+		
+		private long issued;
+		
+		private long delivered;
+		
+		private long bytesRead;
+		
+		private boolean settled;
+		
+		ChunkReader(AsynchronousFileChannel channel, long size, ChunkHandler handler, BufferPool pool, int depth, Deferred<Long> deferred) {
+			this.channel = channel;
+			this.size = size;
+			this.handler = handler;
+			this.pool = pool;
+			this.deferred = deferred;
+			
+			slots = new Chunk[depth];
+			for(int i = 0; i < depth; i++) {
+				slots[i] = new Chunk();
+			}
+		}
+		
+		void drain() {
+			if(wip.getAndIncrement() != 0) {
+				return;
+			}
+			
+			int missed = 1;
+			for(;;) {
+				deliver();
+				
+				missed = wip.addAndGet(-missed);
+				if(missed == 0) {
+					return;
+				}
+			}
+		}
+		
+		private void deliver() {
+			if(settled) {
+				return;
+			}
+			
+			for(;;) {
+				while(failure == null && nextPosition < size && issued - delivered < slots.length) {
+					issue();
+				}
+				
+				if(delivered == issued) {
+					settle();
+					return;
+				}
+				
+				Chunk chunk = slots[(int) (delivered % slots.length)];
+				if(!chunk.done) {
+					return;
+				}
+				
+				ByteBuffer buffer = chunk.buffer;
+				chunk.buffer = null;
+				delivered++;
+				
+				if(failure == null && buffer.position() > 0) {
+					buffer.flip();
+					bytesRead += buffer.remaining();
+					try {
+						handler.onChunk(buffer, chunk.position);
+					} catch(Exception ex) {
+						failure = ex;
+					}
+				}
+				pool.release(buffer);
+			}
+		}
+		
+		private void issue() {
+			Chunk chunk = slots[(int) (issued % slots.length)];
+			chunk.buffer = pool.acquire();
+			chunk.position = nextPosition;
+			chunk.length = (int) Math.min(chunk.buffer.capacity(), size - nextPosition);
+			chunk.buffer.limit(chunk.length);
+			chunk.done = false;
+			
+			nextPosition += chunk.length;
+			issued++;
+			
+			try {
+				channel.read(chunk.buffer, chunk.position, chunk, this);
+			} catch(RuntimeException ex) {
+				failed(ex, chunk);
+			}
+		}
+		
+		private void settle() {
+			settled = true;
+			IOException closeFailure = close(channel);
+			
+			Exception ex = failure;
+			if(ex == null) {
+				ex = closeFailure;
+			}
+			
+			if(ex != null) {
+				deferred.reject(ex);
+				return;
+			}
+			deferred.resolve(bytesRead);
+		}
+		
+		@Override
+		public void completed(Integer result, Chunk chunk) {
+			ByteBuffer buffer = chunk.buffer;
+			if(result >= 0 && buffer.hasRemaining()) {
+				channel.read(buffer, chunk.position + buffer.position(), chunk, this);
+				return;
+			}
+			
+			chunk.done = true;
+			drain();
+		}
+		
+		@Override
+		public void failed(Throwable ex, Chunk chunk) {
+			if(failure == null) {
+				failure = DeferredFactory.toException(ex);
+			}
+			
+			chunk.done = true;
+			drain();
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * Asynchronous socket operations as promises. The operations run on the threads of the channel
+ * group, so a few threads drive any number of connections and no container thread waits for 
+ * the network. The promises are settled by the NIO completion handlers, so their callbacks run
+ * on a group thread and should hand blocking work over to the container.
+ * 
+ * @see FramedChannel
+ */
+public final class AsyncSockets {
+	
+	private AsyncSockets() {
+	}
+	
+	/**
+	 * Opens a channel in the default group and connects it.
+	 * 
+	 * @param remote the remote address
+	 * 
+	 * @return the promise of the connected channel
+	 */
+	public static Promise<AsynchronousSocketChannel> connect(SocketAddress remote) {
+		return connect(null, remote);
+	}
+	
+	/**
+	 * Opens a channel and connects it. The channel is closed if the connection fails.
+	 * 
+	 * @param group the channel group, or <tt>null</tt> for the default group
+	 * @param remote the remote address
+	 * 
+	 * @return the promise of the connected channel
+	 */
+	public static Promise<AsynchronousSocketChannel> connect(AsynchronousChannelGroup group, SocketAddress remote) {
+		final Deferred<AsynchronousSocketChannel> deferred = DeferredFactory.createDeferred();
+		
+		final AsynchronousSocketChannel channel;
+		try {
+			channel = AsynchronousSocketChannel.open(group);
+		} catch(IOException ex) {
+			deferred.reject(ex);
+			return deferred.promise();
+		}
+		
+		channel.connect(remote, null, new CompletionHandler<Void, Void>() {
+			@Override
+			public void completed(Void result, Void attachment) {
+				deferred.resolve(channel);
+			}
+			
+			@Override
+			public void failed(Throwable ex, Void attachment) {
+				close(channel);
+				deferred.reject(DeferredFactory.toException(ex));
+			}
+		});
+		return deferred.promise();
+	}
+	
+	/**
+	 * Accepts a connection.
+	 * 
+	 * @param server the server channel
+	 * 
+	 * @return the promise of the accepted channel
+	 */
+	public static Promise<AsynchronousSocketChannel> accept(AsynchronousServerSocketChannel server) {
+		final Deferred<AsynchronousSocketChannel> deferred = DeferredFactory.createDeferred();
+		server.accept(null, new CompletionHandler<AsynchronousSocketChannel, Void>() {
+			@Override
+			public void completed(AsynchronousSocketChannel channel, Void attachment) {
+				deferred.resolve(channel);
+			}
+			
+			@Override
+			public void failed(Throwable ex, Void attachment) {
+				deferred.reject(DeferredFactory.toException(ex));
+			}
+		});
+		return deferred.promise();
+	}
+	
+	/**
+	 * Reads until the buffer is full. The promise is rejected with an {@link EOFException} if 
+	 * the connection ends first.
+	 * 
+	 * @param channel the channel
+	 * @param dst the buffer to fill
+	 * 
+	 * @return the promise of the buffer
+	 */
+	public static Promise<ByteBuffer> readFully(AsynchronousSocketChannel channel, ByteBuffer dst) {
+		Deferred<ByteBuffer> deferred = DeferredFactory.createDeferred();
+		new ReadFully(channel, dst, deferred).start();
+		return deferred.promise();
+	}
+	
+	/**
+	 * Writes all the remaining bytes of the buffers with gathering writes, so the buffers are
+	 * sent as they are without being copied into one.
+	 * 
+	 * @param channel the channel
+	 * @param srcs the buffers to write
+	 * 
+	 * @return the promise of the number of the bytes written
+	 */
+	public static Promise<Long> writeFully(AsynchronousSocketChannel channel, ByteBuffer... srcs) {
+		Deferred<Long> deferred = DeferredFactory.createDeferred();
+		new WriteFully(channel, srcs, deferred).start();
+		return deferred.promise();
+	}
+	
+	static void close(AsynchronousSocketChannel channel) {
+		try {
+			channel.close();
+		} catch(IOException ex) {
+			//the channel is unusable anyway
+		}
+	}
+	
+	/**
+	 * Continues the partial reads until the buffer is full.
+	 */
+	static final class ReadFully implements CompletionHandler<Integer, Void> {
+		
+		private final AsynchronousSocketChannel channel;
+		
+		private final ByteBuffer dst;
+		
+		private final Deferred<ByteBuffer> deferred;
+		
+		ReadFully(AsynchronousSocketChannel channel, ByteBuffer dst, Deferred<ByteBuffer> deferred) {
+			this.channel = channel;
+			this.dst = dst;
+			this.deferred = deferred;
+		}
+		
+		void start() {
+			if(!dst.hasRemaining()) {
+				deferred.resolve(dst);
+				return;
+			}
+			
+			channel.read(dst, null, this);
+		}
+		
+		@Override
+		public void completed(Integer result, Void attachment) {
+			if(result < 0) {
+				deferred.reject(new EOFException("The connection is closed before the buffer is filled."));
+				return;
+			}
+			
+			if(dst.hasRemaining()) {
+				channel.read(dst, null, this);
+				return;
+			}
+			deferred.resolve(dst);
+		}
+		
+		@Override
+		public void failed(Throwable ex, Void attachment) {
+			deferred.reject(DeferredFactory.toException(ex));
+		}
+	}
+	
+	/**
+	 * Continues the partial gathering writes until every buffer is drained.
+	 */
+	static final class WriteFully implements CompletionHandler<Long, Void> {
+		
+		private final AsynchronousSocketChannel channel;
+		
+		private final ByteBuffer[] srcs;
+		
+		private final Deferred<Long> deferred;
+		
+		private int offset;
+		
+		private long written;
+		
+		WriteFully(AsynchronousSocketChannel channel, ByteBuffer[] srcs, Deferred<Long> deferred) {
+			this.channel = channel;
+			this.srcs = srcs;
+			this.deferred = deferred;
+		}
+		
+		void start() {
+			completed(0L, null);
+		}
+		
+		@Override
+		public void completed(Long result, Void attachment) {
+			written += result;
+			
+			while(offset < srcs.length && !srcs[offset].hasRemaining()) {
+				offset++;
+			}
+			
+			if(offset == srcs.length) {
+				deferred.resolve(written);
+				return;
+			}
+			
+			channel.write(srcs, offset, srcs.length - offset, 0, TimeUnit.MILLISECONDS, null, this);
+		}
+		
+		@Override
+		public void failed(Throwable ex, Void attachment) {
+			deferred.reject(DeferredFactory.toException(ex));
+		}
+	}
+}
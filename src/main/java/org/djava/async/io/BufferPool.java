@@ -0,0 +1,122 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of direct buffers of one size. Allocating a direct buffer is expensive and its memory
+ * is freed only when the buffer is collected, so the buffers are recycled instead.
+ * 
+ * <p>
+ * The pool is lock-free. It allocates a new buffer when it is empty and keeps at most 
+ * <tt>maxPooled</tt> released buffers, the rest are left to the garbage collector.
+ * </p>
+ */
+public class BufferPool {
+	
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	
+	public static final int DEFAULT_MAX_POOLED = 64;
+	
+	private static final BufferPool shared = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+	
+	private final int bufferSize;
+	
+	private final int maxPooled;
+	
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicInteger pooled = new AtomicInteger();
+	
+	/**
+	 * Creates a pool.
+	 * 
+	 * @param bufferSize the capacity of the buffers
+	 * @param maxPooled the maximum number of the released buffers to keep
+	 */
+	public BufferPool(int bufferSize, int maxPooled) {
+		if(bufferSize < 1) {
+			throw new IllegalArgumentException("The buffer size must be positive.");
+		}
+		
+		if(maxPooled < 0) {
+			throw new IllegalArgumentException("The maximum pooled buffers can not be negative.");
+		}
+		
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+	
+	/**
+	 * Gets the shared pool of {@value #DEFAULT_BUFFER_SIZE} byte buffers.
+	 * 
+	 * @return the shared pool
+	 */
+	public static BufferPool shared() {
+		return shared;
+	}
+	
+	/**
+	 * Takes a cleared buffer from the pool or allocates a new one.
+	 * 
+	 * @return the buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = free.poll();
+		if(buffer == null) {
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		
+		pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+	
+	/**
+	 * Returns a buffer to the pool. The buffer must not be used after it is released.
+	 * 
+	 * @param buffer the buffer acquired from this pool
+	 */
+	public void release(ByteBuffer buffer) {
+		if(!buffer.isDirect() || buffer.capacity() != bufferSize) {
+			throw new IllegalArgumentException("The buffer is not from this pool.");
+		}
+		
+		if(pooled.incrementAndGet() > maxPooled) {
+			pooled.decrementAndGet();
+			return;
+		}
+		
+		buffer.clear();
+		free.offer(buffer);
+	}
+	
+	public int getBufferSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * Gets the number of the buffers waiting in the pool.
+	 * 
+	 * @return the number of the pooled buffers
+	 */
+	public int getPooledCount() {
+		return pooled.get();
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the chunks of a file read by {@link AsyncFiles#readChunks(java.nio.file.Path, ChunkHandler)}.
+ */
+@FunctionalInterface
+public interface ChunkHandler {
+	
+	/**
+	 * Handles a chunk. The chunks arrive one at a time in the file order. The buffer is
+	 * returned to its pool when this method returns, so it must not be kept.
+	 * 
+	 * @param chunk the chunk, ready to be read
+	 * @param position the position of the chunk in the file
+	 * 
+	 * @throws Exception to stop the read, the promise is rejected with the exception
+	 */
+	void onChunk(ByteBuffer chunk, long position) throws Exception;
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * Length-prefixed messages over a socket channel. Every frame is a four byte big-endian 
+ * length followed by the payload.
+ * 
+ * <p>
+ * The frames are read through a direct buffer taken from a pool, one socket read can bring in
+ * many small frames. A frame larger than the buffer is read straight into its own buffer. The
+ * frames are read one at a time, the next {@link #readFrame()} is allowed once the previous
+ * promise is settled.
+ * </p>
+ * 
+ * <p>
+ * The frames to write are queued, so {@link #writeFrame(ByteBuffer)} can be called from any 
+ * thread without waiting. Each frame is written with one gathering write of its header and its
+ * payload, the payload is not copied.
+ * </p>
+ */
+public class FramedChannel implements Closeable {
+	
+	public static final int DEFAULT_MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+	
+	private static final int HEADER_LENGTH = 4;
+	
+	private final AsynchronousSocketChannel channel;
+	
+	private final BufferPool pool;
+	
+	private final int maxFrameLength;
+	
+	private final ByteBuffer readBuffer;
+	
+	private final AtomicBoolean reading = new AtomicBoolean();
+	
+	private final ConcurrentLinkedQueue<FrameWrite> writes = new ConcurrentLinkedQueue<>();
+	
+	private final AtomicInteger pendingWrites = new AtomicInteger();
+	
+	private volatile boolean closed;
+	
+	/**
+	 * Creates a framed channel which reads through a buffer of the shared pool.
+	 * 
+	 * @param channel the connected channel
+	 */
+	public FramedChannel(AsynchronousSocketChannel channel) {
+		this(channel, BufferPool.shared(), DEFAULT_MAX_FRAME_LENGTH);
+	}
+	
+	/**
+	 * Creates a framed channel.
+	 * 
+	 * @param channel the connected channel
+	 * @param pool the pool to take the read buffer from
+	 * @param maxFrameLength the maximum payload length accepted by {@link #readFrame()}
+	 */
+	public FramedChannel(AsynchronousSocketChannel channel, BufferPool pool, int maxFrameLength) {
+		if(channel == null) {
+			throw new NullPointerException("The channel is empty.");
+		}
+		
+		if(maxFrameLength < 0) {
+			throw new IllegalArgumentException("The maximum frame length can not be negative.");
+		}
+		
+		this.channel = channel;
+		this.pool = pool;
+		this.maxFrameLength = maxFrameLength;
+		
+		readBuffer = pool.acquire();
+		readBuffer.limit(0);
+	}
+	
+	public AsynchronousSocketChannel getChannel() {
+		return channel;
+	}
+	
+	/**
+	 * Reads the next frame. The promise is rejected with an {@link EOFException} when the
+	 * connection ends and with an {@link IOException} when the frame is longer than the maximum.
+	 * 
+	 * @return the promise of the payload, in a new heap buffer ready to be read
+	 * 
+	 * @throws IllegalStateException if the previous read is not settled
+	 */
+	public Promise<ByteBuffer> readFrame() {
+		Deferred<ByteBuffer> deferred = DeferredFactory.createDeferred();
+		if(closed) {
+			deferred.reject(new ClosedChannelException());
+			return deferred.promise();
+		}
+		
+		if(!reading.compareAndSet(false, true)) {
+			throw new IllegalStateException("A frame read is pending.");
+		}
+		
+		new FrameRead(deferred).parse();
+		return deferred.promise();
+	}
+	
+	/**
+	 * Queues a frame to write. The payload must not be changed until the promise is settled.
+	 * 
+	 * @param payload the payload
+	 * 
+	 * @return the promise of the number of the payload bytes written
+	 */
+	public Promise<Integer> writeFrame(ByteBuffer payload) {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		if(closed) {
+			deferred.reject(new ClosedChannelException());
+			return deferred.promise();
+		}
+		
+		writes.offer(new FrameWrite(payload, deferred));
+		if(pendingWrites.getAndIncrement() == 0) {
+			writes.poll().start();
+		}
+		return deferred.promise();
+	}
+	
+	/**
+	 * Closes the channel. The pending operations are rejected and the read buffer goes back to
+	 * the pool once no read uses it.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		try {
+			channel.close();
+		} finally {
+			if(reading.compareAndSet(false, true)) {
+				pool.release(readBuffer);
+			}
+		}
+	}
+	
+	private void endRead() {
+		reading.set(false);
+		if(closed && reading.compareAndSet(false, true)) {
+			pool.release(readBuffer);
+		}
+	}
+	
+	private void writeDone() {
+		if(pendingWrites.decrementAndGet() > 0) {
+			writes.poll().start();
+		}
+	}
+	
+	/**
+	 * A frame read. The read buffer is kept ready to be read between the socket reads.
+	 */
+	private final class FrameRead implements CompletionHandler<Integer, Void> {
+		
+		private final Deferred<ByteBuffer> deferred;
+		
+		FrameRead(Deferred<ByteBuffer> deferred) {
+			this.deferred = deferred;
+		}
+		
+		void parse() {
+			if(readBuffer.remaining() < HEADER_LENGTH) {
+				fill();
+				return;
+			}
+			
+			int length = readBuffer.getInt(readBuffer.position());
+			if(length < 0 || length > maxFrameLength) {
+				fail(new IOException("The frame length " + length + " is invalid."));
+				return;
+			}
+			
+			if(readBuffer.remaining() - HEADER_LENGTH >= length) {
+				readBuffer.position(readBuffer.position() + HEADER_LENGTH);
+				ByteBuffer frame = ByteBuffer.allocate(length);
+				copy(frame);
+				frame.flip();
+				resolve(frame);
+				return;
+			}
+			
+			if(HEADER_LENGTH + length <= readBuffer.capacity()) {
+				fill();
+				return;
+			}
+			
+			//larger than the read buffer, read the rest straight into the frame
+			readBuffer.position(readBuffer.position() + HEADER_LENGTH);
+			final ByteBuffer frame = ByteBuffer.allocate(length);
+			copy(frame);
+			channel.read(frame, null, new CompletionHandler<Integer, Void>() {
+				@Override
+				public void completed(Integer result, Void attachment) {
+					if(result < 0) {
+						fail(new EOFException("The connection is closed in the middle of a frame."));
+						return;
+					}
+					
+					if(frame.hasRemaining()) {
+						channel.read(frame, null, this);
+						return;
+					}
+					
+					frame.flip();
+					resolve(frame);
+				}
+				
+				@Override
+				public void failed(Throwable ex, Void attachment) {
+					fail(DeferredFactory.toException(ex));
+				}
+			});
+		}
+		
+		private void copy(ByteBuffer frame) {
+			int limit = readBuffer.limit();
+			readBuffer.limit(readBuffer.position() + Math.min(frame.remaining(), readBuffer.remaining()));
+			frame.put(readBuffer);
+			readBuffer.limit(limit);
+		}
+		
+		private void fill() {
+			readBuffer.compact();
+			channel.read(readBuffer, null, this);
+		}
+		
+		private void resolve(ByteBuffer frame) {
+			endRead();
+			deferred.resolve(frame);
+		}
+		
+		private void fail(Exception ex) {
+			endRead();
+			deferred.reject(ex);
+		}
+		
+		@Override
+		public void completed(Integer result, Void attachment) {
+			readBuffer.flip();
+			if(result < 0) {
+				fail(new EOFException(readBuffer.hasRemaining() 
+						? "The connection is closed in the middle of a frame." : "The connection is closed."));
+				return;
+			}
+			
+			parse();
+		}
+		
+		@Override
+		public void failed(Throwable ex, Void attachment) {
+			readBuffer.flip();
+			fail(DeferredFactory.toException(ex));
+		}
+	}
+	
+	/**
+	 * A queued frame write, continued until the header and the payload are drained.
+	 */
+	private final class FrameWrite implements CompletionHandler<Long, Void> {
+		
+		private final ByteBuffer[] buffers;
+		
+		private final Deferred<Integer> deferred;
+		
+		private final int length;
+		
+		FrameWrite(ByteBuffer payload, Deferred<Integer> deferred) {
+			this.length = payload.remaining();
+			this.deferred = deferred;
+			
+			ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+			header.putInt(0, length);
+			buffers = new ByteBuffer[] {header, payload};
+		}
+		
+		void start() {
+			try {
+				channel.write(buffers, 0, buffers.length, 0, TimeUnit.MILLISECONDS, null, this);
+			} catch(RuntimeException ex) {
+				failed(ex, null);
+			}
+		}
+		
+		@Override
+		public void completed(Long result, Void attachment) {
+			if(buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+				int offset = buffers[0].hasRemaining() ? 0 : 1;
+				channel.write(buffers, offset, buffers.length - offset, 0, TimeUnit.MILLISECONDS, null, this);
+				return;
+			}
+			
+			writeDone();
+			deferred.resolve(length);
+		}
+		
+		@Override
+		public void failed(Throwable ex, Void attachment) {
+			writeDone();
+			deferred.reject(DeferredFactory.toException(ex));
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import org.djava.async.Callbacks.FailureCallBack;
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.djava.async.util.VoidType;
+
+/**
+ * Parallel processing of the memory-mapped chunks of a file. The file is split into chunks
+ * which end on a record delimiter, every chunk is mapped and handed to a mapper on the 
+ * {@link org.djava.async.util.DeferredContainer}, and the results are combined in the file
+ * order. The mappers read the pages of the file directly, no byte is copied.
+ * 
+ * <p>
+ * The chunks are found by reading a few bytes around each boundary, the rest of the file is 
+ * first touched by the mappers. The container must be created before.
+ * </p>
+ */
+public final class MappedFiles {
+	
+	public static final byte NEW_LINE = '\n';
+	
+	public static final int MIN_CHUNK_SIZE = 1024 * 1024;
+	
+	public static final int MAX_CHUNK_SIZE = 1024 * 1024 * 1024;
+	
+	private static final int SCAN_BUFFER_SIZE = 8192;
+	
+	private MappedFiles() {
+	}
+	
+	/**
+	 * Processes the lines of a file in parallel. The chunk size is chosen to give every 
+	 * processor a few chunks.
+	 * 
+	 * @param path the file
+	 * @param mapper maps a chunk to a result
+	 * @param combiner combines the results of two adjacent chunks, must be associative
+	 * 
+	 * @return the promise of the combined result
+	 * 
+	 * @see #process(Path, byte, int, Function, BinaryOperator)
+	 */
+	public static <R> Promise<R> process(Path path, Function<? super ByteBuffer, ? extends R> mapper, BinaryOperator<R> combiner) {
+		return process(path, NEW_LINE, 0, mapper, combiner);
+	}
+	
+	/**
+	 * Processes the records of a file in parallel. Every chunk starts at the beginning of a record
+	 * and ends after a delimiter or at the end of the file, so no record is split. A chunk is
+	 * longer than the chunk size by the rest of its last record.
+	 * 
+	 * <p>
+	 * The mapper gets a read-only buffer of the chunk and runs on a container thread. An empty
+	 * file is one empty chunk. The results are combined in the file order, so the combiner needs
+	 * to be associative only.
+	 * </p>
+	 * 
+	 * @param path the file
+	 * @param delimiter the record delimiter
+	 * @param chunkSize the target chunk size, or zero to choose one from the file size
+	 * @param mapper maps a chunk to a result
+	 * @param combiner combines the results of two adjacent chunks, must be associative
+	 * 
+	 * @return the promise of the combined result
+	 */
+	public static <R> Promise<R> process(Path path, byte delimiter, int chunkSize, 
+			final Function<? super ByteBuffer, ? extends R> mapper, final BinaryOperator<R> combiner) {
+		if(mapper == null || combiner == null) {
+			throw new NullPointerException("The mapper or the combiner is empty.");
+		}
+		
+		if(chunkSize < 0) {
+			throw new IllegalArgumentException("The chunk size can not be negative.");
+		}
+		
+		List<ByteBuffer> chunks;
+		try {
+			chunks = map(path, delimiter, chunkSize);
+		} catch(IOException ex) {
+			Deferred<R> deferred = DeferredFactory.createDeferred();
+			deferred.reject(ex);
+			return deferred.promise();
+		}
+		
+		//a generic array can not be created, the array only ever holds Callable<R> instances
+		@SuppressWarnings("unchecked")
+		Callable<R>[] tasks = (Callable<R>[]) new Callable<?>[chunks.size()];
+		for(int i = 0; i < tasks.length; i++) {
+			final ByteBuffer chunk = chunks.get(i);
+			tasks[i] = new Callable<R>() {
+				@Override
+				public R call() throws Exception {
+					return mapper.apply(chunk);
+				}
+			};
+		}
+		
+		//a null returned by a success callback forwards the list, so the result is settled directly
+		final Deferred<R> deferred = DeferredFactory.createDeferred();
+		Deferred.when(tasks).then(new SuccessCallBack<VoidType, List<R>>() {
+			@Override
+			public Object call(List<R> results) {
+				R result = results.get(0);
+				try {
+					for(int i = 1; i < results.size(); i++) {
+						result = combiner.apply(result, results.get(i));
+					}
+				} catch(RuntimeException ex) {
+					deferred.reject(ex);
+					return VoidType.NOTHING;
+				}
+				
+				deferred.resolve(result);
+				return VoidType.NOTHING;
+			}
+		}, new FailureCallBack() {
+			@Override
+			public VoidType call(Exception reason) {
+				deferred.reject(reason);
+				return VoidType.NOTHING;
+			}
+		}, null);
+		return deferred.promise();
+	}
+	
+	/**
+	 * Splits the file and maps the chunks. A mapping stays valid after its channel is closed.
+	 */
+	private static List<ByteBuffer> map(Path path, byte delimiter, int chunkSize) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(chunkSize == 0) {
+				chunkSize = (int) Math.min(MAX_CHUNK_SIZE, 
+						Math.max(MIN_CHUNK_SIZE, size / (Runtime.getRuntime().availableProcessors() * 4) + 1));
+			}
+			
+			List<ByteBuffer> chunks = new ArrayList<>();
+			ByteBuffer scan = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+			
+			long start = 0;
+			do {
+				long end = start + chunkSize >= size ? size : nextRecord(channel, size, start + chunkSize, delimiter, scan);
+				if(end - start > Integer.MAX_VALUE) {
+					throw new IOException("The record at " + start + " is longer than a mapping can be.");
+				}
+				
+				chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+				start = end;
+			} while(start < size);
+			
+			return chunks;
+		}
+	}
+	
+	/**
+	 * Finds the position after the first delimiter at or after the position, or the end of the file.
+	 */
+	private static long nextRecord(FileChannel channel, long size, long position, byte delimiter, ByteBuffer scan) throws IOException {
+		for(;;) {
+			scan.clear();
+			scan.limit((int) Math.min(scan.capacity(), size - position));
+			int read = scan.hasRemaining() ? channel.read(scan, position) : -1;
+			if(read < 0) {
+				return size;
+			}
+			
+			for(int i = 0; i < read; i++) {
+				if(scan.get(i) == delimiter) {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A success, failure or notification callback is executed.
+ */
+@Name("org.djava.async.CallbackExecution")
+@Label("Callback Execution")
+@Category({"DeferredJava", "Promise"})
+@Description("A promise callback is executed")
+@Enabled(false)
+@StackTrace(false)
+public class CallbackExecutionEvent extends Event {
+	
+	@Label("Callback Type")
+	String type;
+	
+	@Label("Callback Class")
+	Class<?> callbackClass;
+	
+	@Label("Failed")
+	@Description("The callback has thrown an exception")
+	boolean failed;
+
+}
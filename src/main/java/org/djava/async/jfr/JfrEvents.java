@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.jfr;
+
+import java.util.Collection;
+import java.util.Optional;
+
+import org.djava.async.Callbacks.CallBackType;
+
+/**
+ * Emits the JDK Flight Recorder events of the library. 
+ * 
+ * <p>
+ * All of the events are disabled by default. Enable them by {@link jdk.jfr.Recording#enable(Class)} or
+ * by a settings file, <tt>org/djava/async/jfr/deferredjava.jfc</tt> in the jar enables all of them:
+ * <tt>jcmd &lt;pid&gt; JFR.start settings=default,deferredjava.jfc</tt>. When an event is not recorded
+ * its begin method returns null and nothing is allocated: every method first asks a shared probe
+ * instance of the event class whether the event is enabled, which is a field read, and creates
+ * the event only when a recording wants it.
+ * </p>
+ * 
+ * <p>
+ * The events are emitted only when the <tt>jdk.jfr</tt> module is present and the 
+ * <tt>org.djava.async.jfr.enabled</tt> system property is not false. The decision is
+ * kept in the {@link #ENABLED} constant, so the event code is removed by the JIT otherwise.
+ * The methods of this class are called by the library, the begin methods return an opaque
+ * token which should be passed to the matching end method.
+ * </p>
+ */
+public class JfrEvents {
+	
+	public static final String ENABLED_PROPERTY = "org.djava.async.jfr.enabled";
+	
+	public static final boolean ENABLED = isAvailable();
+	
+	/**
+	 * The probes which tell whether an event is enabled by a recording. They are never committed.
+	 */
+	private static final TaskQueuedEvent TASK_QUEUED = ENABLED ? new TaskQueuedEvent() : null;
+	private static final TaskExecutionEvent TASK_EXECUTION = ENABLED ? new TaskExecutionEvent() : null;
+	private static final CallbackExecutionEvent CALLBACK_EXECUTION = ENABLED ? new CallbackExecutionEvent() : null;
+	private static final SlowCallbackEvent SLOW_CALLBACK = ENABLED ? new SlowCallbackEvent() : null;
+	private static final WhenCompletedEvent WHEN_COMPLETED = ENABLED ? new WhenCompletedEvent() : null;
+	
+	public static void taskQueued(String container, Class<?> taskClass, Collection<?> queue) {
+		if(!TASK_QUEUED.isEnabled()) {
+			return;
+		}
+		
+		TaskQueuedEvent event = new TaskQueuedEvent();
+		if(event.shouldCommit()) {
+			event.container = container;
+			event.taskClass = taskClass;
+			event.queueDepth = queue.size();
+			event.commit();
+		}
+	}
+	
+	public static Object taskStarted() {
+		if(!TASK_EXECUTION.isEnabled()) {
+			return null;
+		}
+		
+		TaskExecutionEvent event = new TaskExecutionEvent();
+		event.begin();
+		return event;
+	}
+	
+	public static void taskFinished(Object token, String container, Class<?> taskClass, long queueTime, boolean failed) {
+		TaskExecutionEvent event = (TaskExecutionEvent) token;
+		event.end();
+		if(event.shouldCommit()) {
+			event.container = container;
+			event.taskClass = taskClass;
+			event.queueTime = queueTime;
+			event.failed = failed;
+			event.commit();
+		}
+	}
+	
+	public static Object callbackStarted() {
+		if(!CALLBACK_EXECUTION.isEnabled() && !SLOW_CALLBACK.isEnabled()) {
+			return null;
+		}
+		
+		CallbackExecutionEvent execution = new CallbackExecutionEvent();
+		SlowCallbackEvent slow = new SlowCallbackEvent();
+		execution.begin();
+		slow.begin();
+		return new CallbackEvents(execution, slow);
+	}
+	
+	public static void callbackFinished(Object token, CallBackType type, Class<?> callbackClass, boolean failed) {
+		CallbackEvents events = (CallbackEvents) token;
+		
+		events.execution.end();
+		if(events.execution.shouldCommit()) {
+			events.execution.type = type.name();
+			events.execution.callbackClass = callbackClass;
+			events.execution.failed = failed;
+			events.execution.commit();
+		}
+		
+		events.slow.end();
+		if(events.slow.shouldCommit()) {
+			events.slow.type = type.name();
+			events.slow.callbackClass = callbackClass;
+			events.slow.commit();
+		}
+	}
+	
+	public static Object whenStarted() {
+		if(!WHEN_COMPLETED.isEnabled()) {
+			return null;
+		}
+		
+		WhenCompletedEvent event = new WhenCompletedEvent();
+		event.begin();
+		return event;
+	}
+	
+	public static void whenFinished(Object token, int inputs, boolean rejected) {
+		WhenCompletedEvent event = (WhenCompletedEvent) token;
+		event.end();
+		if(event.shouldCommit()) {
+			event.inputs = inputs;
+			event.rejected = rejected;
+			event.commit();
+		}
+	}
+	
+	private static boolean isAvailable() {
+		if("false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY))) {
+			return false;
+		}
+		
+		Optional<Module> jfr = ModuleLayer.boot().findModule("jdk.jfr");
+		return jfr.isPresent() && JfrEvents.class.getModule().canRead(jfr.get());
+	}
+	
+	private static class CallbackEvents {
+		
+		final CallbackExecutionEvent execution;
+		final SlowCallbackEvent slow;
+		
+		CallbackEvents(CallbackExecutionEvent execution, SlowCallbackEvent slow) {
+			this.execution = execution;
+			this.slow = slow;
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * A callback takes longer than the threshold. Callbacks run on the thread which settles the
+ * promise, a slow callback delays every other callback of the promise and the settling thread.
+ */
+@Name("org.djava.async.SlowCallback")
+@Label("Slow Callback")
+@Category({"DeferredJava", "Promise"})
+@Description("A promise callback takes longer than the threshold")
+@Enabled(false)
+@Threshold("10 ms")
+@StackTrace(false)
+public class SlowCallbackEvent extends Event {
+	
+	@Label("Callback Type")
+	String type;
+	
+	@Label("Callback Class")
+	Class<?> callbackClass;
+
+}
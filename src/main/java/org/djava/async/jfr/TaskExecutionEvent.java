@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A task is executed by a deferred container. The event starts when the task is started
+ * and ends when the task is finished.
+ */
+@Name("org.djava.async.TaskExecution")
+@Label("Task Execution")
+@Category({"DeferredJava", "Container"})
+@Description("A task is executed by a deferred container")
+@Enabled(false)
+@StackTrace(false)
+public class TaskExecutionEvent extends Event {
+	
+	@Label("Container")
+	String container;
+	
+	@Label("Task Class")
+	Class<?> taskClass;
+	
+	@Label("Queue Time")
+	@Description("Time between the submission and the start of the task")
+	@Timespan(Timespan.NANOSECONDS)
+	long queueTime;
+	
+	@Label("Failed")
+	boolean failed;
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A task is submitted to a deferred container.
+ */
+@Name("org.djava.async.TaskQueued")
+@Label("Task Queued")
+@Category({"DeferredJava", "Container"})
+@Description("A task is submitted to a deferred container")
+@Enabled(false)
+@StackTrace(false)
+public class TaskQueuedEvent extends Event {
+	
+	@Label("Container")
+	String container;
+	
+	@Label("Task Class")
+	Class<?> taskClass;
+	
+	@Label("Queue Depth")
+	@Description("Number of the queued tasks before this one")
+	int queueDepth;
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A <tt>when</tt> of multiple promises is settled. The event starts when the <tt>when</tt>
+ * is called.
+ */
+@Name("org.djava.async.WhenCompleted")
+@Label("When Completed")
+@Category({"DeferredJava", "Promise"})
+@Description("An aggregation of promises is settled")
+@Enabled(false)
+@StackTrace(false)
+public class WhenCompletedEvent extends Event {
+	
+	@Label("Inputs")
+	int inputs;
+	
+	@Label("Rejected")
+	boolean rejected;
+
+}
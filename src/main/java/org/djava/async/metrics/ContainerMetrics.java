@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The metrics registry of a deferred container.
+ * 
+ * <p>
+ * Counters are {@link LongAdder}s and histograms are lock-free, recording a finished task
+ * costs a few array increments. Queue depth and the number of active workers 
+ * are read from the executor when they are requested. Use {@link #snapshot()} to read all
+ * of the metrics programmatically or the registered <tt>MBean</tt> to read them over JMX.
+ * </p>
+ * 
+ * <p>
+ * The recorded times:
+ * <ul>
+ * <li><tt>wait time</tt> from the submission till the task is started by a worker</li>
+ * <li><tt>run time</tt> of the callable</li>
+ * <li><tt>settle latency</tt> from the submission till the promise of the task is settled
+ * and its callbacks have returned</li>
+ * </ul>
+ * </p>
+ */
+public class ContainerMetrics implements ContainerMetricsMBean {
+	
+	public static final String JMX_DOMAIN = "org.djava.async";
+	
+	private final ThreadPoolExecutor executor;
+	private final long createdAt = System.nanoTime();
+	
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	
+	private final LogLinearHistogram waitTime = new LogLinearHistogram();
+	private final LogLinearHistogram runTime = new LogLinearHistogram();
+	private final LogLinearHistogram settleLatency = new LogLinearHistogram();
+	
+	private ObjectName objectName;
+	
+	public ContainerMetrics(ThreadPoolExecutor executor) {
+		this.executor = executor;
+	}
+	
+	public void taskSubmitted() {
+		submitted.increment();
+	}
+	
+	public void taskRejected() {
+		rejected.increment();
+	}
+	
+	/**
+	 * Records a finished task.
+	 * 
+	 * @param enqueuedAt the submission time
+	 * @param startedAt the time when the task is started
+	 * @param finishedAt the time when the callable returned
+	 * @param failure true when the task is rejected
+	 */
+	public void taskFinished(long enqueuedAt, long startedAt, long finishedAt, boolean failure) {
+		waitTime.record(startedAt - enqueuedAt);
+		runTime.record(finishedAt - startedAt);
+		
+		if(failure) {
+			failed.increment();
+		} else {
+			completed.increment();
+		}
+	}
+	
+	/**
+	 * Records a settled task. Not called when the promise of the task is cancelled.
+	 * 
+	 * @param enqueuedAt the submission time
+	 * @param settledAt the time when the promise is settled and its callbacks have returned
+	 */
+	public void taskSettled(long enqueuedAt, long settledAt) {
+		settleLatency.record(settledAt - enqueuedAt);
+	}
+	
+	/**
+	 * Registers the metrics to the platform MBean server. A registration failure does not
+	 * affect the container, the metrics are still available by {@link #snapshot()}.
+	 * 
+	 * @param name the name of the container
+	 */
+	public synchronized void register(String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName candidate = new ObjectName(JMX_DOMAIN + ":type=DeferredContainer,name=" + ObjectName.quote(name));
+			server.registerMBean(this, candidate);
+			objectName = candidate;
+		} catch (JMException ex) {
+			objectName = null;
+		}
+	}
+	
+	/**
+	 * Unregisters the metrics from the platform MBean server.
+	 */
+	public synchronized void unregister() {
+		if(objectName == null) {
+			return;
+		}
+		
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException ex) {
+			//already unregistered
+		}
+		objectName = null;
+	}
+	
+	/**
+	 * Gets the registered JMX name.
+	 * 
+	 * @return the object name, null when the metrics are not registered
+	 */
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+	
+	/**
+	 * Takes a snapshot of all of the metrics.
+	 * 
+	 * @return the snapshot
+	 */
+	public ContainerMetricsSnapshot snapshot() {
+		return new ContainerMetricsSnapshot(System.nanoTime() - createdAt, getQueueDepth(), getActiveWorkers(), 
+				getPoolSize(), submitted.sum(), completed.sum(), failed.sum(), rejected.sum(), 
+				waitTime.snapshot(), runTime.snapshot(), settleLatency.snapshot());
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public int getActiveWorkers() {
+		return executor.getActiveCount();
+	}
+
+	@Override
+	public int getPoolSize() {
+		return executor.getPoolSize();
+	}
+
+	@Override
+	public long getSubmittedTasks() {
+		return submitted.sum();
+	}
+
+	@Override
+	public long getCompletedTasks() {
+		return completed.sum();
+	}
+
+	@Override
+	public long getFailedTasks() {
+		return failed.sum();
+	}
+
+	@Override
+	public long getRejectedTasks() {
+		return rejected.sum();
+	}
+
+	@Override
+	public double getThroughput() {
+		return snapshot().getThroughput();
+	}
+
+	@Override
+	public double getWaitTimeMean() {
+		return waitTime.snapshot().getMean();
+	}
+
+	@Override
+	public long getWaitTimeP50() {
+		return waitTime.snapshot().getPercentile(50);
+	}
+
+	@Override
+	public long getWaitTimeP99() {
+		return waitTime.snapshot().getPercentile(99);
+	}
+
+	@Override
+	public long getWaitTimeMax() {
+		return waitTime.snapshot().getMax();
+	}
+
+	@Override
+	public double getRunTimeMean() {
+		return runTime.snapshot().getMean();
+	}
+
+	@Override
+	public long getRunTimeP50() {
+		return runTime.snapshot().getPercentile(50);
+	}
+
+	@Override
+	public long getRunTimeP99() {
+		return runTime.snapshot().getPercentile(99);
+	}
+
+	@Override
+	public long getRunTimeMax() {
+		return runTime.snapshot().getMax();
+	}
+
+	@Override
+	public long getSettleLatencyP50() {
+		return settleLatency.snapshot().getPercentile(50);
+	}
+
+	@Override
+	public long getSettleLatencyP99() {
+		return settleLatency.snapshot().getPercentile(99);
+	}
+
+	@Override
+	public long getSettleLatencyMax() {
+		return settleLatency.snapshot().getMax();
+	}
+
+}
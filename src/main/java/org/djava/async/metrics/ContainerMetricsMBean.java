@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.metrics;
+
+/**
+ * The JMX view of the {@link ContainerMetrics}. All of the times are in nanoseconds.
+ */
+public interface ContainerMetricsMBean {
+	
+	int getQueueDepth();
+	
+	int getActiveWorkers();
+	
+	int getPoolSize();
+	
+	long getSubmittedTasks();
+	
+	long getCompletedTasks();
+	
+	long getFailedTasks();
+	
+	long getRejectedTasks();
+	
+	double getThroughput();
+	
+	double getWaitTimeMean();
+	
+	long getWaitTimeP50();
+	
+	long getWaitTimeP99();
+	
+	long getWaitTimeMax();
+	
+	double getRunTimeMean();
+	
+	long getRunTimeP50();
+	
+	long getRunTimeP99();
+	
+	long getRunTimeMax();
+	
+	long getSettleLatencyP50();
+	
+	long getSettleLatencyP99();
+	
+	long getSettleLatencyMax();
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An immutable copy of the {@link ContainerMetrics}. All of the times are in nanoseconds.
+ */
+public class ContainerMetricsSnapshot {
+	
+	private final long uptime;
+	private final int queueDepth;
+	private final int activeWorkers;
+	private final int poolSize;
+	private final long submittedTasks;
+	private final long completedTasks;
+	private final long failedTasks;
+	private final long rejectedTasks;
+	private final HistogramSnapshot waitTime;
+	private final HistogramSnapshot runTime;
+	private final HistogramSnapshot settleLatency;
+	
+	ContainerMetricsSnapshot(long uptime, int queueDepth, int activeWorkers, int poolSize, 
+			long submittedTasks, long completedTasks, long failedTasks, long rejectedTasks,
+			HistogramSnapshot waitTime, HistogramSnapshot runTime, HistogramSnapshot settleLatency) {
+		this.uptime = uptime;
+		this.queueDepth = queueDepth;
+		this.activeWorkers = activeWorkers;
+		this.poolSize = poolSize;
+		this.submittedTasks = submittedTasks;
+		this.completedTasks = completedTasks;
+		this.failedTasks = failedTasks;
+		this.rejectedTasks = rejectedTasks;
+		this.waitTime = waitTime;
+		this.runTime = runTime;
+		this.settleLatency = settleLatency;
+	}
+	
+	/**
+	 * Gets the average number of finished tasks per second since the metrics are created.
+	 * 
+	 * @return the throughput
+	 */
+	public double getThroughput() {
+		return perSecond(completedTasks + failedTasks, uptime);
+	}
+	
+	/**
+	 * Gets the number of finished tasks per second between an earlier snapshot and this one.
+	 * 
+	 * @param earlier the earlier snapshot
+	 * 
+	 * @return the throughput
+	 */
+	public double getThroughputSince(ContainerMetricsSnapshot earlier) {
+		long finished = (completedTasks + failedTasks) - (earlier.completedTasks + earlier.failedTasks);
+		return perSecond(finished, uptime - earlier.uptime);
+	}
+	
+	private static double perSecond(long count, long nanos) {
+		if(nanos <= 0) {
+			return 0.0;
+		}
+		return count * (double) TimeUnit.SECONDS.toNanos(1) / nanos;
+	}
+
+	public long getUptime() {
+		return uptime;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getActiveWorkers() {
+		return activeWorkers;
+	}
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public long getSubmittedTasks() {
+		return submittedTasks;
+	}
+
+	public long getCompletedTasks() {
+		return completedTasks;
+	}
+
+	public long getFailedTasks() {
+		return failedTasks;
+	}
+
+	public long getRejectedTasks() {
+		return rejectedTasks;
+	}
+
+	public HistogramSnapshot getWaitTime() {
+		return waitTime;
+	}
+
+	public HistogramSnapshot getRunTime() {
+		return runTime;
+	}
+
+	public HistogramSnapshot getSettleLatency() {
+		return settleLatency;
+	}
+	
+	@Override
+	public String toString() {
+		return "queueDepth=" + queueDepth + ", activeWorkers=" + activeWorkers + ", poolSize=" + poolSize
+				+ ", submitted=" + submittedTasks + ", completed=" + completedTasks + ", failed=" + failedTasks
+				+ ", rejected=" + rejectedTasks + ", throughput=" + getThroughput()
+				+ ", waitTime=[" + waitTime + "], runTime=[" + runTime + "], settleLatency=[" + settleLatency + "]";
+	}
+
+}
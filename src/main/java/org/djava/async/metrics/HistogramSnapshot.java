@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.metrics;
+
+/**
+ * An immutable copy of a {@link LogLinearHistogram}.
+ */
+public class HistogramSnapshot {
+	
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+	
+	HistogramSnapshot(long[] counts, long count, long sum, long max) {
+		this.counts = counts;
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	public double getMean() {
+		return count == 0 ? 0.0 : (double) sum / count;
+	}
+	
+	/**
+	 * Gets the value at a percentile. The returned value is the upper bound of the
+	 * bucket which contains the percentile, limited by the maximum recorded value.
+	 * 
+	 * @param percentile the percentile between 0 and 100
+	 * 
+	 * @return the value, zero when nothing is recorded
+	 */
+	public long getPercentile(double percentile) {
+		if(count == 0) {
+			return 0L;
+		}
+		
+		long rank = (long) Math.ceil(count * Math.min(100.0, Math.max(0.0, percentile)) / 100.0);
+		if(rank < 1) {
+			rank = 1;
+		}
+		
+		long seen = 0L;
+		for(int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(LogLinearHistogram.bucketUpperBound(i), max);
+			}
+		}
+		
+		return max;
+	}
+	
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50) 
+				+ ", p99=" + getPercentile(99) + ", max=" + max;
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values, usually nanoseconds.
+ * 
+ * <p>
+ * Every power of two range is split into {@value #SUB_BUCKETS} linear buckets, so the
+ * relative error of a recorded value is less than 1/{@value #SUB_BUCKETS} over the whole
+ * long range while the histogram has a fixed size. Recording a value is one array
+ * increment and does not allocate.
+ * </p>
+ */
+public class LogLinearHistogram {
+	
+	static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 * 
+	 * @param value the value
+	 */
+	public void record(long value) {
+		if(value < 0) {
+			value = 0;
+		}
+		
+		counts.incrementAndGet(bucketIndex(value));
+		sum.add(value);
+		
+		long current = max.get();
+		while(value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+	
+	/**
+	 * Takes a snapshot of the histogram. The snapshot is consistent per bucket
+	 * but not over all buckets while values are recorded.
+	 * 
+	 * @return the snapshot
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0L;
+		for(int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new HistogramSnapshot(copy, count, sum.sum(), max.get());
+	}
+	
+	static int bucketIndex(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	static long bucketLowerBound(int index) {
+		if(index < SUB_BUCKETS) {
+			return index;
+		}
+		
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS;
+		return (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+	}
+	
+	static long bucketUpperBound(int index) {
+		if(index + 1 >= BUCKETS) {
+			return Long.MAX_VALUE;
+		}
+		return bucketLowerBound(index + 1) - 1;
+	}
+
+}
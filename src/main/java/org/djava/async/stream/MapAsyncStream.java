@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.stream;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * The asynchronous map. Up to <tt>concurrency</tt> items are held in the window, from the 
+ * start of their mapping until their value is taken. The upstream is pulled one item at a time
+ * while the window has room, so it is read ahead of the downstream by at most the window.
+ * 
+ * <p>
+ * Every event, a pull, an item and a finished mapping, only records itself and runs the drain
+ * loop. The loop owns the window and is run by one thread at a time, guarded by the 
+ * work-in-progress counter.
+ * </p>
+ */
+final class MapAsyncStream<T, R> extends PromiseStream<R> implements PromiseStream.Receiver<T> {
+	
+	private final PromiseStream<T> upstream;
+	
+	private final Function<? super T, ? extends Promise<? extends R>> mapper;
+	
+	private final int concurrency;
+	
+	private final boolean ordered;
+	
+	private final AtomicInteger wip = new AtomicInteger();
+	
+	//only touched in the drain loop
+	
+	private final ArrayDeque<Slot<R>> window = new ArrayDeque<>();
+	
+	private boolean pulling;
+	
+	private Exception failure;
+	
+	//the events
+	
+	private volatile Receiver<? super R> downstream;
+	
+	private volatile T item;
+	
+	private volatile boolean upstreamDone;
+	
+	private volatile Exception upstreamFailure;
+	
+	MapAsyncStream(PromiseStream<T> upstream, Function<? super T, ? extends Promise<? extends R>> mapper, int concurrency, boolean ordered) {
+		if(mapper == null) {
+			throw new NullPointerException("The mapper is empty.");
+		}
+		
+		if(concurrency < 1) {
+			throw new IllegalArgumentException("The concurrency must be positive.");
+		}
+		
+		this.upstream = upstream;
+		this.mapper = mapper;
+		this.concurrency = concurrency;
+		this.ordered = ordered;
+	}
+	
+	@Override
+	void pull(Receiver<? super R> receiver) {
+		downstream = receiver;
+		drain();
+	}
+	
+	@Override
+	public void onNext(T item) {
+		this.item = item;
+		drain();
+	}
+	
+	@Override
+	public void onComplete() {
+		upstreamDone = true;
+		drain();
+	}
+	
+	@Override
+	public void onError(Exception ex) {
+		upstreamFailure = ex;
+		drain();
+	}
+	
+	private void drain() {
+		if(wip.getAndIncrement() != 0) {
+			return;
+		}
+		
+		int missed = 1;
+		for(;;) {
+			while(step()) {
+				//until there is nothing to do
+			}
+			
+			missed = wip.addAndGet(-missed);
+			if(missed == 0) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Does one thing, returns false when there is nothing to do.
+	 */
+	private boolean step() {
+		T next = item;
+		if(next != null) {
+			item = null;
+			pulling = false;
+			start(next);
+		}
+		
+		Receiver<? super R> receiver = downstream;
+		if(receiver != null) {
+			if(failure != null) {
+				downstream = null;
+				receiver.onError(failure);
+				return true;
+			}
+			
+			Slot<R> slot = take();
+			if(slot != null) {
+				downstream = null;
+				if(slot.failure != null) {
+					failure = slot.failure;
+					receiver.onError(failure);
+				} else {
+					receiver.onNext(slot.value);
+				}
+				return true;
+			}
+			
+			if(upstreamFailure != null) {
+				failure = upstreamFailure;
+				return true;
+			}
+			
+			if(upstreamDone && window.isEmpty()) {
+				downstream = null;
+				receiver.onComplete();
+				return true;
+			}
+		}
+		
+		if(!pulling && !upstreamDone && upstreamFailure == null && failure == null && window.size() < concurrency) {
+			pulling = true;
+			upstream.pull(this);
+			return true;
+		}
+		
+		return next != null;
+	}
+	
+	private void start(T next) {
+		Slot<R> slot = new Slot<>(this);
+		window.add(slot);
+		
+		Promise<? extends R> promise;
+		try {
+			promise = mapper.apply(next);
+		} catch(RuntimeException ex) {
+			slot.accept(null, ex);
+			return;
+		}
+		
+		if(promise == null) {
+			slot.accept(null, new NullPointerException("The mapper returned no promise."));
+			return;
+		}
+		
+		//the future sees null values too, which the success callbacks skip
+		promise.toCompletableFuture().whenComplete(slot);
+	}
+	
+	private Slot<R> take() {
+		if(ordered) {
+			Slot<R> head = window.peek();
+			return head != null && head.done ? window.poll() : null;
+		}
+		
+		for(Iterator<Slot<R>> slots = window.iterator(); slots.hasNext();) {
+			Slot<R> slot = slots.next();
+			if(slot.done) {
+				slots.remove();
+				return slot;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * An item in the window.
+	 */
+	private static final class Slot<R> implements BiConsumer<R, Throwable> {
+		
+		private final MapAsyncStream<?, R> stream;
+		
+		R value;
+		
+		Exception failure;
+		
+		volatile boolean done;
+		
+		Slot(MapAsyncStream<?, R> stream) {
+			this.stream = stream;
+		}
+		
+		@Override
+		public void accept(R value, Throwable ex) {
+			if(ex != null) {
+				failure = DeferredFactory.toException(ex);
+			} else if(value == null) {
+				failure = new NullPointerException("The mapped value is null.");
+			} else {
+				this.value = value;
+			}
+			
+			done = true;
+			stream.drain();
+		}
+	}
+}
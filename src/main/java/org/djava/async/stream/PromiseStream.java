@@ -0,0 +1,574 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * A lazy asynchronous stream. The operators only describe the work, nothing is read from the 
+ * source until a terminal operation such as {@link #collect()} or {@link #reduce(Object, BiFunction)}
+ * pulls the items through, one at a time. 
+ * 
+ * <p>
+ * The asynchronous operators keep at most <tt>concurrency</tt> items in flight and read the
+ * source only as fast as the items are taken, so the memory is bounded by the concurrency 
+ * window and not by the number of the items. 
+ * </p>
+ * 
+ * <p>
+ * A stream can be consumed once. The items and the mapped values must not be null. The first
+ * failure ends the stream and rejects the promise of the terminal operation.
+ * </p>
+ *
+ * @param <T> the item type
+ */
+public abstract class PromiseStream<T> {
+	
+	PromiseStream() {
+	}
+	
+	/**
+	 * Pulls the next item. The receiver gets exactly one signal for every pull, the next pull
+	 * is allowed only after that signal.
+	 * 
+	 * @param receiver the receiver of the signal
+	 */
+	abstract void pull(Receiver<? super T> receiver);
+	
+	/**
+	 * Creates a stream of the items of an iterable. The iterator is advanced as the items are pulled.
+	 * 
+	 * @param items the items
+	 * 
+	 * @return the stream
+	 */
+	public static <T> PromiseStream<T> from(Iterable<? extends T> items) {
+		return from(items.iterator());
+	}
+	
+	/**
+	 * Creates a stream of the items of an iterator. The iterator is advanced as the items are pulled.
+	 * 
+	 * @param items the items
+	 * 
+	 * @return the stream
+	 */
+	public static <T> PromiseStream<T> from(Iterator<? extends T> items) {
+		return new IteratorStream<>(items);
+	}
+	
+	/**
+	 * Creates a stream of the items.
+	 * 
+	 * @param items the items
+	 * 
+	 * @return the stream
+	 */
+	//the list is backed by the array, the stream only reads the items from it
+	@SafeVarargs
+	@SuppressWarnings("varargs")
+	public static <T> PromiseStream<T> of(T... items) {
+		return from(Arrays.asList(items));
+	}
+	
+	/**
+	 * Maps every item synchronously.
+	 * 
+	 * @param mapper the mapper
+	 * 
+	 * @return the mapped stream
+	 */
+	public <R> PromiseStream<R> map(Function<? super T, ? extends R> mapper) {
+		return new MapStream<>(this, mapper);
+	}
+	
+	/**
+	 * Keeps the items which match the predicate.
+	 * 
+	 * @param predicate the predicate
+	 * 
+	 * @return the filtered stream
+	 */
+	public PromiseStream<T> filter(Predicate<? super T> predicate) {
+		return new FilterStream<>(this, predicate);
+	}
+	
+	/**
+	 * Maps the items asynchronously with up to <tt>concurrency</tt> mappings in flight. The mapped
+	 * values are emitted in the order of the items.
+	 * 
+	 * @param mapper starts the mapping of an item
+	 * @param concurrency the maximum number of the items in flight
+	 * 
+	 * @return the mapped stream
+	 */
+	public <R> PromiseStream<R> mapAsync(Function<? super T, ? extends Promise<? extends R>> mapper, int concurrency) {
+		return new MapAsyncStream<>(this, mapper, concurrency, true);
+	}
+	
+	/**
+	 * Maps the items asynchronously with up to <tt>concurrency</tt> mappings in flight. The mapped
+	 * values are emitted as soon as they are ready, so a slow item does not hold back the rest.
+	 * 
+	 * @param mapper starts the mapping of an item
+	 * @param concurrency the maximum number of the items in flight
+	 * 
+	 * @return the mapped stream
+	 */
+	public <R> PromiseStream<R> mapAsyncUnordered(Function<? super T, ? extends Promise<? extends R>> mapper, int concurrency) {
+		return new MapAsyncStream<>(this, mapper, concurrency, false);
+	}
+	
+	/**
+	 * Maps every item asynchronously to many values and emits them in the order of the items.
+	 * 
+	 * @param mapper starts the mapping of an item
+	 * @param concurrency the maximum number of the items in flight
+	 * 
+	 * @return the flattened stream
+	 */
+	public <R> PromiseStream<R> flatMapAsync(Function<? super T, ? extends Promise<? extends Iterable<? extends R>>> mapper, int concurrency) {
+		return new FlattenStream<R>(mapAsync(mapper, concurrency));
+	}
+	
+	/**
+	 * Maps every item asynchronously to many values and emits them as soon as they are ready.
+	 * 
+	 * @param mapper starts the mapping of an item
+	 * @param concurrency the maximum number of the items in flight
+	 * 
+	 * @return the flattened stream
+	 */
+	public <R> PromiseStream<R> flatMapAsyncUnordered(Function<? super T, ? extends Promise<? extends Iterable<? extends R>>> mapper, int concurrency) {
+		return new FlattenStream<R>(mapAsyncUnordered(mapper, concurrency));
+	}
+	
+	/**
+	 * Groups the items into lists of <tt>size</tt> items. The last list can be shorter.
+	 * 
+	 * @param size the list size
+	 * 
+	 * @return the stream of the lists
+	 */
+	public PromiseStream<List<T>> buffer(int size) {
+		if(size < 1) {
+			throw new IllegalArgumentException("The buffer size must be positive.");
+		}
+		
+		return new BufferStream<>(this, size);
+	}
+	
+	/**
+	 * Folds the items into a value.
+	 * 
+	 * @param identity the initial value
+	 * @param accumulator folds an item into the value
+	 * 
+	 * @return the promise of the folded value
+	 */
+	public <A> Promise<A> reduce(A identity, BiFunction<A, ? super T, A> accumulator) {
+		Fold<T, A> fold = new Fold<>(this, identity, accumulator);
+		fold.request();
+		return fold.deferred.promise();
+	}
+	
+	/**
+	 * Collects the items into a list.
+	 * 
+	 * @return the promise of the list
+	 */
+	public Promise<List<T>> collect() {
+		return reduce((List<T>) new ArrayList<T>(), new BiFunction<List<T>, T, List<T>>() {
+			@Override
+			public List<T> apply(List<T> list, T item) {
+				list.add(item);
+				return list;
+			}
+		});
+	}
+	
+	/**
+	 * Passes every item to the action.
+	 * 
+	 * @param action the action
+	 * 
+	 * @return the promise of the number of the items
+	 */
+	public Promise<Long> forEach(final Consumer<? super T> action) {
+		return reduce(0L, new BiFunction<Long, T, Long>() {
+			@Override
+			public Long apply(Long count, T item) {
+				action.accept(item);
+				return count + 1;
+			}
+		});
+	}
+	
+	/**
+	 * The signals of a pull.
+	 */
+	interface Receiver<T> {
+		
+		void onNext(T item);
+		
+		void onComplete();
+		
+		void onError(Exception ex);
+	}
+	
+	/**
+	 * A receiver which pulls again from its own signals. A synchronous stream signals inside
+	 * the pull, so the pulls are queued on the work-in-progress counter and run in a loop 
+	 * instead of nesting.
+	 */
+	abstract static class Loop<T> implements Receiver<T> {
+		
+		private final AtomicInteger wip = new AtomicInteger();
+		
+		abstract void step();
+		
+		final void request() {
+			if(wip.getAndIncrement() != 0) {
+				return;
+			}
+			
+			do {
+				step();
+			} while(wip.decrementAndGet() != 0);
+		}
+	}
+	
+	private static final class IteratorStream<T> extends PromiseStream<T> {
+		
+		private final Iterator<? extends T> items;
+		
+		IteratorStream(Iterator<? extends T> items) {
+			this.items = items;
+		}
+		
+		@Override
+		void pull(Receiver<? super T> receiver) {
+			T item;
+			try {
+				if(!items.hasNext()) {
+					receiver.onComplete();
+					return;
+				}
+				
+				item = items.next();
+			} catch(RuntimeException ex) {
+				receiver.onError(ex);
+				return;
+			}
+			
+			if(item == null) {
+				receiver.onError(new NullPointerException("The stream item is null."));
+				return;
+			}
+			receiver.onNext(item);
+		}
+	}
+	
+	private static final class MapStream<T, R> extends PromiseStream<R> implements Receiver<T> {
+		
+		private final PromiseStream<T> upstream;
+		
+		private final Function<? super T, ? extends R> mapper;
+		
+		private Receiver<? super R> downstream;
+		
+		MapStream(PromiseStream<T> upstream, Function<? super T, ? extends R> mapper) {
+			this.upstream = upstream;
+			this.mapper = mapper;
+		}
+		
+		@Override
+		void pull(Receiver<? super R> receiver) {
+			downstream = receiver;
+			upstream.pull(this);
+		}
+		
+		@Override
+		public void onNext(T item) {
+			R value;
+			try {
+				value = mapper.apply(item);
+			} catch(RuntimeException ex) {
+				downstream.onError(ex);
+				return;
+			}
+			
+			if(value == null) {
+				downstream.onError(new NullPointerException("The mapped value is null."));
+				return;
+			}
+			downstream.onNext(value);
+		}
+		
+		@Override
+		public void onComplete() {
+			downstream.onComplete();
+		}
+		
+		@Override
+		public void onError(Exception ex) {
+			downstream.onError(ex);
+		}
+	}
+	
+	private static final class FilterStream<T> extends PromiseStream<T> {
+		
+		private final PromiseStream<T> upstream;
+		
+		private final Predicate<? super T> predicate;
+		
+		private final Loop<T> loop = new Loop<T>() {
+			@Override
+			void step() {
+				upstream.pull(this);
+			}
+			
+			@Override
+			public void onNext(T item) {
+				boolean matches;
+				try {
+					matches = predicate.test(item);
+				} catch(RuntimeException ex) {
+					downstream.onError(ex);
+					return;
+				}
+				
+				if(matches) {
+					downstream.onNext(item);
+				} else {
+					request();
+				}
+			}
+			
+			@Override
+			public void onComplete() {
+				downstream.onComplete();
+			}
+			
+			@Override
+			public void onError(Exception ex) {
+				downstream.onError(ex);
+			}
+		};
+		
+		private Receiver<? super T> downstream;
+		
+		FilterStream(PromiseStream<T> upstream, Predicate<? super T> predicate) {
+			this.upstream = upstream;
+			this.predicate = predicate;
+		}
+		
+		@Override
+		void pull(Receiver<? super T> receiver) {
+			downstream = receiver;
+			loop.request();
+		}
+	}
+	
+	private static final class FlattenStream<T> extends PromiseStream<T> {
+		
+		private final PromiseStream<? extends Iterable<? extends T>> upstream;
+		
+		private final Loop<Iterable<? extends T>> loop = new Loop<Iterable<? extends T>>() {
+			@Override
+			void step() {
+				T item;
+				try {
+					if(current == null || !current.hasNext()) {
+						upstream.pull(this);
+						return;
+					}
+					
+					item = current.next();
+				} catch(RuntimeException ex) {
+					downstream.onError(ex);
+					return;
+				}
+				
+				if(item == null) {
+					downstream.onError(new NullPointerException("The stream item is null."));
+					return;
+				}
+				downstream.onNext(item);
+			}
+			
+			@Override
+			public void onNext(Iterable<? extends T> items) {
+				current = items.iterator();
+				request();
+			}
+			
+			@Override
+			public void onComplete() {
+				downstream.onComplete();
+			}
+			
+			@Override
+			public void onError(Exception ex) {
+				downstream.onError(ex);
+			}
+		};
+		
+		private Iterator<? extends T> current;
+		
+		private Receiver<? super T> downstream;
+		
+		FlattenStream(PromiseStream<? extends Iterable<? extends T>> upstream) {
+			this.upstream = upstream;
+		}
+		
+		@Override
+		void pull(Receiver<? super T> receiver) {
+			downstream = receiver;
+			loop.request();
+		}
+	}
+	
+	private static final class BufferStream<T> extends PromiseStream<List<T>> {
+		
+		private final PromiseStream<T> upstream;
+		
+		private final int size;
+		
+		private final Loop<T> loop = new Loop<T>() {
+			@Override
+			void step() {
+				upstream.pull(this);
+			}
+			
+			@Override
+			public void onNext(T item) {
+				if(buffer == null) {
+					buffer = new ArrayList<>(size);
+				}
+				
+				buffer.add(item);
+				if(buffer.size() < size) {
+					request();
+					return;
+				}
+				emit();
+			}
+			
+			@Override
+			public void onComplete() {
+				done = true;
+				if(buffer != null) {
+					emit();
+					return;
+				}
+				downstream.onComplete();
+			}
+			
+			@Override
+			public void onError(Exception ex) {
+				downstream.onError(ex);
+			}
+			
+			private void emit() {
+				List<T> items = buffer;
+				buffer = null;
+				downstream.onNext(items);
+			}
+		};
+		
+		private List<T> buffer;
+		
+		private boolean done;
+		
+		private Receiver<? super List<T>> downstream;
+		
+		BufferStream(PromiseStream<T> upstream, int size) {
+			this.upstream = upstream;
+			this.size = size;
+		}
+		
+		@Override
+		void pull(Receiver<? super List<T>> receiver) {
+			if(done) {
+				receiver.onComplete();
+				return;
+			}
+			
+			downstream = receiver;
+			loop.request();
+		}
+	}
+	
+	private static final class Fold<T, A> extends Loop<T> {
+		
+		private final Deferred<A> deferred = DeferredFactory.createDeferred();
+		
+		private final PromiseStream<T> upstream;
+		
+		private final BiFunction<A, ? super T, A> accumulator;
+		
+		private A accumulated;
+		
+		Fold(PromiseStream<T> upstream, A identity, BiFunction<A, ? super T, A> accumulator) {
+			if(accumulator == null) {
+				throw new NullPointerException("The accumulator is empty.");
+			}
+			
+			this.upstream = upstream;
+			this.accumulated = identity;
+			this.accumulator = accumulator;
+		}
+		
+		@Override
+		void step() {
+			upstream.pull(this);
+		}
+		
+		@Override
+		public void onNext(T item) {
+			try {
+				accumulated = accumulator.apply(accumulated, item);
+			} catch(RuntimeException ex) {
+				deferred.reject(ex);
+				return;
+			}
+			request();
+		}
+		
+		@Override
+		public void onComplete() {
+			deferred.resolve(accumulated);
+		}
+		
+		@Override
+		public void onError(Exception ex) {
+			deferred.reject(ex);
+		}
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.djava.async.Callbacks.OnFailure;
+import org.djava.async.Callbacks.OnSuccess;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * A semaphore whose waiters are promises instead of parked threads. It caps the concurrent 
+ * calls to a resource, bulkhead style, without holding a container thread while a call waits.
+ * 
+ * <p>
+ * One counter holds the available permits minus the waiters. An acquire which finds a permit 
+ * takes it with a compare-and-set and gets a fulfilled promise. Otherwise it joins the FIFO
+ * queue of the waiters, and every release hands its permit straight to the head of the queue,
+ * so a newcomer never overtakes a waiter. A waiter is counted before it is queued, so a release
+ * can find the queue empty. Then the permit is owed to the waiter and handed over by whichever
+ * of the two comes last, no thread waits for the other.
+ * </p>
+ */
+public class AsyncSemaphore {
+	
+	private final AtomicInteger state;
+	
+	private final int maxWaiters;
+	
+	private final ConcurrentLinkedQueue<Deferred<Permit>> waiters = new ConcurrentLinkedQueue<>();
+	
+	//the permits released to the counted waiters which are not handed over yet
+	private final AtomicInteger owed = new AtomicInteger();
+	
+	private final AtomicInteger handoffs = new AtomicInteger();
+	
+	/**
+	 * Creates a semaphore without a limit of the waiters.
+	 * 
+	 * @param permits the number of the permits
+	 */
+	public AsyncSemaphore(int permits) {
+		this(permits, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Creates a semaphore.
+	 * 
+	 * @param permits the number of the permits
+	 * @param maxWaiters the maximum number of the waiters, an acquire beyond it is rejected
+	 */
+	public AsyncSemaphore(int permits, int maxWaiters) {
+		if(permits < 0) {
+			throw new IllegalArgumentException("The permits can not be negative.");
+		}
+		
+		if(maxWaiters < 0) {
+			throw new IllegalArgumentException("The maximum waiters can not be negative.");
+		}
+		
+		this.state = new AtomicInteger(permits);
+		this.maxWaiters = maxWaiters;
+	}
+	
+	/**
+	 * Acquires a permit. The promise is fulfilled when a permit is available and is rejected
+	 * with a {@link RejectedExecutionException} when too many acquires wait already.
+	 * 
+	 * @return the promise of the permit
+	 */
+	public Promise<Permit> acquire() {
+		Deferred<Permit> deferred = DeferredFactory.createDeferred();
+		
+		for(;;) {
+			int current = state.get();
+			if(current <= 0 && -current >= maxWaiters) {
+				deferred.reject(new RejectedExecutionException("Too many waiters for a permit."));
+				return deferred.promise();
+			}
+			
+			if(state.compareAndSet(current, current - 1)) {
+				if(current > 0) {
+					deferred.resolve(new Permit());
+				} else {
+					waiters.offer(deferred);
+					handOff();
+				}
+				return deferred.promise();
+			}
+		}
+	}
+	
+	/**
+	 * Runs a callable on the container with a permit. The permit is released when the callable
+	 * returns, no thread waits for the permit.
+	 * 
+	 * @param callable the callable
+	 * 
+	 * @return the promise of the result of the callable
+	 */
+	public <R> Promise<R> withPermit(final Callable<R> callable) {
+		final Deferred<R> deferred = DeferredFactory.createDeferred();
+		acquire().then(new OnSuccess<Object, Permit>() {
+			@Override
+			public Object onSuccess(final Permit permit) {
+				try {
+					Deferred.when(new Callable<R>() {
+						@Override
+						public R call() throws Exception {
+							try {
+								return callable.call();
+							} finally {
+								permit.release();
+							}
+						}
+					}).toCompletableFuture().whenComplete(settle(deferred));
+				} catch(RuntimeException ex) {
+					//the container is not running
+					permit.release();
+					deferred.reject(ex);
+				}
+				return null;
+			}
+		}, reject(deferred), null);
+		return deferred.promise();
+	}
+	
+	/**
+	 * Starts an asynchronous operation with a permit. The permit is held until the promise of 
+	 * the operation is settled.
+	 * 
+	 * @param operation starts the operation, runs on the thread which releases the permit
+	 * 
+	 * @return the promise of the result of the operation
+	 */
+	public <R> Promise<R> withPermitAsync(final Callable<? extends Promise<? extends R>> operation) {
+		final Deferred<R> deferred = DeferredFactory.createDeferred();
+		acquire().then(new OnSuccess<Object, Permit>() {
+			@Override
+			public Object onSuccess(final Permit permit) {
+				Promise<? extends R> promise;
+				try {
+					promise = operation.call();
+					if(promise == null) {
+						throw new NullPointerException("The operation returned no promise.");
+					}
+				} catch(Exception ex) {
+					permit.release();
+					deferred.reject(ex);
+					return null;
+				}
+				
+				promise.toCompletableFuture().whenComplete(new BiConsumer<R, Throwable>() {
+					@Override
+					public void accept(R value, Throwable ex) {
+						permit.release();
+						settle(deferred).accept(value, ex);
+					}
+				});
+				return null;
+			}
+		}, reject(deferred), null);
+		return deferred.promise();
+	}
+	
+	/**
+	 * Gets the number of the free permits.
+	 * 
+	 * @return the number of the permits
+	 */
+	public int availablePermits() {
+		return Math.max(0, state.get());
+	}
+	
+	/**
+	 * Gets the number of the waiting acquires.
+	 * 
+	 * @return the number of the waiters
+	 */
+	public int getWaiterCount() {
+		return Math.max(0, -state.get());
+	}
+	
+	private void release() {
+		if(state.getAndIncrement() >= 0) {
+			return;
+		}
+		
+		//a waiter is counted, it may not be in the queue yet
+		owed.incrementAndGet();
+		handOff();
+	}
+	
+	/**
+	 * Hands the owed permits to the queued waiters. Called after a permit is owed and after a 
+	 * waiter is queued, so the later of the two hands the permit over. The callbacks of a waiter
+	 * often release at once, so the calls are counted and run in a loop by one thread instead 
+	 * of nesting.
+	 * 
+	 * <p>
+	 * A waiter can be cancelled by the scope of its caller. Its permit goes back to the semaphore
+	 * and is owed to the next waiter, if any.
+	 * </p>
+	 */
+	private void handOff() {
+		if(handoffs.getAndIncrement() != 0) {
+			return;
+		}
+		
+		do {
+			while(owed.get() > 0) {
+				Deferred<Permit> waiter = waiters.poll();
+				if(waiter == null) {
+					break;
+				}
+				
+				owed.decrementAndGet();
+				Permit permit = new Permit();
+				if(waiter.isPending()) {
+					try {
+						waiter.resolve(permit);
+					} catch(RuntimeException ex) {
+						//cancelled in between, or a callback of the waiter failed
+					}
+				}
+				
+				if(!waiter.isFulfilled()) {
+					//counted again by this loop, the release does not nest
+					permit.release();
+				}
+			}
+		} while(handoffs.decrementAndGet() != 0);
+	}
+	
+	private static <R> BiConsumer<R, Throwable> settle(final Deferred<R> deferred) {
+		return new BiConsumer<R, Throwable>() {
+			@Override
+			public void accept(R value, Throwable ex) {
+				if(ex == null) {
+					deferred.resolve(value);
+					return;
+				}
+				
+				deferred.reject(DeferredFactory.toException(ex));
+			}
+		};
+	}
+	
+	private static OnFailure reject(final Deferred<?> deferred) {
+		return new OnFailure() {
+			@Override
+			public void onFailure(Exception reason) {
+				deferred.reject(reason);
+			}
+		};
+	}
+	
+	/**
+	 * A permit of the semaphore. A permit is released once, the later releases do nothing.
+	 */
+	public final class Permit {
+		
+		private final AtomicBoolean released = new AtomicBoolean();
+		
+		private Permit() {
+		}
+		
+		public void release() {
+			if(released.compareAndSet(false, true)) {
+				AsyncSemaphore.this.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * The shared timer of the library. One daemon thread runs the delayed actions, such as closing
+ * a batch window or starting a hedged attempt. The actions must be short, any real work should
+ * be submitted to the {@link DeferredContainer}.
+ */
+public final class AsyncTimer {
+	
+	private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+	
+	/**
+	 * The default ticker of the utilities which measure elapsed time.
+	 */
+	static final LongSupplier NANO_TIME = new LongSupplier() {
+		@Override
+		public long getAsLong() {
+			return System.nanoTime();
+		}
+	};
+	
+	private AsyncTimer() {
+	}
+	
+	/**
+	 * Runs an action after a delay.
+	 * 
+	 * @param action the action
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * 
+	 * @return the future to cancel the action
+	 */
+	public static ScheduledFuture<?> schedule(Runnable action, long delay, TimeUnit unit) {
+		return scheduler.schedule(action, delay, unit);
+	}
+	
+	private static ScheduledThreadPoolExecutor createScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "deferred-timer");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		//cancelled actions are removed at once, a timeout which is cancelled is the common case
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * Coalesces single key loads into bulk loads. The keys are buffered until the batch is full 
+ * or its time window closes, then one bulk load of the batch runs on the {@link DeferredContainer}
+ * and its values are handed to the promises of the keys.
+ * 
+ * <p>
+ * A key which is asked for more than once in a batch is loaded once and its callers share a 
+ * promise. A key missing from the result of the bulk load gets null. A failed bulk load rejects 
+ * every promise of its batch.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BatchLoader<K, V> {
+	
+	private final BulkLoader<K, V> loader;
+	
+	private final int maxBatchSize;
+	
+	private final long window;
+	
+	private final TimeUnit unit;
+	
+	//guarded by this
+	private Batch batch;
+	
+	/**
+	 * Creates a batch loader.
+	 * 
+	 * @param loader the bulk load
+	 * @param maxBatchSize the number of the keys which closes a batch at once
+	 * @param window the time a batch waits for more keys after its first key
+	 * @param unit the unit of the window
+	 */
+	public BatchLoader(BulkLoader<K, V> loader, int maxBatchSize, long window, TimeUnit unit) {
+		if(loader == null) {
+			throw new NullPointerException("The bulk loader is empty.");
+		}
+		
+		if(maxBatchSize < 1) {
+			throw new IllegalArgumentException("The maximum batch size must be positive.");
+		}
+		
+		if(window < 0) {
+			throw new IllegalArgumentException("The window can not be negative.");
+		}
+		
+		this.loader = loader;
+		this.maxBatchSize = maxBatchSize;
+		this.window = window;
+		this.unit = unit;
+	}
+	
+	/**
+	 * Loads a key with the next batch.
+	 * 
+	 * @param key the key
+	 * 
+	 * @return the promise of the value
+	 */
+	public Promise<V> load(K key) {
+		if(key == null) {
+			throw new NullPointerException("Key is empty.");
+		}
+		
+		Batch full = null;
+		Deferred<V> deferred;
+		
+		synchronized(this) {
+			if(batch == null) {
+				batch = new Batch();
+				final Batch scheduled = batch;
+				batch.timer = AsyncTimer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						dispatch(scheduled);
+					}
+				}, window, unit);
+			}
+			
+			deferred = batch.keys.get(key);
+			if(deferred == null) {
+				deferred = DeferredFactory.createDeferred();
+				batch.keys.put(key, deferred);
+			}
+			
+			if(batch.keys.size() >= maxBatchSize) {
+				full = batch;
+				batch = null;
+			}
+		}
+		
+		if(full != null) {
+			full.timer.cancel(false);
+			full.submit();
+		}
+		return deferred.promise();
+	}
+	
+	/**
+	 * Loads a few keys with the next batches.
+	 * 
+	 * @param keys the keys
+	 * 
+	 * @return the promise of the values in the order of the keys, null for the missing keys
+	 */
+	public Promise<List<V>> loadMany(Collection<? extends K> keys) {
+		//a generic array can not be created, the array only ever holds CompletableFuture<V> instances
+		@SuppressWarnings("unchecked")
+		final CompletableFuture<V>[] futures = (CompletableFuture<V>[]) new CompletableFuture<?>[keys.size()];
+		int i = 0;
+		for(K key : keys) {
+			//a missing key completes its future with null, so the list keeps its place
+			futures[i++] = load(key).toCompletableFuture();
+		}
+		
+		return DeferredFactory.from(CompletableFuture.allOf(futures).thenApply(new Function<Void, List<V>>() {
+			@Override
+			public List<V> apply(Void ignored) {
+				List<V> values = new ArrayList<>(futures.length);
+				for(CompletableFuture<V> future : futures) {
+					values.add(future.join());
+				}
+				return values;
+			}
+		}));
+	}
+	
+	/**
+	 * Closes the current batch without waiting for its window.
+	 */
+	public void dispatch() {
+		Batch current;
+		synchronized(this) {
+			current = batch;
+			batch = null;
+		}
+		
+		if(current != null) {
+			current.timer.cancel(false);
+			current.submit();
+		}
+	}
+	
+	private void dispatch(Batch scheduled) {
+		synchronized(this) {
+			if(batch != scheduled) {
+				//closed by its size in between
+				return;
+			}
+			batch = null;
+		}
+		
+		scheduled.submit();
+	}
+	
+	/**
+	 * The bulk load.
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	@FunctionalInterface
+	public static interface BulkLoader<K, V> {
+		
+		/**
+		 * Loads the values of the keys. Runs on a container thread.
+		 * 
+		 * @param keys the distinct keys of a batch
+		 * 
+		 * @return the values by their keys
+		 * 
+		 * @throws Exception to reject every key of the batch
+		 */
+		Map<K, V> loadAll(Set<K> keys) throws Exception;
+	}
+	
+	/**
+	 * The keys of a batch and their deferreds.
+	 */
+	private final class Batch implements Callable<Object> {
+		
+		final LinkedHashMap<K, Deferred<V>> keys = new LinkedHashMap<>();
+		
+		ScheduledFuture<?> timer;
+		
+		void submit() {
+			try {
+				Deferred.when(this);
+			} catch(RuntimeException ex) {
+				//the container is not running
+				reject(ex);
+			}
+		}
+		
+		@Override
+		public Object call() {
+			Map<K, V> values;
+			try {
+				values = loader.loadAll(Collections.unmodifiableSet(keys.keySet()));
+				if(values == null) {
+					values = Collections.emptyMap();
+				}
+			} catch(Exception ex) {
+				reject(ex);
+				return null;
+			}
+			
+			for(Map.Entry<K, Deferred<V>> entry : keys.entrySet()) {
+				Deferred<V> deferred = entry.getValue();
+				if(deferred.isPending()) {
+					try {
+						deferred.resolve(values.get(entry.getKey()));
+					} catch(RuntimeException ex) {
+						//cancelled by the scope of its caller in between
+					}
+				}
+			}
+			return null;
+		}
+		
+		/**
+		 * Rejects the keys. A key cancelled by the scope of its caller is skipped, so it does not
+		 * strand the other keys of the batch.
+		 */
+		private void reject(Exception ex) {
+			for(Deferred<V> deferred : keys.values()) {
+				if(deferred.isPending()) {
+					try {
+						deferred.reject(ex);
+					} catch(RuntimeException cancelled) {
+						//cancelled by the scope of its caller in between
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * A circuit breaker for callables and promise returning operations. The breaker records the
+ * outcome of the last calls in a lock-free sliding window and opens when the failure rate or 
+ * the slow call rate reaches its threshold. An open breaker returns an already rejected promise
+ * without submitting anything, so a broken dependency holds no container thread. After the open
+ * duration the breaker lets a few probe calls through, closes if they all succeed and opens 
+ * again if one of them fails or is slow.
+ * 
+ * <p>
+ * The outcome of a call is recorded against the phase in which the call was permitted, so a
+ * late result of a call from before a transition does not count as a probe.
+ * </p>
+ */
+public class CircuitBreaker {
+	
+	public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+	
+	private static final int SUCCESS = 1;
+	
+	private static final int FAILURE = 2;
+	
+	private static final int SLOW = 4;
+	
+	/**
+	 * The states of a breaker.
+	 */
+	public static enum State {
+		/**
+		 * The calls are permitted and recorded.
+		 */
+		CLOSED,
+		
+		/**
+		 * The calls are rejected.
+		 */
+		OPEN,
+		
+		/**
+		 * Only the probe calls are permitted.
+		 */
+		HALF_OPEN;
+	}
+	
+	private final double failureRateThreshold;
+	
+	private final double slowCallRateThreshold;
+	
+	private final long slowCallDuration;
+	
+	private final int windowSize;
+	
+	private final int minimumCalls;
+	
+	private final long openDuration;
+	
+	private final int halfOpenCalls;
+	
+	private final LongSupplier ticker;
+	
+	private final AtomicReference<Phase> phase;
+	
+	/**
+	 * Creates a breaker which opens on failures only. The breaker decides after a full window
+	 * and lets {@link #DEFAULT_HALF_OPEN_CALLS} probe calls through when half-open.
+	 * 
+	 * @param failureRateThreshold the failure rate, from 0 to 1, that opens the breaker
+	 * @param windowSize the number of the last calls to record
+	 * @param openDuration the time to stay open
+	 * @param unit the unit of the open duration
+	 */
+	public CircuitBreaker(double failureRateThreshold, int windowSize, long openDuration, TimeUnit unit) {
+		this(failureRateThreshold, 1.0, Long.MAX_VALUE, windowSize, windowSize, 
+				unit.toNanos(openDuration), DEFAULT_HALF_OPEN_CALLS, AsyncTimer.NANO_TIME);
+	}
+	
+	/**
+	 * Creates a breaker.
+	 * 
+	 * @param failureRateThreshold the failure rate, from 0 to 1, that opens the breaker
+	 * @param slowCallRateThreshold the slow call rate, from 0 to 1, that opens the breaker
+	 * @param slowCallDuration the duration from which a call is slow
+	 * @param windowSize the number of the last calls to record
+	 * @param minimumCalls the number of the calls to record before the rates are checked
+	 * @param openDuration the time to stay open
+	 * @param halfOpenCalls the number of the probe calls when half-open
+	 * @param unit the unit of the durations
+	 */
+	public CircuitBreaker(double failureRateThreshold, double slowCallRateThreshold, long slowCallDuration, 
+			int windowSize, int minimumCalls, long openDuration, int halfOpenCalls, TimeUnit unit) {
+		this(failureRateThreshold, slowCallRateThreshold, unit.toNanos(slowCallDuration), windowSize, 
+				minimumCalls, unit.toNanos(openDuration), halfOpenCalls, AsyncTimer.NANO_TIME);
+	}
+	
+	CircuitBreaker(double failureRateThreshold, double slowCallRateThreshold, long slowCallDuration, 
+			int windowSize, int minimumCalls, long openDuration, int halfOpenCalls, LongSupplier ticker) {
+		if(!(failureRateThreshold > 0 && failureRateThreshold <= 1) 
+				|| !(slowCallRateThreshold > 0 && slowCallRateThreshold <= 1)) {
+			throw new IllegalArgumentException("The thresholds must be greater than 0 and at most 1.");
+		}
+		
+		if(windowSize < 1 || minimumCalls < 1 || minimumCalls > windowSize) {
+			throw new IllegalArgumentException("The minimum calls must be from 1 to the window size.");
+		}
+		
+		if(openDuration < 0 || slowCallDuration < 0 || halfOpenCalls < 1) {
+			throw new IllegalArgumentException("The durations can not be negative and the probe calls must be positive.");
+		}
+		
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallDuration = slowCallDuration;
+		this.windowSize = windowSize;
+		this.minimumCalls = minimumCalls;
+		this.openDuration = openDuration;
+		this.halfOpenCalls = halfOpenCalls;
+		this.ticker = ticker;
+		this.phase = new AtomicReference<>(new Phase(State.CLOSED, 0));
+	}
+	
+	/**
+	 * Submits a callable to the container if the breaker permits. 
+	 * 
+	 * @param callable the callable
+	 * 
+	 * @return the promise of the result of the callable, or a promise rejected by a 
+	 * {@link RejectedExecutionException} if the breaker is open
+	 */
+	public <R> Promise<R> execute(Callable<R> callable) {
+		Phase permitted = acquirePermission();
+		if(permitted == null) {
+			return rejected();
+		}
+		
+		Call<R> call = new Call<>(permitted);
+		try {
+			Deferred.when(callable).toCompletableFuture().whenComplete(call);
+		} catch(RuntimeException ex) {
+			//the container is not running
+			call.accept(null, ex);
+		}
+		return call.deferred.promise();
+	}
+	
+	/**
+	 * Starts an asynchronous operation if the breaker permits. The operation is called on the
+	 * calling thread and its promise is recorded when it settles.
+	 * 
+	 * @param operation the operation
+	 * 
+	 * @return the promise of the operation, or a promise rejected by a 
+	 * {@link RejectedExecutionException} if the breaker is open
+	 */
+	public <R> Promise<R> executeAsync(Callable<? extends Promise<R>> operation) {
+		Phase permitted = acquirePermission();
+		if(permitted == null) {
+			return rejected();
+		}
+		
+		Call<R> call = new Call<>(permitted);
+		try {
+			Promise<R> promise = operation.call();
+			if(promise == null) {
+				throw new NullPointerException("The operation returned no promise.");
+			}
+			promise.toCompletableFuture().whenComplete(call);
+		} catch(Exception ex) {
+			call.accept(null, ex);
+		}
+		return call.deferred.promise();
+	}
+	
+	/**
+	 * Gets the state. An open breaker reports {@link State#OPEN} until a call after the open 
+	 * duration moves it to half-open.
+	 * 
+	 * @return the state
+	 */
+	public State getState() {
+		return phase.get().state;
+	}
+	
+	private <R> Promise<R> rejected() {
+		Deferred<R> deferred = DeferredFactory.createDeferred();
+		deferred.reject(new RejectedExecutionException("The circuit breaker is open."));
+		return deferred.promise();
+	}
+	
+	/**
+	 * Gets the permission for a call.
+	 * 
+	 * @return the phase which permits the call, or null if the call is not permitted
+	 */
+	private Phase acquirePermission() {
+		for(;;) {
+			Phase current = phase.get();
+			switch(current.state) {
+			case CLOSED:
+				return current;
+			case OPEN:
+				if(ticker.getAsLong() - current.openedAt < openDuration) {
+					return null;
+				}
+				phase.compareAndSet(current, new Phase(State.HALF_OPEN, 0));
+				break;
+			default:
+				for(int probes = current.probes.get(); probes > 0; probes = current.probes.get()) {
+					if(current.probes.compareAndSet(probes, probes - 1)) {
+						return current;
+					}
+				}
+				return null;
+			}
+		}
+	}
+	
+	private void onResult(Phase permitted, long duration, boolean failed) {
+		if(phase.get() != permitted) {
+			return;
+		}
+		
+		boolean slow = duration >= slowCallDuration;
+		if(permitted.state == State.HALF_OPEN) {
+			if(failed || slow) {
+				open(permitted);
+			} else if(permitted.successes.incrementAndGet() == halfOpenCalls) {
+				phase.compareAndSet(permitted, new Phase(State.CLOSED, 0));
+			}
+			return;
+		}
+		
+		Window window = permitted.window;
+		window.record(SUCCESS | (failed ? FAILURE : 0) | (slow ? SLOW : 0));
+		
+		int calls = window.calls.get();
+		if(calls >= minimumCalls 
+				&& (window.failures.get() >= failureRateThreshold * calls 
+						|| window.slowCalls.get() >= slowCallRateThreshold * calls)) {
+			open(permitted);
+		}
+	}
+	
+	private void open(Phase current) {
+		phase.compareAndSet(current, new Phase(State.OPEN, ticker.getAsLong()));
+	}
+	
+	/**
+	 * A phase of the breaker. A transition replaces the phase.
+	 */
+	private class Phase {
+		
+		final State state;
+		
+		final long openedAt;
+		
+		final Window window;
+		
+		final AtomicInteger probes;
+		
+		final AtomicInteger successes;
+		
+		Phase(State state, long openedAt) {
+			this.state = state;
+			this.openedAt = openedAt;
+			this.window = state == State.CLOSED ? new Window(windowSize) : null;
+			this.probes = state == State.HALF_OPEN ? new AtomicInteger(halfOpenCalls) : null;
+			this.successes = state == State.HALF_OPEN ? new AtomicInteger() : null;
+		}
+	}
+	
+	/**
+	 * A ring of the outcomes of the last calls with running counts. A record replaces the
+	 * oldest outcome and adjusts the counts by the difference. The counts are not read 
+	 * atomically together, a rate may be off by the records in progress.
+	 */
+	private static class Window {
+		
+		final AtomicIntegerArray outcomes;
+		
+		final AtomicInteger cursor = new AtomicInteger();
+		
+		final AtomicInteger calls = new AtomicInteger();
+		
+		final AtomicInteger failures = new AtomicInteger();
+		
+		final AtomicInteger slowCalls = new AtomicInteger();
+		
+		Window(int size) {
+			outcomes = new AtomicIntegerArray(size);
+		}
+		
+		void record(int outcome) {
+			int index = (cursor.getAndIncrement() & Integer.MAX_VALUE) % outcomes.length();
+			int old = outcomes.getAndSet(index, outcome);
+			
+			if(old == 0) {
+				calls.incrementAndGet();
+			}
+			
+			int failure = (outcome & FAILURE) - (old & FAILURE);
+			if(failure != 0) {
+				failures.addAndGet(failure / FAILURE);
+			}
+			
+			int slow = (outcome & SLOW) - (old & SLOW);
+			if(slow != 0) {
+				slowCalls.addAndGet(slow / SLOW);
+			}
+		}
+	}
+	
+	/**
+	 * Records a permitted call and settles its promise.
+	 */
+	private class Call<R> implements BiConsumer<R, Throwable> {
+		
+		final Phase permitted;
+		
+		final long start;
+		
+		final Deferred<R> deferred = DeferredFactory.createDeferred();
+		
+		Call(Phase permitted) {
+			this.permitted = permitted;
+			this.start = ticker.getAsLong();
+		}
+		
+		@Override
+		public void accept(R value, Throwable ex) {
+			onResult(permitted, ticker.getAsLong() - start, ex != null);
+			
+			if(ex == null) {
+				deferred.resolve(value);
+				return;
+			}
+			
+			deferred.reject(DeferredFactory.toException(ex));
+		}
+	}
+}
@@ -16,17 +16,27 @@
 package org.djava.async.util;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.djava.async.Deferred;
 import org.djava.async.DeferredFactory;
 import org.djava.async.Promise;
+import org.djava.async.PromiseListener;
+import org.djava.async.PromiseListeners;
+import org.djava.async.PromiseScope;
+import org.djava.async.jfr.JfrEvents;
+import org.djava.async.metrics.ContainerMetrics;
 
 /**
  * A <tt>micro container</tt> for executing deferred tasks. Use the factory
@@ -37,14 +47,18 @@ import org.djava.async.Promise;
  */
 public class DeferredContainer {
 	
+	private static final AtomicInteger containerNumber = new AtomicInteger(1);
+	
 	private ThreadPoolExecutor executor;
 	private static DeferredContainer container;
 	
+	private final ConcurrentHashMap<Object, SerialTaskQueue> keyedQueues = new ConcurrentHashMap<>();
+	private final String name;
+	private final ContainerMetrics metrics;
+	private final CopyOnWriteArrayList<PromiseListener> listeners = new CopyOnWriteArrayList<>();
+	
 	private DeferredContainer() {
-		int availableProcessors = Runtime.getRuntime().availableProcessors();
-		int threadPoolSize = availableProcessors*2;
-		executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS,  
-						new LinkedBlockingQueue<Runnable>(), new DeferredContainerThreadFactory());
+		this(Runtime.getRuntime().availableProcessors()*2);
 	}
 	
 	private DeferredContainer(int threadPoolSize) {
@@ -54,6 +68,9 @@ public class DeferredContainer {
 	
 	private DeferredContainer(ThreadPoolExecutor executor) {
 		this.executor = executor;
+		this.name = "deferred-container-" + containerNumber.getAndIncrement();
+		this.metrics = new ContainerMetrics(executor);
+		this.metrics.register(name);
 	}
 	
 	/**
@@ -100,9 +117,45 @@ public class DeferredContainer {
 	 */
 	public synchronized void stop() {
 		executor.shutdown();
+		metrics.unregister();
 		container = null;
 	}
 	
+	/**
+	 * Adds a listener which receives the events of the promises of the tasks submitted
+	 * to this container and the promises chained to them.
+	 * 
+	 * @see PromiseListeners
+	 * 
+	 * @param listener the listener
+	 */
+	public void addListener(PromiseListener listener) {
+		if(!PromiseListeners.isEnabled()) {
+			throw new IllegalStateException("Promise listeners are not enabled. Set the " 
+					+ PromiseListeners.ENABLED_PROPERTY + " system property to true.");
+		}
+		listeners.add(listener);
+	}
+	
+	public void removeListener(PromiseListener listener) {
+		listeners.remove(listener);
+	}
+	
+	private void attachListeners(RunnableDeffered<?> runnable) {
+		if(PromiseListeners.isEnabled() && !listeners.isEmpty()) {
+			PromiseListeners.attach(runnable.promise(), listeners.toArray(new PromiseListener[0]));
+		}
+	}
+	
+	/**
+	 * Gets the metrics of the container.
+	 * 
+	 * @return the metrics
+	 */
+	public ContainerMetrics getMetrics() {
+		return metrics;
+	}
+	
 	/**
 	 * Main method to submit a task to the executor. The container should be running before
 	 * submitting any task.
@@ -111,15 +164,92 @@ public class DeferredContainer {
 	 * @return future that can be used to further control the task
 	 */
 	private <R> Future<?> submit(RunnableDeffered<R> runnable) {
+		checkRunning();
+		
+		attachListeners(runnable);
+		runnable.container = this;
+		runnable.enqueuedAt = System.nanoTime();
+		metrics.taskSubmitted();
+		if(JfrEvents.ENABLED) {
+			JfrEvents.taskQueued(name, runnable.getClass(), executor.getQueue());
+		}
+		try {
+			return executor.submit(runnable);
+		} catch (RejectedExecutionException ex) {
+			metrics.taskRejected();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Submits a callable which is ordered by a key. Tasks of the same key are executed one
+	 * after another in submission order, tasks of different keys are executed in parallel.
+	 * 
+	 * <p>
+	 * No thread is held while a key waits for its next task. Each key has its own lock-free
+	 * queue which is removed as soon as the key becomes idle, so only the active keys are kept
+	 * in memory.
+	 * </p>
+	 * 
+	 * @param key the ordering key, must not be null
+	 * @param callable the callable
+	 * 
+	 * @return the promise of the task
+	 */
+	public <R> Promise<R> submit(Object key, Callable<R> callable) {
+		if(key == null) {
+			throw new NullPointerException("Key is empty.");
+		}
+		
+		checkRunning();
+		
+		DeferredTask<R> task = new DeferredTask<>(callable);
+		attachListeners(task);
+		task.container = this;
+		task.enqueuedAt = System.nanoTime();
+		metrics.taskSubmitted();
+		if(JfrEvents.ENABLED) {
+			JfrEvents.taskQueued(name, callable.getClass(), executor.getQueue());
+		}
+		
+		while(true) {
+			SerialTaskQueue queue = keyedQueues.get(key);
+			if(queue == null) {
+				SerialTaskQueue newQueue = new SerialTaskQueue(key);
+				queue = keyedQueues.putIfAbsent(key, newQueue);
+				if(queue == null) {
+					queue = newQueue;
+				}
+			}
+			
+			if(queue.enqueue(task)) {
+				return task.promise();
+			}
+			
+			//the queue is evicted in between, help to remove it and retry
+			keyedQueues.remove(key, queue);
+		}
+	}
+	
+	/**
+	 * Gets the number of keys which have pending or running tasks.
+	 * 
+	 * @return the number of active keys
+	 */
+	public int activeKeyCount() {
+		return keyedQueues.size();
+	}
+	
+	private void checkRunning() {
 		if(executor.isShutdown()) {
+			metrics.taskRejected();
 			throw new RuntimeException("The task can not be submitted. The container is not running.");
 		}
 		
 		if(executor.isTerminating()) {
+			metrics.taskRejected();
 			throw new RuntimeException("The task can not be submitted. The container is terminating.");
 		}
-		
-		return executor.submit(runnable);
 	}
 	
 	/**
@@ -144,8 +274,25 @@ public class DeferredContainer {
 	public static abstract class RunnableDeffered<R> implements Runnable {
 		
 		private Deferred<R> deferred = DeferredFactory.createDeferred();
-		private Future<?> future = null;
-		private boolean submitted = false;
+		private volatile Future<?> future = null;
+		private volatile boolean submitted = false;
+		
+		/**
+		 * The container and the time of the submission.
+		 */
+		DeferredContainer container;
+		long enqueuedAt;
+		
+		/**
+		 * The scope which is current when the task is created.
+		 */
+		final PromiseScope scope = PromiseScope.current();
+		
+		public RunnableDeffered() {
+			if(scope != null) {
+				scope.track(this);
+			}
+		}
 
 		@Override
 		public abstract void run();
@@ -159,11 +306,12 @@ public class DeferredContainer {
 		}
 		
 		public boolean cancel(boolean cancelRunningTask) {
-			if(!isSubmitted()) {
+			Future<?> current = future;
+			if(!isSubmitted() || current == null) {
 				return true;
 			}
 			
-			future.cancel(cancelRunningTask);
+			current.cancel(cancelRunningTask);
 			future = null;
 			
 			submitted = false;
@@ -207,20 +355,153 @@ public class DeferredContainer {
 		 */
 		@Override
 		public void run() {
+			if(!deferred().isPending()) {
+				//cancelled before started
+				return;
+			}
+			
+			Object event = JfrEvents.ENABLED ? JfrEvents.taskStarted() : null;
+			long startedAt = System.nanoTime();
+			R result = null;
+			Exception failure = null;
+			
+			PromiseScope previous = scope != null ? scope.enter() : null;
 			try {
 				if(callable == null) {
-					deferred().reject(new NullPointerException("Callable is empty."));
+					throw new NullPointerException("Callable is empty.");
 				}
 				
-				R result = callable.call();
-				deferred().resolve(result);
+				result = callable.call();
 			} catch (Exception ex) {
-				deferred().reject(ex);
+				failure = ex;
+			} finally {
+				if(scope != null) {
+					PromiseScope.restore(previous);
+				}
+			}
+			
+			if(container != null) {
+				container.metrics.taskFinished(enqueuedAt, startedAt, System.nanoTime(), failure != null);
+			}
+			
+			if(event != null) {
+				JfrEvents.taskFinished(event, container != null ? container.name : null, 
+						callable != null ? callable.getClass() : null, startedAt - enqueuedAt, failure != null);
+			}
+			
+			if(!deferred().isPending()) {
+				//cancelled while running
+				return;
+			}
+			
+			if(failure != null) {
+				deferred().reject(failure);
+			} else {
+				try {
+					deferred().resolve(result);
+				} catch (Exception ex) {
+					deferred().reject(ex);
+				}
+			}
+			
+			if(container != null) {
+				//the callbacks are notified synchronously, so the promise is settled by now
+				container.metrics.taskSettled(enqueuedAt, System.nanoTime());
 			}
 		}
 		
 	}
 	
+	/**
+	 * The serial queue of a key. 
+	 * 
+	 * <p>
+	 * The <tt>count</tt> is the number of reserved tasks which are not finished yet. A submitter
+	 * reserves its place with a compare-and-set before it offers the task, so a task is offered
+	 * only to a live queue and is never offered twice. The <tt>scheduled</tt> flag keeps one 
+	 * runner at a time: a submitter schedules the runner after its offer, and the runner clears 
+	 * the flag after every task and schedules itself again while tasks are waiting. When the 
+	 * count drops to zero every reserved task is finished, the queue marks itself dead (-1) and 
+	 * removes itself from the container; a submitter which finds a dead queue retries with a 
+	 * new one.
+	 * </p>
+	 *
+	 */
+	private class SerialTaskQueue implements Runnable {
+		
+		private final Object key;
+		private final ConcurrentLinkedQueue<DeferredTask<?>> tasks = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger count = new AtomicInteger(0);
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		
+		SerialTaskQueue(Object key) {
+			this.key = key;
+		}
+		
+		boolean enqueue(DeferredTask<?> task) {
+			while(true) {
+				int current = count.get();
+				if(current < 0) {
+					//dead, the task is not offered and can be retried
+					return false;
+				}
+				
+				if(count.compareAndSet(current, current + 1)) {
+					break;
+				}
+			}
+			
+			tasks.offer(task);
+			schedule();
+			
+			if(count.get() < 0 && tasks.remove(task)) {
+				//the executor refused the runner while the task was offered
+				metrics.taskRejected();
+				task.deferred().reject(new RuntimeException("The task can not be submitted. The container is not running."));
+			}
+			return true;
+		}
+		
+		private void schedule() {
+			if(tasks.isEmpty() || !scheduled.compareAndSet(false, true)) {
+				return;
+			}
+			
+			try {
+				executor.execute(this);
+			} catch (RuntimeException ex) {
+				//the executor is gone, the remaining tasks can not be executed anymore
+				count.set(-1);
+				keyedQueues.remove(key, this);
+				DeferredTask<?> task;
+				while((task = tasks.poll()) != null) {
+					metrics.taskRejected();
+					task.deferred().reject(ex);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			DeferredTask<?> task = tasks.poll();
+			try {
+				if(task != null) {
+					task.run();
+				}
+			} finally {
+				int remaining = task != null ? count.decrementAndGet() : count.get();
+				scheduled.set(false);
+				
+				if(remaining == 0 && count.compareAndSet(0, -1)) {
+					keyedQueues.remove(key, this);
+				} else {
+					//a reserved task which is not offered yet schedules itself
+					schedule();
+				}
+			}
+		}
+	}
+	
 	/**
 	 * The container thread factory for creating new threads. 
 	 *
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+
+/**
+ * An asynchronous loading cache. Concurrent callers of the same key share one load, so a 
+ * missing key is loaded once however many callers ask for it at the same time.
+ * 
+ * <p>
+ * The fulfilled values are kept up to about <tt>maximumSize</tt> entries, the least recently 
+ * used entries are evicted first. A rejected load is not kept, the next caller loads again.
+ * A value can expire a fixed time after it is loaded, and can be refreshed ahead of that: the
+ * first caller after the refresh time starts a reload in the background and every caller keeps
+ * getting the old value until the new one arrives.
+ * </p>
+ * 
+ * <p>
+ * The entries are split over stripes by the key hash, every stripe is a small LRU map with its
+ * own lock, so the lookups of different keys rarely wait for each other. The loads in flight are
+ * kept in a concurrent map.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class PromiseCache<K, V> {
+	
+	private static final int MIN_STRIPE_CAPACITY = 16;
+	
+	private final Function<? super K, ? extends Promise<? extends V>> loader;
+	
+	private final long expireAfterWrite;
+	
+	private final long refreshAfterWrite;
+	
+	private final LongSupplier ticker;
+	
+	private final Stripe<K, V>[] stripes;
+	
+	private final ConcurrentHashMap<K, Deferred<V>> loading = new ConcurrentHashMap<>();
+	
+	/**
+	 * Creates a cache whose values do not expire.
+	 * 
+	 * @param loader starts the load of a key
+	 * @param maximumSize the maximum number of the values to keep
+	 */
+	public PromiseCache(Function<? super K, ? extends Promise<? extends V>> loader, int maximumSize) {
+		this(loader, maximumSize, 0, 0, TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Creates a cache.
+	 * 
+	 * @param loader starts the load of a key
+	 * @param maximumSize the maximum number of the values to keep
+	 * @param expireAfterWrite the time a value is kept after it is loaded, zero to keep it until evicted
+	 * @param refreshAfterWrite the time after which a value is reloaded in the background, zero not to refresh
+	 * @param unit the unit of the times
+	 */
+	public PromiseCache(Function<? super K, ? extends Promise<? extends V>> loader, int maximumSize, 
+			long expireAfterWrite, long refreshAfterWrite, TimeUnit unit) {
+		this(loader, maximumSize, unit.toNanos(expireAfterWrite), unit.toNanos(refreshAfterWrite), AsyncTimer.NANO_TIME);
+	}
+	
+	PromiseCache(Function<? super K, ? extends Promise<? extends V>> loader, int maximumSize, 
+			long expireAfterWrite, long refreshAfterWrite, LongSupplier ticker) {
+		if(loader == null) {
+			throw new NullPointerException("The loader is empty.");
+		}
+		
+		if(maximumSize < 1) {
+			throw new IllegalArgumentException("The maximum size must be positive.");
+		}
+		
+		if(expireAfterWrite < 0 || refreshAfterWrite < 0) {
+			throw new IllegalArgumentException("The expiry and the refresh times can not be negative.");
+		}
+		
+		this.loader = loader;
+		this.expireAfterWrite = expireAfterWrite;
+		this.refreshAfterWrite = refreshAfterWrite;
+		this.ticker = ticker;
+		
+		//a few stripes per processor, but not so many that a stripe is too small to be an LRU
+		int count = Math.min(Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1, 
+				Integer.highestOneBit(Math.max(1, maximumSize / MIN_STRIPE_CAPACITY)));
+		int capacity = (maximumSize + count - 1) / count;
+		
+		//a generic array can not be created, the array only ever holds Stripe<K, V> instances
+		@SuppressWarnings("unchecked")
+		Stripe<K, V>[] stripes = (Stripe<K, V>[]) new Stripe<?, ?>[count];
+		for(int i = 0; i < count; i++) {
+			stripes[i] = new Stripe<>(capacity);
+		}
+		this.stripes = stripes;
+	}
+	
+	/**
+	 * Gets the value of a key. A kept value is returned at once, otherwise the load in flight
+	 * is joined or a new load is started.
+	 * 
+	 * @param key the key
+	 * 
+	 * @return the promise of the value
+	 */
+	public Promise<V> get(K key) {
+		if(key == null) {
+			throw new NullPointerException("Key is empty.");
+		}
+		
+		Stripe<K, V> stripe = stripe(key);
+		long now = ticker.getAsLong();
+		boolean refresh = false;
+		
+		CachedValue<V> entry;
+		synchronized(stripe) {
+			entry = stripe.get(key);
+			if(entry != null && expireAfterWrite > 0 && now - entry.loadedAt >= expireAfterWrite) {
+				stripe.remove(key);
+				entry = null;
+			}
+			
+			if(entry != null && refreshAfterWrite > 0 && !entry.refreshing && now - entry.loadedAt >= refreshAfterWrite) {
+				entry.refreshing = true;
+				refresh = true;
+			}
+		}
+		
+		if(entry == null) {
+			return load(key);
+		}
+		
+		if(refresh) {
+			refresh(key, entry);
+		}
+		return entry.promise;
+	}
+	
+	/**
+	 * Removes the value of a key. A load in flight is not cancelled, its value is kept when it arrives.
+	 * 
+	 * @param key the key
+	 */
+	public void invalidate(K key) {
+		Stripe<K, V> stripe = stripe(key);
+		synchronized(stripe) {
+			stripe.remove(key);
+		}
+	}
+	
+	/**
+	 * Removes all the values.
+	 */
+	public void invalidateAll() {
+		for(Stripe<K, V> stripe : stripes) {
+			synchronized(stripe) {
+				stripe.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of the kept values, including the expired values which are not removed yet.
+	 * 
+	 * @return the number of the values
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe<K, V> stripe : stripes) {
+			synchronized(stripe) {
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+	
+	private Stripe<K, V> stripe(Object key) {
+		int hash = key.hashCode();
+		return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+	}
+	
+	private Promise<V> load(final K key) {
+		Deferred<V> current = loading.get(key);
+		if(current != null) {
+			return current.promise();
+		}
+		
+		final Deferred<V> deferred = DeferredFactory.createDeferred();
+		current = loading.putIfAbsent(key, deferred);
+		if(current != null) {
+			//the unused deferred is tracked by the scope of the caller, if any
+			deferred.resolve(null);
+			return current.promise();
+		}
+		
+		//a load may have finished between the lookup and the claim
+		Stripe<K, V> stripe = stripe(key);
+		CachedValue<V> entry;
+		synchronized(stripe) {
+			entry = stripe.get(key);
+		}
+		
+		if(entry != null) {
+			loading.remove(key, deferred);
+			//callers may have joined the claim meanwhile
+			deferred.resolve(entry.promise.<V>getResult());
+			return entry.promise;
+		}
+		
+		start(key, new BiConsumer<V, Throwable>() {
+			@Override
+			public void accept(V value, Throwable ex) {
+				loading.remove(key, deferred);
+				
+				//the shared deferred is cancelled when the scope of the first caller is closed
+				if(ex != null) {
+					if(deferred.isPending()) {
+						deferred.reject(DeferredFactory.toException(ex));
+					}
+					return;
+				}
+				
+				if(value != null) {
+					store(key, new CachedValue<>(fulfilled(value), ticker.getAsLong()));
+				}
+				if(deferred.isPending()) {
+					deferred.resolve(value);
+				}
+			}
+		});
+		return deferred.promise();
+	}
+	
+	private void refresh(final K key, final CachedValue<V> entry) {
+		start(key, new BiConsumer<V, Throwable>() {
+			@Override
+			public void accept(V value, Throwable ex) {
+				Stripe<K, V> stripe = stripe(key);
+				
+				if(ex != null) {
+					//keep the old value until it expires, the next caller retries
+					synchronized(stripe) {
+						entry.refreshing = false;
+					}
+					return;
+				}
+				
+				if(value == null) {
+					synchronized(stripe) {
+						stripe.remove(key, entry);
+					}
+					return;
+				}
+				
+				CachedValue<V> refreshed = new CachedValue<>(fulfilled(value), ticker.getAsLong());
+				synchronized(stripe) {
+					stripe.replace(key, entry, refreshed);
+				}
+			}
+		});
+	}
+	
+	private void start(K key, BiConsumer<V, Throwable> completion) {
+		Promise<? extends V> promise;
+		try {
+			promise = loader.apply(key);
+			if(promise == null) {
+				throw new NullPointerException("The loader returned no promise.");
+			}
+		} catch(RuntimeException ex) {
+			completion.accept(null, ex);
+			return;
+		}
+		
+		//the future sees null values too, which the success callbacks skip
+		promise.toCompletableFuture().whenComplete(completion);
+	}
+	
+	/**
+	 * Creates the promise of a kept value. A fulfilled promise can not be cancelled by a scope.
+	 */
+	private static <V> Promise<V> fulfilled(V value) {
+		Deferred<V> deferred = DeferredFactory.createDeferred();
+		deferred.resolve(value);
+		return deferred.promise();
+	}
+	
+	private void store(K key, CachedValue<V> entry) {
+		Stripe<K, V> stripe = stripe(key);
+		synchronized(stripe) {
+			stripe.put(key, entry);
+		}
+	}
+	
+	/**
+	 * A kept value. The promise is fulfilled, so the callers get the value at once.
+	 */
+	private static final class CachedValue<V> {
+		
+		final Promise<V> promise;
+		
+		final long loadedAt;
+		
+		//guarded by the stripe
+		boolean refreshing;
+		
+		CachedValue(Promise<V> promise, long loadedAt) {
+			this.promise = promise;
+			this.loadedAt = loadedAt;
+		}
+	}
+	
+	/**
+	 * A stripe of the entries in the access order, the eldest is evicted when the stripe is full.
+	 */
+	private static final class Stripe<K, V> extends LinkedHashMap<K, CachedValue<V>> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int capacity;
+		
+		Stripe(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+			return size() > capacity;
+		}
+	}
+}
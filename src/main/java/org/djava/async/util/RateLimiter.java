@@ -0,0 +1,293 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.djava.async.util.DeferredContainer.DeferredTask;
+
+/**
+ * A token bucket rate limiter whose callers wait on promises. An acquire reserves its permits
+ * at once and gets a promise which is fulfilled on the {@link DeferredContainer} when the 
+ * {@link AsyncTimer} finds the permits due, so no thread is held while a caller is throttled.
+ * 
+ * <p>
+ * The bucket refills at the stable rate. An idle limiter stores unused permits up to the burst
+ * size and hands them out without a wait. A limiter with a warm-up period starts cold instead:
+ * its stored permits are expensive, the first permits are given at a third of the stable rate
+ * and the rate rises to the stable rate over the warm-up period. The reservation of a caller 
+ * delays the next callers, not itself, so a large acquire on an idle limiter goes at once.
+ * </p>
+ */
+public class RateLimiter {
+	
+	private static final double COLD_FACTOR = 3.0;
+	
+	private final LongSupplier ticker;
+	
+	private final double stableInterval;
+	
+	private final double coolDownInterval;
+	
+	private final double maxPermits;
+	
+	private final double thresholdPermits;
+	
+	private final double slope;
+	
+	//guarded by this
+	
+	private double storedPermits;
+	
+	private long nextFree;
+	
+	/**
+	 * Creates a limiter which stores up to one second of permits for bursts.
+	 * 
+	 * @param permitsPerSecond the stable rate
+	 */
+	public RateLimiter(double permitsPerSecond) {
+		this(permitsPerSecond, 1.0);
+	}
+	
+	/**
+	 * Creates a limiter which stores permits for bursts.
+	 * 
+	 * @param permitsPerSecond the stable rate
+	 * @param maxBurstSeconds the number of seconds of permits to store while the limiter is idle
+	 */
+	public RateLimiter(double permitsPerSecond, double maxBurstSeconds) {
+		this(permitsPerSecond, maxBurstSeconds, 0, AsyncTimer.NANO_TIME);
+	}
+	
+	/**
+	 * Creates a limiter which warms up.
+	 * 
+	 * @param permitsPerSecond the stable rate
+	 * @param warmupPeriod the time to reach the stable rate from cold
+	 * @param unit the unit of the warm-up period
+	 */
+	public RateLimiter(double permitsPerSecond, long warmupPeriod, TimeUnit unit) {
+		this(permitsPerSecond, 0, unit.toNanos(warmupPeriod), AsyncTimer.NANO_TIME);
+	}
+	
+	RateLimiter(double permitsPerSecond, double maxBurstSeconds, long warmupPeriod, LongSupplier ticker) {
+		if(!(permitsPerSecond > 0) || Double.isInfinite(permitsPerSecond)) {
+			throw new IllegalArgumentException("The rate must be positive.");
+		}
+		
+		if(maxBurstSeconds < 0 || warmupPeriod < 0) {
+			throw new IllegalArgumentException("The burst and the warm-up period can not be negative.");
+		}
+		
+		this.ticker = ticker;
+		this.stableInterval = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+		
+		if(warmupPeriod > 0) {
+			double coldInterval = stableInterval * COLD_FACTOR;
+			thresholdPermits = 0.5 * warmupPeriod / stableInterval;
+			maxPermits = thresholdPermits + 2.0 * warmupPeriod / (stableInterval + coldInterval);
+			slope = (coldInterval - stableInterval) / (maxPermits - thresholdPermits);
+			coolDownInterval = warmupPeriod / maxPermits;
+			storedPermits = maxPermits;
+		} else {
+			maxPermits = maxBurstSeconds * permitsPerSecond;
+			thresholdPermits = maxPermits;
+			slope = 0;
+			coolDownInterval = stableInterval;
+			storedPermits = 0;
+		}
+		
+		nextFree = ticker.getAsLong();
+	}
+	
+	/**
+	 * Acquires a permit.
+	 * 
+	 * @return the promise of the time waited in nanoseconds
+	 */
+	public Promise<Long> acquire() {
+		return acquire(1);
+	}
+	
+	/**
+	 * Acquires permits. The promise is fulfilled by a container task when the permits are due, 
+	 * or at once when they are available. The promise is rejected when the container is not 
+	 * running at that time.
+	 * 
+	 * @param permits the number of the permits
+	 * 
+	 * @return the promise of the time waited in nanoseconds
+	 */
+	public Promise<Long> acquire(int permits) {
+		final long wait = reserve(permits);
+		final Deferred<Long> deferred = DeferredFactory.createDeferred();
+		
+		if(wait <= 0) {
+			deferred.resolve(0L);
+			return deferred.promise();
+		}
+		
+		AsyncTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				//the callbacks of the caller run on the container, not on the shared timer
+				try {
+					new DeferredTask<>(new Callable<Object>() {
+						@Override
+						public Object call() {
+							deferred.resolve(wait);
+							return null;
+						}
+					}).submit();
+				} catch(RuntimeException ex) {
+					//the container is not running
+					deferred.reject(ex);
+				}
+			}
+		}, wait, TimeUnit.NANOSECONDS);
+		return deferred.promise();
+	}
+	
+	/**
+	 * Acquires permits only if they are available without a wait.
+	 * 
+	 * @param permits the number of the permits
+	 * 
+	 * @return true if the permits are acquired
+	 */
+	public boolean tryAcquire(int permits) {
+		checkPermits(permits);
+		
+		synchronized(this) {
+			long now = ticker.getAsLong();
+			if(nextFree > now) {
+				return false;
+			}
+			
+			reserveEarliestAvailable(permits, now);
+			return true;
+		}
+	}
+	
+	/**
+	 * Submits a callable to the container when a permit is due. Nothing runs and no thread 
+	 * waits before that.
+	 * 
+	 * @param callable the callable
+	 * 
+	 * @return the promise of the result of the callable
+	 */
+	public <R> Promise<R> wrap(final Callable<R> callable) {
+		//the futures see null values too, a failure to submit fails the composed stage
+		return DeferredFactory.from(acquire().toCompletableFuture().thenCompose(new Function<Long, CompletionStage<R>>() {
+			@Override
+			public CompletionStage<R> apply(Long waited) {
+				return Deferred.when(callable).toCompletableFuture();
+			}
+		}));
+	}
+	
+	/**
+	 * Gets the stable rate.
+	 * 
+	 * @return the permits per second
+	 */
+	public double getRate() {
+		return TimeUnit.SECONDS.toNanos(1) / stableInterval;
+	}
+	
+	/**
+	 * Reserves permits.
+	 * 
+	 * @return the time to wait for the permits in nanoseconds
+	 */
+	long reserve(int permits) {
+		checkPermits(permits);
+		
+		synchronized(this) {
+			long now = ticker.getAsLong();
+			long moment = reserveEarliestAvailable(permits, now);
+			return Math.max(moment - now, 0);
+		}
+	}
+	
+	private long reserveEarliestAvailable(int permits, long now) {
+		resync(now);
+		long moment = nextFree;
+		
+		double storedToSpend = Math.min(permits, storedPermits);
+		double fresh = permits - storedToSpend;
+		long wait = (long) (storedPermitsToWaitTime(storedToSpend) + fresh * stableInterval);
+		
+		nextFree = saturatedAdd(nextFree, wait);
+		storedPermits -= storedToSpend;
+		return moment;
+	}
+	
+	/**
+	 * Stores the permits of the idle time since the next free moment.
+	 */
+	private void resync(long now) {
+		if(now > nextFree) {
+			storedPermits = Math.min(maxPermits, storedPermits + (now - nextFree) / coolDownInterval);
+			nextFree = now;
+		}
+	}
+	
+	/**
+	 * The cost of the stored permits. Free for the bursts. For the warm-up the permits above the
+	 * threshold cost from the cold interval down to the stable interval, linearly, so the cost 
+	 * of a range is the area of a trapezoid.
+	 */
+	private double storedPermitsToWaitTime(double toTake) {
+		double wait = 0;
+		double aboveThreshold = storedPermits - thresholdPermits;
+		if(slope > 0 && aboveThreshold > 0) {
+			double aboveToTake = Math.min(aboveThreshold, toTake);
+			double length = permitsToTime(aboveThreshold) + permitsToTime(aboveThreshold - aboveToTake);
+			wait = aboveToTake * length / 2.0;
+			toTake -= aboveToTake;
+		}
+		
+		if(slope > 0) {
+			wait += stableInterval * toTake;
+		}
+		return wait;
+	}
+	
+	private double permitsToTime(double permits) {
+		return stableInterval + permits * slope;
+	}
+	
+	private static void checkPermits(int permits) {
+		if(permits < 1) {
+			throw new IllegalArgumentException("The permits must be positive.");
+		}
+	}
+	
+	private static long saturatedAdd(long a, long b) {
+		long sum = a + b;
+		return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+	}
+}
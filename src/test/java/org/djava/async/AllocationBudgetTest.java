@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.PromiseLeakDetector.Level;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Allocation budgets of the hot paths. Every test measures the bytes allocated per operation by 
+ * the current thread, or the retained footprint of a promise graph, and fails when it is over
+ * budget.
+ * 
+ * <p>
+ * The budgets are the measured values on JDK 17 with compressed oops, rounded up a little. When a
+ * change makes a promise smaller, lower the budget in the same change. When it makes one bigger
+ * on purpose, raise the budget and say why in the change description.
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+public class AllocationBudgetTest {
+	
+	//bytes allocated per operation
+	private static final long CREATE_BUDGET = 160;
+	private static final long CREATE_RESOLVE_BUDGET = 176;
+	private static final long THEN_RESOLVE_BUDGET = 400;
+	private static final long LAMBDA_THEN_RESOLVE_BUDGET = 400;
+	private static final long CHAIN_OF_10_BUDGET = 2450;
+	private static final long WHEN_OF_10_BUDGET = 4800;
+	
+	//retained bytes of the promise graph
+	private static final long PENDING_FOOTPRINT_BUDGET = 160;
+	private static final long RESOLVED_FOOTPRINT_BUDGET = 192;
+	private static final long WHEN_OF_10_FOOTPRINT_BUDGET = 4400;
+	private static final long CHAIN_OF_10_FOOTPRINT_BUDGET = 2300;
+	
+	private static final int WARMUP = 100000;
+	
+	private static final int OPERATIONS = 20000;
+	
+	private static final int MAX_ROUNDS = 50;
+	
+	private static final Integer VALUE = 42;
+	
+	private static final SuccessCallBack<Integer, Integer> IDENTITY = new SuccessCallBack<Integer, Integer>() {
+		@Override
+		public Object call(Integer value) {
+			return value;
+		}
+	};
+	
+	/**
+	 * Keeps the results reachable so that the allocations can not be optimized away.
+	 */
+	static volatile Object sink;
+	
+	private static Level level;
+	
+	private static double sampleRate;
+	
+	@BeforeClass
+	public static void setup() {
+		//measure the production defaults
+		level = PromiseLeakDetector.getLevel();
+		sampleRate = AsyncTrace.getSampleRate();
+		PromiseLeakDetector.setLevel(Level.DISABLED);
+		AsyncTrace.setSampleRate(0.0);
+	}
+	
+	@AfterClass
+	public static void shutdown() {
+		PromiseLeakDetector.setLevel(level);
+		AsyncTrace.setSampleRate(sampleRate);
+	}
+	
+	@Test
+	public void testCreate() {
+		assertAllocation("create", CREATE_BUDGET, new Operation() {
+			@Override
+			public Object run() {
+				return DeferredFactory.createDeferred();
+			}
+		});
+	}
+	
+	@Test
+	public void testCreateResolve() {
+		assertAllocation("create and resolve", CREATE_RESOLVE_BUDGET, new Operation() {
+			@Override
+			public Object run() {
+				Deferred<Integer> deferred = DeferredFactory.createDeferred();
+				deferred.resolve(VALUE);
+				return deferred;
+			}
+		});
+	}
+	
+	@Test
+	public void testThenResolve() {
+		assertAllocation("then and resolve", THEN_RESOLVE_BUDGET, new Operation() {
+			@Override
+			public Object run() {
+				Deferred<Integer> deferred = DeferredFactory.createDeferred();
+				Promise<Integer> next = deferred.then(IDENTITY);
+				deferred.resolve(VALUE);
+				return next;
+			}
+		});
+	}
+	
+	@Test
+	public void testLambdaThenResolve() {
+		assertAllocation("then with a lambda and resolve", LAMBDA_THEN_RESOLVE_BUDGET, new Operation() {
+			@Override
+			public Object run() {
+				Deferred<Integer> deferred = DeferredFactory.createDeferred();
+				Promise<Integer> next = deferred.then(value -> value);
+				deferred.resolve(VALUE);
+				return next;
+			}
+		});
+	}
+	
+	@Test
+	public void testChainOf10() {
+		assertAllocation("then chain of 10", CHAIN_OF_10_BUDGET, new Operation() {
+			@Override
+			public Object run() {
+				Deferred<Integer> deferred = DeferredFactory.createDeferred();
+				Promise<Integer> last = chain(deferred, 10);
+				deferred.resolve(VALUE);
+				return last;
+			}
+		});
+	}
+	
+	@Test
+	public void testWhenOf10() {
+		assertAllocation("when of 10", WHEN_OF_10_BUDGET, new Operation() {
+			@Override
+			public Object run() {
+				Deferred<Integer>[] deferreds = pending(10);
+				Promise<List<Integer>> all = Deferred.when(promises(deferreds));
+				for(Deferred<Integer> deferred : deferreds) {
+					deferred.resolve(VALUE);
+				}
+				return all;
+			}
+		});
+	}
+	
+	@Test
+	public void testPendingFootprint() {
+		assertFootprint("pending promise", PENDING_FOOTPRINT_BUDGET, DeferredFactory.createDeferred());
+	}
+	
+	@Test
+	public void testResolvedFootprint() {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		deferred.resolve(VALUE);
+		assertFootprint("resolved promise", RESOLVED_FOOTPRINT_BUDGET, deferred);
+	}
+	
+	@Test
+	public void testWhenOf10Footprint() {
+		Deferred<Integer>[] deferreds = pending(10);
+		Promise<List<Integer>> all = Deferred.when(promises(deferreds));
+		assertFootprint("pending when of 10", WHEN_OF_10_FOOTPRINT_BUDGET, deferreds, all);
+	}
+	
+	@Test
+	public void testChainOf10Footprint() {
+		Deferred<Integer> deferred = DeferredFactory.createDeferred();
+		chain(deferred, 10);
+		assertFootprint("pending then chain of 10", CHAIN_OF_10_FOOTPRINT_BUDGET, deferred);
+	}
+	
+	private static Promise<Integer> chain(Promise<Integer> promise, int depth) {
+		Promise<Integer> last = promise;
+		for(int i = 0; i < depth; i++) {
+			last = last.then(IDENTITY);
+		}
+		return last;
+	}
+	
+	private static Deferred<Integer>[] pending(int count) {
+		Deferred<Integer>[] deferreds = new Deferred[count];
+		for(int i = 0; i < count; i++) {
+			deferreds[i] = DeferredFactory.createDeferred();
+		}
+		return deferreds;
+	}
+	
+	private static Promise<Integer>[] promises(Deferred<Integer>[] deferreds) {
+		Promise<Integer>[] promises = new Promise[deferreds.length];
+		for(int i = 0; i < deferreds.length; i++) {
+			promises[i] = deferreds[i].promise();
+		}
+		return promises;
+	}
+	
+	/**
+	 * Asserts the steady state allocation of an operation. The operation is measured in rounds
+	 * until a round is within the budget, the lowest round counts. After other tests the JVM has
+	 * seen many callback classes, the call sites of the hot paths are polymorphic and the JIT 
+	 * needs longer to recompile them. Until then the first rounds allocate more, so one round 
+	 * after a fixed warmup would measure the history of the JVM and not the operation.
+	 */
+	private static void assertAllocation(String name, long budget, Operation operation) {
+		for(int i = 0; i < WARMUP; i++) {
+			sink = operation.run();
+		}
+		
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		
+		long bytes = Long.MAX_VALUE;
+		for(int round = 0; round < MAX_ROUNDS && bytes > budget; round++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			for(int i = 0; i < OPERATIONS; i++) {
+				sink = operation.run();
+			}
+			bytes = Math.min(bytes, (threads.getThreadAllocatedBytes(thread) - before) / OPERATIONS);
+		}
+		
+		Assert.assertTrue(name + " allocates " + bytes + " bytes per operation, the budget is " + budget, bytes <= budget);
+	}
+	
+	/**
+	 * Asserts the retained size of the graph. The enum constants of the promise state are shared,
+	 * they are not counted.
+	 */
+	private static void assertFootprint(String name, long budget, Object... roots) {
+		GraphLayout graph = GraphLayout.parseInstance(roots)
+				.subtract(GraphLayout.parseInstance((Object[]) Promise.STATE.values()));
+		long bytes = graph.totalSize();
+		
+		Assert.assertTrue(name + " retains " + bytes + " bytes, the budget is " + budget, bytes <= budget);
+	}
+	
+	private static interface Operation {
+		Object run();
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import org.djava.async.AsyncTrace.AsyncStackTrace;
+import org.djava.async.Callbacks.FailureCallBack;
+import org.djava.async.util.VoidType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncTraceTest extends BaseDeferredJavaTest {
+	
+	@After
+	public void disable() {
+		AsyncTrace.setSampleRate(0.0);
+	}
+	
+	@Test
+	public void testRejectionCarriesCreationSites() {
+		AsyncTrace.setSampleRate(1.0);
+		
+		final Exception[] received = new Exception[1];
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(concatWith(" "))
+			.then(concatWith("World!!"))
+			.fail(new FailureCallBack() {
+				@Override
+				public VoidType call(Exception reason) {
+					received[0] = reason;
+					return VoidType.NOTHING;
+				}
+			});
+		
+		d1.reject(new RuntimeException("Hello Hell!!"));
+		
+		Assert.assertNotNull(received[0]);
+		Throwable[] suppressed = received[0].getSuppressed();
+		Assert.assertEquals(1, suppressed.length);
+		Assert.assertTrue(suppressed[0] instanceof AsyncStackTrace);
+		
+		StackTraceElement[] sites = suppressed[0].getStackTrace();
+		Assert.assertEquals(4, sites.length);
+		for(StackTraceElement site : sites) {
+			Assert.assertEquals(AsyncTraceTest.class.getName(), site.getClassName());
+			Assert.assertEquals("testRejectionCarriesCreationSites", site.getMethodName());
+		}
+		Assert.assertEquals(
+				"Async chain: Promise.fail <- Promise.then <- Promise.then <- DeferredFactory.createDeferred", 
+				suppressed[0].getMessage());
+	}
+	
+	@Test
+	public void testSitesAreAttachedOnce() {
+		AsyncTrace.setSampleRate(1.0);
+		
+		StringBuffer result = new StringBuffer();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.fail(failure(result));
+		d1.fail(failure(result));
+		
+		RuntimeException reason = new RuntimeException("Hello Hell!!");
+		d1.reject(reason);
+		
+		Assert.assertEquals(1, reason.getSuppressed().length);
+	}
+	
+	@Test
+	public void testLibraryFrames() {
+		Assert.assertTrue(AsyncTrace.isLibraryFrame(Hedge.class.getName()));
+		Assert.assertTrue(AsyncTrace.isLibraryFrame(MapReduce.class.getName() + "$1"));
+		Assert.assertTrue(AsyncTrace.isLibraryFrame("org.djava.async.jfr.JfrEvents"));
+		
+		Assert.assertFalse(AsyncTrace.isLibraryFrame(AsyncTraceTest.class.getName()));
+		Assert.assertFalse(AsyncTrace.isLibraryFrame(BaseDeferredJavaTest.FakeTicker.class.getName()));
+		Assert.assertFalse(AsyncTrace.isLibraryFrame("org.djava.examples.Example"));
+	}
+	
+	@Test
+	public void testDisabledByDefault() {
+		Assert.assertEquals(0.0, AsyncTrace.getSampleRate(), 0.0);
+		
+		StringBuffer result = new StringBuffer();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(concatWith(" ")).fail(failure(result));
+		
+		RuntimeException reason = new RuntimeException("Hello Hell!!");
+		d1.reject(reason);
+		
+		Assert.assertEquals("Hello Hell!!", result.toString());
+		Assert.assertEquals(0, reason.getSuppressed().length);
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import org.djava.async.util.DeferredContainer;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+/**
+ * The base of the tests which submit to a container. A test which needs a different container
+ * shadows {@link #createContainer()}.
+ */
+public abstract class BaseContainerTest extends BaseDeferredJavaTest {
+	
+	@BeforeClass
+	public static void createContainer() {
+		DeferredContainer.createNewContainer();
+	}
+	
+	@AfterClass
+	public static void stopContainer() {
+		DeferredContainer container = DeferredContainer.getContainer();
+		if(container != null) {
+			container.stop();
+		}
+	}
+}
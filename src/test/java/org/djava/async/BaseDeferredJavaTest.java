@@ -17,13 +17,29 @@ package org.djava.async;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import org.djava.async.Callbacks.FailureCallBack;
 import org.djava.async.Callbacks.SuccessCallBack;
 import org.djava.async.util.VoidType;
+import org.junit.Assert;
 
 public abstract class BaseDeferredJavaTest {
 	
+	/**
+	 * Waits until the promise is settled, at most ten seconds.
+	 */
+	protected static <R> Promise<R> await(Promise<R> promise) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while(promise.isPending() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		Assert.assertFalse("The promise is still pending.", promise.isPending());
+		return promise;
+	}
+	
 	protected SuccessCallBack<String, String> echoResolvedValue(final String nv) {
 		SuccessCallBack<String, String> success = new SuccessCallBack<String, String>() {
 			@Override
@@ -98,6 +114,21 @@ public abstract class BaseDeferredJavaTest {
 			}
 		};
 	}
-
 	
+	/**
+	 * A ticker which only moves when the test sleeps.
+	 */
+	public static class FakeTicker implements LongSupplier {
+		
+		private final AtomicLong now = new AtomicLong(1000000000L);
+		
+		@Override
+		public long getAsLong() {
+			return now.get();
+		}
+		
+		public void sleep(long millis) {
+			now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+	}
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompletableFutureBridgeTest extends BaseDeferredJavaTest {
+	
+	@Test
+	public void testFutureCompletesWithPromise() throws Exception {
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		CompletableFuture<String> future = d1.promise().toCompletableFuture();
+		Assert.assertFalse(future.isDone());
+		
+		d1.resolve("Hello");
+		
+		Assert.assertEquals("Hello", future.getNow(null));
+	}
+	
+	@Test
+	public void testFutureOfResolvedPromise() {
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.resolve("Hello");
+		
+		Assert.assertEquals("Hello", d1.toCompletableFuture().getNow(null));
+	}
+	
+	@Test
+	public void testFutureCompletesExceptionallyWithRejection() throws Exception {
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		CompletableFuture<String> future = d1.then(concatWith(" World!!")).toCompletableFuture();
+		
+		d1.reject(new RuntimeException("Hello Hell!!"));
+		
+		Assert.assertTrue(future.isCompletedExceptionally());
+		try {
+			future.get();
+			Assert.fail();
+		} catch(ExecutionException ex) {
+			Assert.assertEquals("Hello Hell!!", ex.getCause().getMessage());
+		}
+	}
+	
+	@Test
+	public void testCancelledFutureRejectsPromise() {
+		StringBuffer result = new StringBuffer();
+		
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.fail(failure(result));
+		
+		Assert.assertTrue(d1.toCompletableFuture().cancel(true));
+		
+		Assert.assertTrue(d1.isRejected());
+		Assert.assertTrue(d1.getResult() instanceof CancellationException);
+		Assert.assertEquals("The future is cancelled.", result.toString());
+	}
+	
+	@Test
+	public void testPromiseResolvesWithStage() {
+		StringBuffer result = new StringBuffer();
+		
+		CompletableFuture<String> future = new CompletableFuture<>();
+		Promise<String> promise = DeferredFactory.from(future);
+		promise.then(concatWith(" World!!")).then(appendResolvedValue(result));
+		Assert.assertTrue(promise.isPending());
+		
+		future.complete("Hello");
+		
+		Assert.assertEquals("Hello World!!", result.toString());
+	}
+	
+	@Test
+	public void testPromiseOfCompletedStage() {
+		Promise<String> promise = DeferredFactory.from(CompletableFuture.completedFuture("Hello"));
+		
+		Assert.assertTrue(promise.isFulfilled());
+		Assert.assertEquals("Hello", promise.getResult());
+	}
+	
+	@Test
+	public void testPromiseRejectsWithStageFailure() {
+		StringBuffer result = new StringBuffer();
+		
+		CompletableFuture<String> future = new CompletableFuture<>();
+		DeferredFactory.from(future.thenApply(new Function<String, String>() {
+			@Override
+			public String apply(String value) {
+				throw new IllegalStateException("Hello Hell!!");
+			}
+		})).fail(failure(result));
+		
+		future.complete("Hello");
+		
+		//the completion exception is unwrapped
+		Assert.assertEquals("Hello Hell!!", result.toString());
+	}
+	
+	@Test
+	public void testCancelledStageRejectsPromise() {
+		CompletableFuture<String> future = new CompletableFuture<>();
+		Promise<String> promise = DeferredFactory.from(future);
+		
+		future.cancel(false);
+		
+		Assert.assertTrue(promise.isRejected());
+		Assert.assertTrue(promise.getResult() instanceof CancellationException);
+	}
+	
+	@Test
+	public void testClosedScopeCancelsStage() throws Exception {
+		CompletableFuture<String> future = new CompletableFuture<>();
+		
+		PromiseScope scope = PromiseScope.open();
+		Promise<String> promise = DeferredFactory.from(future);
+		scope.close();
+		
+		Assert.assertTrue(promise.isRejected());
+		Assert.assertTrue(future.isCancelled());
+	}
+	
+	@Test
+	public void testRoundTripReturnsOriginalPromise() {
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		
+		Assert.assertSame(d1.promise(), DeferredFactory.from(d1.promise().toCompletableFuture()));
+	}
+}
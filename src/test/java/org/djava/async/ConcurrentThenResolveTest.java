@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.Callbacks.FailureCallBack;
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.util.VoidType;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Races <tt>then()</tt> against <tt>resolve()</tt> and <tt>reject()</tt>. The exhaustive interleaving 
+ * tests are in the stress module, this one guards the lost handler regression in the normal build.
+ */
+public class ConcurrentThenResolveTest {
+	
+	private static final int ROUNDS = 2000;
+	
+	@Test
+	public void testNoHandlerIsLostWhenResolving() throws Exception {
+		race(false);
+	}
+	
+	@Test
+	public void testNoHandlerIsLostWhenRejecting() throws Exception {
+		race(true);
+	}
+	
+	private void race(final boolean reject) throws Exception {
+		final CyclicBarrier barrier = new CyclicBarrier(2);
+		final AtomicInteger calls = new AtomicInteger();
+		
+		for(int i = 0; i < ROUNDS; i++) {
+			final Deferred<String> deferred = DeferredFactory.createDeferred();
+			
+			Thread settler = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						barrier.await();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					
+					if(reject) {
+						deferred.reject(new RuntimeException("Hello Hell!!"));
+					}
+					else {
+						deferred.resolve("Hello");
+					}
+				}
+			});
+			settler.start();
+			
+			barrier.await();
+			deferred.then(new SuccessCallBack<Object, String>() {
+				@Override
+				public Object call(String value) {
+					calls.incrementAndGet();
+					return VoidType.NOTHING;
+				}
+			}, new FailureCallBack() {
+				@Override
+				public VoidType call(Exception reason) {
+					calls.incrementAndGet();
+					return VoidType.NOTHING;
+				}
+			}, null);
+			
+			settler.join();
+			Assert.assertEquals("round " + i, i + 1, calls.get());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.Callbacks.NotificationEvent;
+import org.djava.async.Callbacks.OnSuccess;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FunctionalCallbackTest {
+	
+	@Test
+	public void testLambdaChain() {
+		StringBuffer result = new StringBuffer();
+		
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.<String>then(value -> value + " ")
+			.<String>then(value -> value + "World!!")
+			.then(value -> {
+				result.append(value);
+				return null;
+			});
+		
+		d1.resolve("Hello");
+		
+		Assert.assertEquals("Hello World!!", result.toString());
+	}
+	
+	@Test
+	public void testThrowingLambdaRejects() {
+		StringBuffer result = new StringBuffer();
+		
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(value -> {
+			throw new RuntimeException("Hello Hell!!");
+		}).fail(reason -> result.append(reason.getMessage()));
+		
+		d1.resolve("Hello");
+		
+		Assert.assertEquals("Hello Hell!!", result.toString());
+	}
+	
+	@Test
+	public void testReturnedPromiseIsAdopted() {
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		Deferred<String> d2 = DeferredFactory.createDeferred();
+		
+		Promise<String> next = d1.then(value -> d2.promise());
+		d1.resolve("Hello");
+		Assert.assertTrue(next.isPending());
+		
+		d2.resolve("World!!");
+		Assert.assertEquals("World!!", next.getResult());
+	}
+	
+	@Test
+	public void testNotificationLambda() {
+		AtomicInteger notifications = new AtomicInteger();
+		
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.notify(event -> notifications.incrementAndGet());
+		
+		d1.notify(new NotificationEvent(d1.promise()));
+		
+		Assert.assertEquals(1, notifications.get());
+	}
+	
+	@Test
+	public void testWhenWithLambda() {
+		StringBuffer result = new StringBuffer();
+		
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		Deferred<String> d2 = DeferredFactory.createDeferred();
+		Deferred.when(d1.promise(), d2.promise()).then((List<String> values) -> {
+			for(String value : values) {
+				result.append(value);
+			}
+			return null;
+		}, reason -> result.append(reason.getMessage()), null);
+		
+		d1.resolve("Hello");
+		d2.resolve(" World!!");
+		
+		Assert.assertEquals("Hello World!!", result.toString());
+	}
+	
+	@Test
+	public void testNonCapturingLambdaIsShared() {
+		OnSuccess<String, String> first = null;
+		for(int i = 0; i < 2; i++) {
+			OnSuccess<String, String> lambda = value -> value + "!!";
+			if(first == null) {
+				first = lambda;
+			}
+			Assert.assertSame(first, lambda);
+		}
+	}
+}
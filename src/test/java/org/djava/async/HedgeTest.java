@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HedgeTest extends BaseContainerTest {
+	
+	@Test
+	public void testFastCallIsNotHedged() throws Exception {
+		HedgePolicy policy = new HedgePolicy(1, TimeUnit.SECONDS, 3);
+		final AtomicInteger attempts = new AtomicInteger();
+		
+		Promise<String> result = await(Deferred.hedge(new Supplier<Callable<String>>() {
+			@Override
+			public Callable<String> get() {
+				attempts.incrementAndGet();
+				return new Callable<String>() {
+					@Override
+					public String call() {
+						return "fast";
+					}
+				};
+			}
+		}, policy));
+		
+		Assert.assertEquals("fast", result.getResult());
+		Assert.assertEquals(1, attempts.get());
+		Assert.assertEquals(1, policy.getCalls());
+		Assert.assertEquals(0, policy.getHedges());
+	}
+	
+	@Test
+	public void testHedgeWinsAndCancelsTheSlowAttempt() throws Exception {
+		HedgePolicy policy = new HedgePolicy(20, TimeUnit.MILLISECONDS, 2);
+		final AtomicInteger attempts = new AtomicInteger();
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		
+		long start = System.nanoTime();
+		Promise<String> result = await(Deferred.hedge(new Supplier<Callable<String>>() {
+			@Override
+			public Callable<String> get() {
+				final int attempt = attempts.getAndIncrement();
+				return new Callable<String>() {
+					@Override
+					public String call() {
+						if(attempt == 0) {
+							try {
+								Thread.sleep(10000);
+							} catch(InterruptedException ex) {
+								interrupted.countDown();
+							}
+							return "slow";
+						}
+						return "hedged";
+					}
+				};
+			}
+		}, policy));
+		
+		Assert.assertEquals("hedged", result.getResult());
+		Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, policy.getHedges());
+		Assert.assertEquals(1, policy.getHedgeWins());
+	}
+	
+	@Test
+	public void testFailureStartsTheNextAttemptAtOnce() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		
+		Promise<String> result = await(Deferred.hedge(new Supplier<Callable<String>>() {
+			@Override
+			public Callable<String> get() {
+				final int attempt = attempts.getAndIncrement();
+				return new Callable<String>() {
+					@Override
+					public String call() {
+						if(attempt == 0) {
+							throw new IllegalStateException("Replica is down");
+						}
+						return "second";
+					}
+				};
+			}
+		}, 1, TimeUnit.MINUTES, 2));
+		
+		Assert.assertEquals("second", result.getResult());
+		Assert.assertEquals(2, attempts.get());
+	}
+	
+	@Test
+	public void testAllAttemptsFail() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		
+		Promise<String> result = await(Deferred.hedge(new Supplier<Callable<String>>() {
+			@Override
+			public Callable<String> get() {
+				final int attempt = attempts.incrementAndGet();
+				return new Callable<String>() {
+					@Override
+					public String call() {
+						throw new IllegalStateException("Attempt " + attempt + " failed");
+					}
+				};
+			}
+		}, 10, TimeUnit.MILLISECONDS, 3));
+		
+		Assert.assertTrue(result.isRejected());
+		Assert.assertTrue(result.<Exception>getResult().getMessage().startsWith("Attempt "));
+		Assert.assertEquals(3, attempts.get());
+	}
+	
+	@Test
+	public void testNullResultWins() throws Exception {
+		Promise<Object> result = await(Deferred.hedge(new Supplier<Callable<Object>>() {
+			@Override
+			public Callable<Object> get() {
+				return new Callable<Object>() {
+					@Override
+					public Object call() {
+						return null;
+					}
+				};
+			}
+		}, 1, TimeUnit.SECONDS, 2));
+		
+		Assert.assertTrue(result.isFulfilled());
+		Assert.assertNull(result.getResult());
+	}
+	
+	@Test
+	public void testDelayFollowsTheLatency() throws Exception {
+		HedgePolicy policy = new HedgePolicy(1, TimeUnit.MINUTES, 2);
+		Supplier<Callable<Integer>> supplier = new Supplier<Callable<Integer>>() {
+			@Override
+			public Callable<Integer> get() {
+				return new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return 1;
+					}
+				};
+			}
+		};
+		
+		for(int i = 0; i < HedgePolicy.WINDOW_SIZE; i++) {
+			await(Deferred.hedge(supplier, policy));
+		}
+		
+		Assert.assertTrue(policy.getDelay(TimeUnit.MILLISECONDS) < 1000);
+		Assert.assertEquals(HedgePolicy.WINDOW_SIZE, policy.getCalls());
+		Assert.assertEquals(0, policy.getHedges());
+	}
+	
+	@Test
+	public void testHedgesDoNotShrinkTheDelay() throws Exception {
+		HedgePolicy policy = new HedgePolicy(5, TimeUnit.MILLISECONDS, 2);
+		final AtomicInteger attempts = new AtomicInteger();
+		Supplier<Callable<Integer>> supplier = new Supplier<Callable<Integer>>() {
+			@Override
+			public Callable<Integer> get() {
+				//the first attempt of a call is slow, the hedge is fast
+				final boolean first = attempts.getAndIncrement() % 2 == 0;
+				return new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						if(first) {
+							Thread.sleep(60000);
+						}
+						return 1;
+					}
+				};
+			}
+		};
+		
+		for(int i = 0; i < HedgePolicy.WINDOW_SIZE; i++) {
+			await(Deferred.hedge(supplier, policy));
+		}
+		
+		//the outrun attempts ran for at least the delay
+		Assert.assertTrue(policy.getDelay(TimeUnit.MICROSECONDS) >= 4500);
+		Assert.assertEquals(HedgePolicy.WINDOW_SIZE, policy.getHedgeWins());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPolicy() {
+		new HedgePolicy(1, TimeUnit.SECONDS, 0);
+	}
+}
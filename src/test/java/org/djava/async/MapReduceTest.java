@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import org.djava.async.util.DeferredContainer;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MapReduceTest extends BaseContainerTest {
+	
+	private static final BinaryOperator<Long> SUM = new BinaryOperator<Long>() {
+		@Override
+		public Long apply(Long left, Long right) {
+			return left + right;
+		}
+	};
+	
+	@BeforeClass
+	public static void createContainer() {
+		//more threads than the parallelism of the tests
+		DeferredContainer.createNewContainer(16);
+	}
+	
+	@Test
+	public void testSumOfSquares() throws Exception {
+		List<Integer> items = range(1, 1000001);
+		final AtomicInteger mapped = new AtomicInteger();
+		long submitted = DeferredContainer.getContainer().getMetrics().getSubmittedTasks();
+		
+		Promise<Long> sum = await(Deferred.mapReduce(items, new Function<Integer, Long>() {
+			@Override
+			public Long apply(Integer value) {
+				mapped.incrementAndGet();
+				return (long) value * value;
+			}
+		}, SUM, 4));
+		
+		Assert.assertEquals(Long.valueOf(333333833333500000L), sum.getResult());
+		Assert.assertEquals(1000000, mapped.get());
+		//a few tasks for the whole list, no task per item
+		Assert.assertTrue(DeferredContainer.getContainer().getMetrics().getSubmittedTasks() - submitted <= 32);
+	}
+	
+	@Test
+	public void testPartialResultsAreCombinedInOrder() throws Exception {
+		List<Integer> items = range(0, 1000);
+		StringBuilder expected = new StringBuilder();
+		for(Integer item : items) {
+			expected.append(item).append(',');
+		}
+		
+		Promise<String> joined = await(Deferred.mapReduce(items, new Function<Integer, String>() {
+			@Override
+			public String apply(Integer value) {
+				return value + ",";
+			}
+		}, new BinaryOperator<String>() {
+			@Override
+			public String apply(String left, String right) {
+				return left + right;
+			}
+		}, 8));
+		
+		Assert.assertEquals(expected.toString(), joined.getResult());
+	}
+	
+	@Test
+	public void testSmallAndEmptyLists() throws Exception {
+		Promise<Long> single = await(Deferred.mapReduce(Collections.singletonList(7), toLong(), SUM, 16));
+		Assert.assertEquals(Long.valueOf(7), single.getResult());
+		
+		Promise<Long> empty = Deferred.mapReduce(new ArrayList<Integer>(), toLong(), SUM, 16);
+		Assert.assertTrue(empty.isFulfilled());
+		Assert.assertNull(empty.getResult());
+	}
+	
+	@Test
+	public void testFailingMapperRejects() throws Exception {
+		Promise<Long> sum = await(Deferred.mapReduce(range(0, 10000), new Function<Integer, Long>() {
+			@Override
+			public Long apply(Integer value) {
+				if(value == 5000) {
+					throw new IllegalStateException("Bad item");
+				}
+				return (long) value;
+			}
+		}, SUM, 4));
+		
+		Assert.assertTrue(sum.isRejected());
+		Assert.assertEquals("Bad item", sum.<Exception>getResult().getMessage());
+	}
+	
+	@Test
+	public void testParallelismLimitsRunningTasks() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		
+		Promise<Long> sum = await(Deferred.mapReduce(range(0, 64), new Function<Integer, Long>() {
+			@Override
+			public Long apply(Integer value) {
+				int current = running.incrementAndGet();
+				int max = maxRunning.get();
+				while(current > max && !maxRunning.compareAndSet(max, current)) {
+					max = maxRunning.get();
+				}
+				
+				try {
+					Thread.sleep(2);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				running.decrementAndGet();
+				return (long) value;
+			}
+		}, SUM, 2));
+		
+		Assert.assertEquals(Long.valueOf(2016), sum.getResult());
+		Assert.assertTrue("Too many tasks ran at a time: " + maxRunning.get(), maxRunning.get() <= 2);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testParallelismMustBePositive() {
+		Deferred.mapReduce(range(0, 10), toLong(), SUM, 0);
+	}
+	
+	private static Function<Integer, Long> toLong() {
+		return new Function<Integer, Long>() {
+			@Override
+			public Long apply(Integer value) {
+				return (long) value;
+			}
+		};
+	}
+	
+	private static List<Integer> range(int from, int to) {
+		List<Integer> values = new ArrayList<>(to - from);
+		for(int i = from; i < to; i++) {
+			values.add(i);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.PromiseLeakDetector.Level;
+import org.djava.async.PromiseLeakDetector.Reporter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PromiseLeakDetectorTest extends BaseDeferredJavaTest {
+	
+	private final AtomicInteger pendingLeaks = new AtomicInteger();
+	private final AtomicInteger unhandledRejections = new AtomicInteger();
+	
+	@Before
+	public void enable() {
+		PromiseLeakDetector.setLevel(Level.PARANOID);
+		PromiseLeakDetector.setReporter(new Reporter() {
+			@Override
+			public void reportPendingLeak(Throwable creationSite) {
+				Assert.assertNotNull(creationSite);
+				pendingLeaks.incrementAndGet();
+			}
+			
+			@Override
+			public void reportUnhandledRejection(Exception reason, Throwable creationSite) {
+				Assert.assertEquals("Hello Hell!!", reason.getMessage());
+				unhandledRejections.incrementAndGet();
+			}
+		});
+	}
+	
+	@After
+	public void disable() {
+		PromiseLeakDetector.setLevel(Level.DISABLED);
+		PromiseLeakDetector.setReporter(null);
+	}
+	
+	@Test
+	public void testPendingLeak() throws InterruptedException {
+		createPending();
+		
+		collect(pendingLeaks);
+		Assert.assertEquals(1, pendingLeaks.get());
+		Assert.assertEquals(0, unhandledRejections.get());
+	}
+	
+	@Test
+	public void testUnhandledRejection() throws InterruptedException {
+		createRejected();
+		
+		collect(unhandledRejections);
+		Assert.assertEquals(1, unhandledRejections.get());
+		Assert.assertEquals(0, pendingLeaks.get());
+	}
+	
+	@Test
+	public void testSettledPromisesAreNotReported() throws InterruptedException {
+		createSettled();
+		
+		for(int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(20);
+			PromiseLeakDetector.reportLeaks();
+		}
+		
+		Assert.assertEquals(0, pendingLeaks.get());
+		Assert.assertEquals(0, unhandledRejections.get());
+	}
+	
+	private void createPending() {
+		DeferredFactory.createDeferred();
+	}
+	
+	private void createRejected() {
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.reject(new RuntimeException("Hello Hell!!"));
+	}
+	
+	private void createSettled() {
+		StringBuffer result = new StringBuffer();
+		
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(concatWith(" ")).then(appendResolvedValue(result));
+		d1.resolve("Hello");
+		
+		//rejection consumed by a failure callback, the next promise is abandoned
+		Deferred<String> d2 = DeferredFactory.createDeferred();
+		d2.then(concatWith(" ")).fail(failure(result));
+		d2.reject(new RuntimeException("Hello Hell!!"));
+		
+		//late failure callback observes the rejection
+		Deferred<String> d3 = DeferredFactory.createDeferred();
+		d3.reject(new RuntimeException("Hello Hell!!"));
+		d3.fail(failure(result));
+		
+		Assert.assertEquals("Hello Hello Hell!!Hello Hell!!", result.toString());
+	}
+	
+	private void collect(AtomicInteger counter) throws InterruptedException {
+		for(int i = 0; i < 50 && counter.get() == 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+			PromiseLeakDetector.reportLeaks();
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.Callbacks.CallBackType;
+import org.djava.async.Callbacks.NotificationEvent;
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.PromiseListener.PromiseListenerAdapter;
+import org.djava.async.util.DeferredContainer;
+import org.djava.async.util.VoidType;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PromiseListenerTest extends BaseContainerTest {
+	
+	private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+	
+	private final PromiseListener recorder = new PromiseListenerAdapter() {
+		@Override
+		public void onCreate(Promise<?> promise, long time, Thread thread) {
+			events.add("create");
+		}
+		
+		@Override
+		public void onCallbackStart(Promise<?> promise, CallBackType type, long time, Thread thread) {
+			events.add("start " + type);
+		}
+		
+		@Override
+		public void onCallbackEnd(Promise<?> promise, CallBackType type, long time, Thread thread) {
+			events.add("end " + type);
+		}
+		
+		@Override
+		public void onFulfill(Promise<?> promise, Object value, long time, Thread thread) {
+			events.add("fulfill " + value);
+		}
+		
+		@Override
+		public void onReject(Promise<?> promise, Exception reason, long time, Thread thread) {
+			events.add("reject " + reason.getMessage());
+		}
+		
+		@Override
+		public void onNotify(Promise<?> promise, NotificationEvent event, long time, Thread thread) {
+			events.add("notify");
+		}
+	};
+	
+	@BeforeClass
+	public static void assumeEnabled() {
+		//runs in the promise-listeners execution of surefire which sets the system property
+		Assume.assumeTrue(PromiseListeners.isEnabled());
+	}
+	
+	@After
+	public void removeListener() {
+		PromiseListeners.removeGlobalListener(recorder);
+	}
+	
+	@Test
+	public void testGlobalListener() {
+		PromiseListeners.addGlobalListener(recorder);
+		
+		StringBuffer result = new StringBuffer();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(concatWith(" World!!")).then(appendResolvedValue(result));
+		d1.notify(new NotificationEvent(d1.promise()));
+		d1.resolve("Hello");
+		
+		Assert.assertEquals("Hello World!!", result.toString());
+		Assert.assertEquals(Arrays.asList(
+				"create", "create", "create", 
+				"notify",
+				"fulfill Hello", "start SUCCESS", "end SUCCESS",
+				"fulfill Hello World!!", "start SUCCESS", "end SUCCESS",
+				"fulfill " + VoidType.NOTHING), new ArrayList<>(events));
+		
+		events.clear();
+		Deferred<String> d2 = DeferredFactory.createDeferred();
+		d2.fail(failure(result));
+		d2.reject(new RuntimeException("Hell"));
+		Assert.assertEquals(Arrays.asList("create", "create", "reject Hell", "start FAILURE", "end FAILURE"), 
+				new ArrayList<>(events));
+	}
+	
+	@Test
+	public void testContainerListener() throws InterruptedException {
+		DeferredContainer.getContainer().addListener(recorder);
+		try {
+			final CountDownLatch latch = new CountDownLatch(1);
+			Deferred.when(callable("Hello")).then(new SuccessCallBack<Object, String>() {
+				@Override
+				public Object call(String value) {
+					latch.countDown();
+					return VoidType.NOTHING;
+				}
+			});
+			
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			Assert.assertTrue(events.contains("fulfill Hello"));
+			Assert.assertTrue(events.contains("start SUCCESS"));
+			//only the chained promise, the task's promise is created before it is submitted
+			Assert.assertEquals(1, Collections.frequency(events, "create"));
+		} finally {
+			DeferredContainer.getContainer().removeListener(recorder);
+		}
+	}
+	
+	private Callable<String> callable(final String value) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				Thread.sleep(50);
+				return value;
+			}
+		};
+	}
+
+}
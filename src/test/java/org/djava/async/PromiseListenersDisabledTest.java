@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import org.djava.async.PromiseListener.PromiseListenerAdapter;
+import org.djava.async.util.DeferredContainer;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PromiseListenersDisabledTest extends BaseContainerTest {
+	
+	@BeforeClass
+	public static void assumeDisabled() {
+		Assume.assumeFalse(PromiseListeners.isEnabled());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testGlobalListenerIsRefused() {
+		PromiseListeners.addGlobalListener(new PromiseListenerAdapter() {});
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testAttachIsRefused() {
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		PromiseListeners.attach(d1.promise(), new PromiseListener[] {new PromiseListenerAdapter() {}});
+	}
+	
+	@Test
+	public void testContainerListenerIsRefused() {
+		try {
+			DeferredContainer.getContainer().addListener(new PromiseListenerAdapter() {});
+			Assert.fail("The listener is added.");
+		} catch (IllegalStateException ex) {
+			//expected
+		}
+	}
+	
+	@Test
+	public void testPromisesWorkWithoutListeners() {
+		StringBuffer result = new StringBuffer();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(concatWith(" World!!")).then(appendResolvedValue(result));
+		d1.resolve("Hello");
+		
+		Assert.assertEquals("Hello World!!", result.toString());
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.djava.async.Callbacks.FailureCallBack;
+import org.djava.async.util.VoidType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PromiseScopeTest extends BaseContainerTest {
+	
+	@Test
+	public void testSealedScopeWaitsForChildren() throws InterruptedException {
+		StringBuffer result = new StringBuffer();
+		
+		PromiseScope scope = PromiseScope.open();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(concatWith(" World!!")).then(appendResolvedValue(result));
+		scope.seal();
+		
+		Assert.assertNull(PromiseScope.current());
+		Assert.assertEquals(3, scope.getOutstandingCount());
+		Assert.assertTrue(scope.promise().isPending());
+		
+		d1.resolve("Hello");
+		
+		Assert.assertEquals("Hello World!!", result.toString());
+		Assert.assertEquals(0, scope.getOutstandingCount());
+		Assert.assertTrue(scope.promise().isFulfilled());
+	}
+	
+	@Test
+	public void testConsumedRejectionDoesNotBlockScope() {
+		StringBuffer result = new StringBuffer();
+		
+		PromiseScope scope = PromiseScope.open();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(concatWith(" ")).fail(failure(result));
+		scope.seal();
+		
+		d1.reject(new RuntimeException("Hello Hell!!"));
+		
+		Assert.assertEquals("Hello Hell!!", result.toString());
+		Assert.assertTrue(scope.promise().isRejected());
+		Assert.assertEquals("Hello Hell!!", ((Exception) scope.promise().getResult()).getMessage());
+	}
+	
+	@Test
+	public void testCloseCancelsChildren() {
+		StringBuffer result = new StringBuffer();
+		
+		PromiseScope scope = PromiseScope.open();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		d1.then(appendResolvedValue(result), failure(result), null);
+		scope.close();
+		
+		Assert.assertTrue(d1.isRejected());
+		Assert.assertTrue(d1.getResult() instanceof CancellationException);
+		Assert.assertEquals("The scope is cancelled.", result.toString());
+		Assert.assertTrue(scope.promise().isFulfilled());
+		
+		//resolving a cancelled chain does nothing
+		Deferred<String> d2 = DeferredFactory.createDeferred();
+		scope = PromiseScope.open();
+		Promise<String> p2 = d2.then(concatWith("!!"));
+		scope.close();
+		d2.resolve("Hello");
+		Assert.assertTrue(p2.isRejected());
+	}
+	
+	@Test
+	public void testCancelledNestedScopeCancelsItsChildren() {
+		int entered = PromiseScope.getEnteredCount();
+		
+		PromiseScope outer = PromiseScope.open();
+		PromiseScope inner = PromiseScope.open();
+		Deferred<String> d1 = DeferredFactory.createDeferred();
+		outer.close();
+		
+		Assert.assertTrue(inner.promise().isRejected());
+		Assert.assertTrue(inner.promise().getResult() instanceof CancellationException);
+		Assert.assertTrue(d1.isRejected());
+		Assert.assertTrue(d1.getResult() instanceof CancellationException);
+		
+		inner.close();
+		
+		Assert.assertNull(PromiseScope.current());
+		Assert.assertEquals(entered, PromiseScope.getEnteredCount());
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFailFastCancelsTasks() throws InterruptedException {
+		final AtomicBoolean interrupted = new AtomicBoolean(false);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch settled = new CountDownLatch(1);
+		
+		PromiseScope scope = PromiseScope.open(true);
+		Promise<List<Object>> all = Deferred.when(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				started.countDown();
+				try {
+					Thread.sleep(10000);
+				} catch (InterruptedException ex) {
+					interrupted.set(true);
+					throw ex;
+				}
+				return "slow";
+			}
+		}, new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				started.await();
+				throw new RuntimeException("failed");
+			}
+		});
+		scope.seal();
+		
+		scope.promise().fail(new FailureCallBack() {
+			@Override
+			public VoidType call(Exception reason) {
+				settled.countDown();
+				return VoidType.NOTHING;
+			}
+		});
+		
+		Assert.assertTrue(settled.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(all.isRejected());
+		Assert.assertEquals("failed", ((Exception) scope.promise().getResult()).getMessage());
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!interrupted.get() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(interrupted.get());
+	}
+	
+	@Test
+	public void testTaskPropagatesScope() throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final Deferred<String>[] inner = new Deferred[1];
+		
+		PromiseScope scope = PromiseScope.open();
+		Deferred.when(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				inner[0] = DeferredFactory.createDeferred();
+				done.countDown();
+				return "Hello";
+			}
+		});
+		scope.seal();
+		
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while(scope.getOutstandingCount() != 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(1, scope.getOutstandingCount());
+		Assert.assertTrue(scope.promise().isPending());
+		
+		inner[0].resolve("World");
+		Assert.assertTrue(scope.promise().isFulfilled());
+	}
+
+	
+	@Test
+	public void testSealFromAnotherThreadLeavesScope() throws InterruptedException {
+		int entered = PromiseScope.getEnteredCount();
+		
+		final PromiseScope scope = PromiseScope.open();
+		Assert.assertEquals(entered + 1, PromiseScope.getEnteredCount());
+		
+		Thread sealer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				scope.seal();
+			}
+		});
+		sealer.start();
+		sealer.join();
+		
+		Assert.assertEquals(entered, PromiseScope.getEnteredCount());
+		Assert.assertTrue(scope.promise().isFulfilled());
+		
+		//another thread keeps a scope entered, so the owner thread looks up its thread local
+		final CountDownLatch opened = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Thread holder = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				PromiseScope other = PromiseScope.open();
+				opened.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				other.seal();
+			}
+		});
+		holder.start();
+		Assert.assertTrue(opened.await(5, TimeUnit.SECONDS));
+		
+		try {
+			Assert.assertNull(PromiseScope.current());
+			DeferredFactory.createDeferred();
+			Assert.assertEquals(0, scope.getOutstandingCount());
+		} finally {
+			release.countDown();
+			holder.join();
+		}
+		Assert.assertEquals(entered, PromiseScope.getEnteredCount());
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.flow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlowTest extends BaseContainerTest {
+	
+	@Test
+	public void testCollectsResultsInOrder() throws Exception {
+		PromiseSubscriber<Integer, List<Integer>> subscriber = PromiseSubscriber.toList();
+		new TaskPublisher<>(tasks(100, null)).subscribe(subscriber);
+		
+		List<Integer> expected = new ArrayList<>();
+		for(int i = 0; i < 100; i++) {
+			expected.add(i);
+		}
+		Assert.assertEquals(expected, await(subscriber.promise()).getResult());
+	}
+	
+	@Test
+	public void testFoldsResults() throws Exception {
+		PromiseSubscriber<Integer, Integer> subscriber = PromiseSubscriber.fold(0, new BiFunction<Integer, Integer, Integer>() {
+			@Override
+			public Integer apply(Integer sum, Integer value) {
+				return sum + value;
+			}
+		});
+		new TaskPublisher<>(tasks(10, null)).subscribe(subscriber);
+		
+		Assert.assertEquals(Integer.valueOf(45), await(subscriber.promise()).getResult());
+	}
+	
+	@Test
+	public void testEmptySequenceCompletes() throws Exception {
+		PromiseSubscriber<Integer, List<Integer>> subscriber = PromiseSubscriber.toList();
+		new TaskPublisher<>(new ArrayList<Callable<Integer>>()).subscribe(subscriber);
+		
+		Assert.assertTrue(subscriber.promise().isFulfilled());
+		Assert.assertEquals(0, subscriber.promise().<List<Integer>>getResult().size());
+	}
+	
+	@Test
+	public void testTasksAreSubmittedOnDemand() throws Exception {
+		AtomicInteger started = new AtomicInteger();
+		final List<Integer> received = new ArrayList<>();
+		final Flow.Subscription[] subscription = new Flow.Subscription[1];
+		final CountDownLatch two = new CountDownLatch(2);
+		
+		new TaskPublisher<>(tasks(10, started).iterator(), 4).subscribe(new Flow.Subscriber<Integer>() {
+			@Override
+			public void onSubscribe(Flow.Subscription s) {
+				subscription[0] = s;
+				s.request(2);
+			}
+			
+			@Override
+			public void onNext(Integer item) {
+				received.add(item);
+				two.countDown();
+			}
+			
+			@Override
+			public void onError(Throwable throwable) {
+			}
+			
+			@Override
+			public void onComplete() {
+			}
+		});
+		
+		Assert.assertTrue(two.await(5, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		
+		//only the requested tasks are started
+		Assert.assertEquals(2, started.get());
+		Assert.assertEquals(Arrays.asList(0, 1), received);
+		
+		subscription[0].cancel();
+		Thread.sleep(100);
+		Assert.assertEquals(2, started.get());
+	}
+	
+	@Test
+	public void testConcurrencyIsLimited() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		List<Callable<Integer>> tasks = new ArrayList<>();
+		for(int i = 0; i < 20; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int now = running.incrementAndGet();
+					int max = maxRunning.get();
+					while(now > max && !maxRunning.compareAndSet(max, now)) {
+						max = maxRunning.get();
+					}
+					Thread.sleep(10);
+					running.decrementAndGet();
+					return value;
+				}
+			});
+		}
+		
+		PromiseSubscriber<Integer, List<Integer>> subscriber = PromiseSubscriber.toList();
+		new TaskPublisher<Integer>(tasks.iterator(), 2).subscribe(subscriber);
+		
+		Assert.assertEquals(20, await(subscriber.promise()).<List<Integer>>getResult().size());
+		Assert.assertTrue(maxRunning.get() <= 2);
+	}
+	
+	@Test
+	public void testFailedTaskFailsStream() throws Exception {
+		List<Callable<Integer>> tasks = tasks(5, null);
+		tasks.add(2, new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				throw new RuntimeException("Hello Hell!!");
+			}
+		});
+		
+		PromiseSubscriber<Integer, List<Integer>> subscriber = PromiseSubscriber.toList();
+		new TaskPublisher<>(tasks).subscribe(subscriber);
+		
+		Promise<List<Integer>> promise = await(subscriber.promise());
+		Assert.assertTrue(promise.isRejected());
+		Assert.assertEquals("Hello Hell!!", promise.<Exception>getResult().getMessage());
+	}
+	
+	@Test
+	public void testSecondSubscriberIsRejected() throws Exception {
+		TaskPublisher<Integer> publisher = new TaskPublisher<>(tasks(1, null));
+		publisher.subscribe(PromiseSubscriber.<Integer>toList());
+		
+		PromiseSubscriber<Integer, List<Integer>> second = PromiseSubscriber.toList();
+		publisher.subscribe(second);
+		
+		Assert.assertTrue(second.promise().isRejected());
+		Assert.assertTrue(second.promise().getResult() instanceof IllegalStateException);
+	}
+	
+	@Test
+	public void testErrorRejectsLikeTheOtherAdapters() {
+		PromiseSubscriber<Integer, List<Integer>> subscriber = PromiseSubscriber.toList();
+		AssertionError error = new AssertionError("Hello Hell!!");
+		subscriber.onError(error);
+		
+		Assert.assertTrue(subscriber.promise().isRejected());
+		Exception reason = subscriber.promise().getResult();
+		Assert.assertTrue(reason instanceof CompletionException);
+		Assert.assertSame(error, reason.getCause());
+		
+		subscriber = PromiseSubscriber.toList();
+		IllegalStateException cause = new IllegalStateException("Hello Hell!!");
+		subscriber.onError(new CompletionException(cause));
+		
+		Assert.assertSame(cause, subscriber.promise().getResult());
+	}
+	
+	private static List<Callable<Integer>> tasks(int count, final AtomicInteger started) {
+		List<Callable<Integer>> tasks = new ArrayList<>();
+		for(int i = 0; i < count; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					if(started != null) {
+						started.incrementAndGet();
+					}
+					return value;
+				}
+			});
+		}
+		return tasks;
+	}
+}
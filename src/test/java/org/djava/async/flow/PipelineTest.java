@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.flow;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.djava.async.flow.Pipeline.Stage;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PipelineTest extends BaseContainerTest {
+	
+	@Test
+	public void testItemsPassAllStages() throws Exception {
+		final Set<String> written = ConcurrentHashMap.newKeySet();
+		
+		Pipeline pipeline = Pipeline.from(numbers(1000))
+				.stage("parse", 2, 16, new Function<Integer, String>() {
+					@Override
+					public String apply(Integer value) {
+						return "#" + value;
+					}
+				})
+				.stage("enrich", 4, 16, new Function<String, String>() {
+					@Override
+					public String apply(String value) {
+						return value + "!";
+					}
+				})
+				.stage("write", 1, 16, new Function<String, String>() {
+					@Override
+					public String apply(String value) {
+						written.add(value);
+						return value;
+					}
+				})
+				.build();
+		
+		Promise<Long> completion = await(pipeline.start());
+		
+		Assert.assertEquals(Long.valueOf(1000), completion.getResult());
+		Assert.assertEquals(1000, written.size());
+		Assert.assertTrue(written.contains("#999!"));
+		for(Stage stage : pipeline.getStages()) {
+			Assert.assertEquals(1000, stage.getProcessed());
+			Assert.assertEquals(0, stage.getQueueSize());
+			Assert.assertEquals(0, stage.getRunning());
+			Assert.assertTrue(stage.getThroughput() > 0);
+		}
+	}
+	
+	@Test
+	public void testSlowStageHoldsBackTheSource() throws Exception {
+		final AtomicInteger pulled = new AtomicInteger();
+		final ConcurrentLinkedQueue<Deferred<Integer>> writes = new ConcurrentLinkedQueue<>();
+		Iterable<Integer> source = new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					@Override
+					public boolean hasNext() {
+						return pulled.get() < 1000;
+					}
+					
+					@Override
+					public Integer next() {
+						return pulled.incrementAndGet();
+					}
+				};
+			}
+		};
+		
+		Pipeline pipeline = Pipeline.from(source)
+				.stage("parse", 2, 4, Function.<Integer>identity())
+				.stageAsync("write", 2, 4, new Function<Integer, Promise<Integer>>() {
+					@Override
+					public Promise<Integer> apply(Integer value) {
+						Deferred<Integer> write = DeferredFactory.createDeferred();
+						writes.add(write);
+						return write.promise();
+					}
+				})
+				.build();
+		Promise<Long> completion = pipeline.start();
+		
+		//the queues and the running items of both stages
+		int bound = 4 + 2 + 4 + 2;
+		awaitSettled(pulled);
+		Assert.assertTrue("Pulled " + pulled.get(), pulled.get() <= bound);
+		Assert.assertEquals(4, pipeline.getStages().get(1).getQueueSize());
+		Assert.assertEquals(2, pipeline.getStages().get(1).getRunning());
+		
+		long deadline = System.currentTimeMillis() + 10000;
+		while(completion.isPending() && System.currentTimeMillis() < deadline) {
+			Deferred<Integer> write = writes.poll();
+			if(write == null) {
+				Thread.sleep(1);
+				continue;
+			}
+			write.resolve(1);
+			Assert.assertTrue("Pulled " + pulled.get(), pulled.get() - pipeline.getStages().get(1).getProcessed() <= bound);
+		}
+		
+		Assert.assertEquals(Long.valueOf(1000), await(completion).getResult());
+	}
+	
+	@Test
+	public void testNullDropsTheItem() throws Exception {
+		Pipeline pipeline = Pipeline.from(numbers(100))
+				.stage("filter", 2, 8, new Function<Integer, Integer>() {
+					@Override
+					public Integer apply(Integer value) {
+						return value % 2 == 0 ? value : null;
+					}
+				})
+				.stage("write", 1, 8, Function.<Integer>identity())
+				.build();
+		
+		Assert.assertEquals(Long.valueOf(50), await(pipeline.start()).getResult());
+		Assert.assertEquals(50, pipeline.getStages().get(0).getDropped());
+		Assert.assertEquals(50, pipeline.getStages().get(1).getProcessed());
+	}
+	
+	@Test
+	public void testFailureRejectsTheCompletion() throws Exception {
+		Pipeline pipeline = Pipeline.from(numbers(1000))
+				.stage("parse", 2, 8, new Function<Integer, Integer>() {
+					@Override
+					public Integer apply(Integer value) {
+						if(value == 42) {
+							throw new IllegalArgumentException("Bad record 42");
+						}
+						return value;
+					}
+				})
+				.build();
+		
+		Promise<Long> completion = await(pipeline.start());
+		
+		Assert.assertTrue(completion.isRejected());
+		Assert.assertEquals("Bad record 42", completion.<Exception>getResult().getMessage());
+		Assert.assertTrue(pipeline.getStages().get(0).getProcessed() < 1000);
+	}
+	
+	@Test
+	public void testParallelismOfAStage() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		
+		Pipeline pipeline = Pipeline.from(numbers(20))
+				.stage("slow", 2, 4, new Function<Integer, Integer>() {
+					@Override
+					public Integer apply(Integer value) {
+						int current = running.incrementAndGet();
+						maxRunning.accumulateAndGet(current, Math::max);
+						try {
+							Thread.sleep(2);
+						} catch(InterruptedException ex) {
+							Thread.currentThread().interrupt();
+						}
+						running.decrementAndGet();
+						return value;
+					}
+				})
+				.build();
+		
+		Assert.assertEquals(Long.valueOf(20), await(pipeline.start()).getResult());
+		Assert.assertTrue(maxRunning.get() <= 2);
+	}
+	
+	@Test
+	public void testPipelineStartsOnce() {
+		Pipeline pipeline = Pipeline.from(numbers(1)).stage("only", 1, 1, Function.<Integer>identity()).build();
+		pipeline.start();
+		
+		try {
+			pipeline.start();
+			Assert.fail("The pipeline is started twice.");
+		} catch(IllegalStateException ex) {
+			//expected
+		}
+		
+		try {
+			Pipeline.from(numbers(1)).build();
+			Assert.fail("A pipeline without stages is built.");
+		} catch(IllegalStateException ex) {
+			//expected
+		}
+	}
+	
+	private static List<Integer> numbers(int count) {
+		List<Integer> numbers = new ArrayList<>(count);
+		for(int i = 0; i < count; i++) {
+			numbers.add(i);
+		}
+		return numbers;
+	}
+	
+	private static void awaitSettled(AtomicInteger counter) throws InterruptedException {
+		int last = -1;
+		while(counter.get() != last) {
+			last = counter.get();
+			Thread.sleep(100);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.djava.async.BaseDeferredJavaTest;
+import org.djava.async.Promise;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AsyncFilesTest extends BaseDeferredJavaTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testWriteAllAndReadAll() throws Exception {
+		Path path = folder.newFile().toPath();
+		byte[] data = randomBytes(100000);
+		
+		Promise<Integer> written = await(AsyncFiles.writeAll(path, ByteBuffer.wrap(data)));
+		Assert.assertEquals(Integer.valueOf(data.length), written.getResult());
+		
+		Promise<ByteBuffer> loaded = await(AsyncFiles.readAll(path));
+		Assert.assertArrayEquals(data, toArray(loaded.<ByteBuffer>getResult()));
+	}
+	
+	@Test
+	public void testReadAllOfEmptyFile() throws Exception {
+		Path path = folder.newFile().toPath();
+		
+		Promise<ByteBuffer> loaded = await(AsyncFiles.readAll(path));
+		Assert.assertEquals(0, loaded.<ByteBuffer>getResult().remaining());
+	}
+	
+	@Test
+	public void testReadAllOfMissingFileIsRejected() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("missing");
+		
+		Promise<ByteBuffer> loaded = await(AsyncFiles.readAll(path));
+		Assert.assertTrue(loaded.isRejected());
+		Assert.assertTrue(loaded.getResult() instanceof NoSuchFileException);
+	}
+	
+	@Test
+	public void testReadAndWriteAtPosition() throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, "Hello World!!".getBytes("US-ASCII"));
+		
+		try(AsynchronousFileChannel channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			Promise<Integer> written = await(AsyncFiles.write(channel, ByteBuffer.wrap("Java".getBytes("US-ASCII")), 6));
+			Assert.assertEquals(Integer.valueOf(4), written.getResult());
+			
+			ByteBuffer dst = ByteBuffer.allocate(10);
+			Promise<Integer> read = await(AsyncFiles.read(channel, dst, 6));
+			Assert.assertEquals(Integer.valueOf(7), read.getResult());
+			dst.flip();
+			Assert.assertEquals("Javad!!", new String(toArray(dst), "US-ASCII"));
+			
+			Promise<Integer> end = await(AsyncFiles.read(channel, ByteBuffer.allocate(1), 13));
+			Assert.assertEquals(Integer.valueOf(-1), end.getResult());
+		}
+	}
+	
+	@Test
+	public void testReadChunksInOrder() throws Exception {
+		Path path = folder.newFile().toPath();
+		final byte[] data = randomBytes(1000003);
+		Files.write(path, data);
+		
+		final ByteBuffer copy = ByteBuffer.allocate(data.length);
+		BufferPool pool = new BufferPool(4096, 8);
+		
+		Promise<Long> read = await(AsyncFiles.readChunks(path, new ChunkHandler() {
+			@Override
+			public void onChunk(ByteBuffer chunk, long position) {
+				Assert.assertEquals(copy.position(), position);
+				copy.put(chunk);
+			}
+		}, pool, 4));
+		
+		Assert.assertTrue(read.isFulfilled());
+		Assert.assertEquals(Long.valueOf(data.length), read.getResult());
+		Assert.assertArrayEquals(data, copy.array());
+		//every buffer is back, no more than the pipeline depth was ever needed
+		Assert.assertTrue(pool.getPooledCount() > 0 && pool.getPooledCount() <= 4);
+	}
+	
+	@Test
+	public void testReadChunksOfEmptyFile() throws Exception {
+		Path path = folder.newFile().toPath();
+		
+		Promise<Long> read = await(AsyncFiles.readChunks(path, new ChunkHandler() {
+			@Override
+			public void onChunk(ByteBuffer chunk, long position) {
+				Assert.fail("An empty file has no chunks.");
+			}
+		}));
+		
+		Assert.assertEquals(Long.valueOf(0), read.getResult());
+	}
+	
+	@Test
+	public void testFailingChunkHandlerRejects() throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, randomBytes(100000));
+		
+		final IOException failure = new IOException("Chunk failed");
+		final int[] chunks = new int[1];
+		BufferPool pool = new BufferPool(4096, 8);
+		
+		Promise<Long> read = await(AsyncFiles.readChunks(path, new ChunkHandler() {
+			@Override
+			public void onChunk(ByteBuffer chunk, long position) throws Exception {
+				if(++chunks[0] == 3) {
+					throw failure;
+				}
+			}
+		}, pool, 4));
+		
+		Assert.assertTrue(read.isRejected());
+		Assert.assertSame(failure, read.getResult());
+		Assert.assertEquals(3, chunks[0]);
+		Assert.assertTrue(pool.getPooledCount() <= 4);
+	}
+	
+	@Test
+	public void testBufferPoolRecycles() {
+		BufferPool pool = new BufferPool(1024, 1);
+		
+		ByteBuffer first = pool.acquire();
+		Assert.assertTrue(first.isDirect());
+		Assert.assertEquals(1024, first.capacity());
+		
+		first.put((byte) 1);
+		pool.release(first);
+		Assert.assertEquals(1, pool.getPooledCount());
+		
+		ByteBuffer second = pool.acquire();
+		Assert.assertSame(first, second);
+		Assert.assertEquals(0, second.position());
+		Assert.assertEquals(0, pool.getPooledCount());
+		
+		pool.release(second);
+		pool.release(pool.acquire());
+		pool.release(ByteBuffer.allocateDirect(1024));
+		Assert.assertEquals(1, pool.getPooledCount());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testBufferPoolRejectsForeignBuffer() {
+		new BufferPool(1024, 1).release(ByteBuffer.allocate(1024));
+	}
+	
+	private static byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		new Random(length).nextBytes(data);
+		return data;
+	}
+	
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
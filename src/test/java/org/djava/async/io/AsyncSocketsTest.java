@@ -0,0 +1,329 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousServerSocketChannel;
+import java.nio.channels.AsynchronousSocketChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.BaseDeferredJavaTest;
+import org.djava.async.Promise;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncSocketsTest extends BaseDeferredJavaTest {
+	
+	private AsynchronousServerSocketChannel server;
+	
+	private InetSocketAddress address;
+	
+	@Before
+	public void setup() throws IOException {
+		server = AsynchronousServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		address = (InetSocketAddress) server.getLocalAddress();
+	}
+	
+	@After
+	public void shutdown() throws IOException {
+		server.close();
+	}
+	
+	@Test
+	public void testWriteFullyAndReadFully() throws Exception {
+		Promise<AsynchronousSocketChannel> accepted = AsyncSockets.accept(server);
+		
+		try(AsynchronousSocketChannel client = await(AsyncSockets.connect(address)).getResult();
+				AsynchronousSocketChannel peer = await(accepted).getResult()) {
+			Promise<Long> written = await(AsyncSockets.writeFully(client, 
+					ByteBuffer.wrap("Hello ".getBytes("US-ASCII")), ByteBuffer.allocateDirect(0), 
+					ByteBuffer.wrap("World!!".getBytes("US-ASCII"))));
+			Assert.assertEquals(Long.valueOf(13), written.getResult());
+			
+			Promise<ByteBuffer> read = await(AsyncSockets.readFully(peer, ByteBuffer.allocate(13)));
+			ByteBuffer buffer = read.getResult();
+			Assert.assertEquals("Hello World!!", new String(buffer.array(), "US-ASCII"));
+		}
+	}
+	
+	@Test
+	public void testReadFullyRejectsOnEndOfStream() throws Exception {
+		Promise<AsynchronousSocketChannel> accepted = AsyncSockets.accept(server);
+		
+		AsynchronousSocketChannel client = await(AsyncSockets.connect(address)).getResult();
+		try(AsynchronousSocketChannel peer = await(accepted).getResult()) {
+			await(AsyncSockets.writeFully(client, ByteBuffer.wrap(new byte[2])));
+			client.close();
+			
+			Promise<ByteBuffer> read = await(AsyncSockets.readFully(peer, ByteBuffer.allocate(4)));
+			Assert.assertTrue(read.isRejected());
+			Assert.assertTrue(read.getResult() instanceof EOFException);
+		}
+	}
+	
+	@Test
+	public void testConnectRefusedIsRejected() throws Exception {
+		server.close();
+		
+		Promise<AsynchronousSocketChannel> connected = await(AsyncSockets.connect(address));
+		Assert.assertTrue(connected.isRejected());
+		Assert.assertTrue(connected.getResult() instanceof IOException);
+	}
+	
+	@Test
+	public void testPipelinedFramesAreEchoedInOrder() throws Exception {
+		Promise<AsynchronousSocketChannel> accepted = AsyncSockets.accept(server);
+		
+		//a small read buffer, so the frames span reads and some are larger than the buffer
+		BufferPool pool = new BufferPool(1024, 4);
+		
+		try(FramedChannel client = new FramedChannel(await(AsyncSockets.connect(address)).<AsynchronousSocketChannel>getResult(), pool, 8192);
+				FramedChannel peer = new FramedChannel(await(accepted).<AsynchronousSocketChannel>getResult(), pool, 8192)) {
+			echo(peer);
+			
+			Random random = new Random(42);
+			List<byte[]> sent = new ArrayList<>();
+			for(int i = 0; i < 200; i++) {
+				byte[] payload = new byte[i % 10 == 0 ? random.nextInt(5000) : random.nextInt(100)];
+				random.nextBytes(payload);
+				sent.add(payload);
+				client.writeFrame(ByteBuffer.wrap(payload));
+			}
+			
+			for(byte[] payload : sent) {
+				Promise<ByteBuffer> frame = await(client.readFrame());
+				Assert.assertTrue(frame.isFulfilled());
+				ByteBuffer buffer = frame.getResult();
+				Assert.assertArrayEquals(payload, buffer.array());
+			}
+		}
+		
+		//the pending echo read gives its buffer back when it fails
+		long deadline = System.currentTimeMillis() + 5000;
+		while(pool.getPooledCount() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(1);
+		}
+		Assert.assertEquals(2, pool.getPooledCount());
+	}
+	
+	@Test
+	public void testOversizedFrameIsRejected() throws Exception {
+		Promise<AsynchronousSocketChannel> accepted = AsyncSockets.accept(server);
+		
+		try(FramedChannel client = new FramedChannel(await(AsyncSockets.connect(address)).<AsynchronousSocketChannel>getResult());
+				FramedChannel peer = new FramedChannel(await(accepted).<AsynchronousSocketChannel>getResult(), BufferPool.shared(), 10)) {
+			Promise<Integer> written = await(client.writeFrame(ByteBuffer.wrap(new byte[11])));
+			Assert.assertEquals(Integer.valueOf(11), written.getResult());
+			
+			Promise<ByteBuffer> frame = await(peer.readFrame());
+			Assert.assertTrue(frame.isRejected());
+			Assert.assertEquals("The frame length 11 is invalid.", frame.<Exception>getResult().getMessage());
+		}
+	}
+	
+	@Test
+	public void testEndOfStreamAndClose() throws Exception {
+		Promise<AsynchronousSocketChannel> accepted = AsyncSockets.accept(server);
+		
+		FramedChannel client = new FramedChannel(await(AsyncSockets.connect(address)).<AsynchronousSocketChannel>getResult());
+		try(FramedChannel peer = new FramedChannel(await(accepted).<AsynchronousSocketChannel>getResult())) {
+			Promise<ByteBuffer> frame = peer.readFrame();
+			try {
+				peer.readFrame();
+				Assert.fail("Only one read can be pending.");
+			} catch(IllegalStateException ex) {
+				//expected
+			}
+			
+			client.close();
+			Assert.assertTrue(client.readFrame().getResult() instanceof ClosedChannelException);
+			Assert.assertTrue(client.writeFrame(ByteBuffer.allocate(1)).getResult() instanceof ClosedChannelException);
+			
+			Assert.assertTrue(await(frame).getResult() instanceof EOFException);
+		}
+	}
+	
+	@Test
+	public void testPartialHeaderWriteOfEmptyFrame() throws Exception {
+		Promise<AsynchronousSocketChannel> accepted = AsyncSockets.accept(server);
+		
+		AsynchronousSocketChannel channel = await(AsyncSockets.connect(address)).getResult();
+		try(FramedChannel client = new FramedChannel(new TrickleChannel(channel));
+				FramedChannel peer = new FramedChannel(await(accepted).<AsynchronousSocketChannel>getResult())) {
+			Promise<Integer> empty = client.writeFrame(ByteBuffer.allocate(0));
+			Promise<Integer> hello = client.writeFrame(ByteBuffer.wrap("Hello".getBytes("US-ASCII")));
+			
+			Assert.assertEquals(Integer.valueOf(0), await(empty).getResult());
+			Assert.assertEquals(Integer.valueOf(5), await(hello).getResult());
+			
+			Promise<ByteBuffer> frame = await(peer.readFrame());
+			Assert.assertEquals(0, frame.<ByteBuffer>getResult().remaining());
+			frame = await(peer.readFrame());
+			Assert.assertEquals("Hello", new String(frame.<ByteBuffer>getResult().array(), "US-ASCII"));
+		}
+	}
+	
+	private static void echo(final FramedChannel framed) {
+		framed.readFrame().then(frame -> {
+			framed.writeFrame(frame);
+			echo(framed);
+			return null;
+		});
+	}
+	
+	/**
+	 * A channel which writes at most one byte per gathering write.
+	 */
+	private static class TrickleChannel extends AsynchronousSocketChannel {
+		
+		private final AsynchronousSocketChannel channel;
+		
+		TrickleChannel(AsynchronousSocketChannel channel) {
+			super(channel.provider());
+			this.channel = channel;
+		}
+		
+		@Override
+		public <A> void write(final ByteBuffer[] srcs, int offset, int length, long timeout, TimeUnit unit, 
+				A attachment, final CompletionHandler<Long, ? super A> handler) {
+			int index = offset;
+			while(index < offset + length - 1 && !srcs[index].hasRemaining()) {
+				index++;
+			}
+			
+			final ByteBuffer src = srcs[index];
+			ByteBuffer slice = src.duplicate();
+			slice.limit(slice.position() + Math.min(1, slice.remaining()));
+			channel.write(slice, timeout, unit, attachment, new CompletionHandler<Integer, A>() {
+				@Override
+				public void completed(Integer result, A attachment) {
+					src.position(src.position() + result);
+					handler.completed(Long.valueOf(result), attachment);
+				}
+				
+				@Override
+				public void failed(Throwable exc, A attachment) {
+					handler.failed(exc, attachment);
+				}
+			});
+		}
+		
+		@Override
+		public <A> void write(ByteBuffer src, long timeout, TimeUnit unit, A attachment, CompletionHandler<Integer, ? super A> handler) {
+			channel.write(src, timeout, unit, attachment, handler);
+		}
+		
+		@Override
+		public Future<Integer> write(ByteBuffer src) {
+			return channel.write(src);
+		}
+		
+		@Override
+		public <A> void read(ByteBuffer dst, long timeout, TimeUnit unit, A attachment, CompletionHandler<Integer, ? super A> handler) {
+			channel.read(dst, timeout, unit, attachment, handler);
+		}
+		
+		@Override
+		public Future<Integer> read(ByteBuffer dst) {
+			return channel.read(dst);
+		}
+		
+		@Override
+		public <A> void read(ByteBuffer[] dsts, int offset, int length, long timeout, TimeUnit unit, A attachment, 
+				CompletionHandler<Long, ? super A> handler) {
+			channel.read(dsts, offset, length, timeout, unit, attachment, handler);
+		}
+		
+		@Override
+		public <A> void connect(SocketAddress remote, A attachment, CompletionHandler<Void, ? super A> handler) {
+			channel.connect(remote, attachment, handler);
+		}
+		
+		@Override
+		public Future<Void> connect(SocketAddress remote) {
+			return channel.connect(remote);
+		}
+		
+		@Override
+		public AsynchronousSocketChannel bind(SocketAddress local) throws IOException {
+			channel.bind(local);
+			return this;
+		}
+		
+		@Override
+		public <T> AsynchronousSocketChannel setOption(SocketOption<T> name, T value) throws IOException {
+			channel.setOption(name, value);
+			return this;
+		}
+		
+		@Override
+		public <T> T getOption(SocketOption<T> name) throws IOException {
+			return channel.getOption(name);
+		}
+		
+		@Override
+		public Set<SocketOption<?>> supportedOptions() {
+			return channel.supportedOptions();
+		}
+		
+		@Override
+		public AsynchronousSocketChannel shutdownInput() throws IOException {
+			channel.shutdownInput();
+			return this;
+		}
+		
+		@Override
+		public AsynchronousSocketChannel shutdownOutput() throws IOException {
+			channel.shutdownOutput();
+			return this;
+		}
+		
+		@Override
+		public SocketAddress getRemoteAddress() throws IOException {
+			return channel.getRemoteAddress();
+		}
+		
+		@Override
+		public SocketAddress getLocalAddress() throws IOException {
+			return channel.getLocalAddress();
+		}
+		
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Promise;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFilesTest extends BaseContainerTest {
+	
+	private static final BinaryOperator<Integer> SUM = new BinaryOperator<Integer>() {
+		@Override
+		public Integer apply(Integer left, Integer right) {
+			return left + right;
+		}
+	};
+	
+	private static final BinaryOperator<String> CONCAT = new BinaryOperator<String>() {
+		@Override
+		public String apply(String left, String right) {
+			return left + right;
+		}
+	};
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void testChunksEndOnRecords() throws Exception {
+		Path path = folder.newFile().toPath();
+		StringBuilder content = new StringBuilder();
+		Random random = new Random(7);
+		for(int i = 0; i < 5000; i++) {
+			for(int j = random.nextInt(200); j > 0; j--) {
+				content.append((char) ('a' + random.nextInt(26)));
+			}
+			content.append('\n');
+		}
+		Files.write(path, content.toString().getBytes(StandardCharsets.US_ASCII));
+		
+		Promise<Integer> lines = await(MappedFiles.process(path, MappedFiles.NEW_LINE, 4096, new Function<ByteBuffer, Integer>() {
+			@Override
+			public Integer apply(ByteBuffer chunk) {
+				Assert.assertEquals('\n', chunk.get(chunk.limit() - 1));
+				int count = 0;
+				for(int i = chunk.position(); i < chunk.limit(); i++) {
+					if(chunk.get(i) == '\n') {
+						count++;
+					}
+				}
+				return count;
+			}
+		}, SUM));
+		
+		Assert.assertEquals(Integer.valueOf(5000), lines.getResult());
+	}
+	
+	@Test
+	public void testResultsAreCombinedInFileOrder() throws Exception {
+		Path path = folder.newFile().toPath();
+		StringBuilder content = new StringBuilder();
+		for(int i = 0; i < 2000; i++) {
+			content.append("record-").append(i).append(';');
+		}
+		content.append("last");
+		Files.write(path, content.toString().getBytes(StandardCharsets.US_ASCII));
+		
+		Promise<String> copy = await(MappedFiles.process(path, (byte) ';', 100, new Function<ByteBuffer, String>() {
+			@Override
+			public String apply(ByteBuffer chunk) {
+				return StandardCharsets.US_ASCII.decode(chunk).toString();
+			}
+		}, CONCAT));
+		
+		Assert.assertEquals(content.toString(), copy.getResult());
+	}
+	
+	@Test
+	public void testDefaultChunkSize() throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, "one\ntwo\nthree".getBytes(StandardCharsets.US_ASCII));
+		
+		Promise<Integer> length = await(MappedFiles.process(path, new Function<ByteBuffer, Integer>() {
+			@Override
+			public Integer apply(ByteBuffer chunk) {
+				Assert.assertTrue(chunk.isReadOnly());
+				return chunk.remaining();
+			}
+		}, SUM));
+		
+		Assert.assertEquals(Integer.valueOf(13), length.getResult());
+	}
+	
+	@Test
+	public void testEmptyFileIsOneEmptyChunk() throws Exception {
+		Path path = folder.newFile().toPath();
+		
+		Promise<Integer> length = await(MappedFiles.process(path, new Function<ByteBuffer, Integer>() {
+			@Override
+			public Integer apply(ByteBuffer chunk) {
+				return chunk.remaining();
+			}
+		}, SUM));
+		
+		Assert.assertEquals(Integer.valueOf(0), length.getResult());
+	}
+	
+	@Test
+	public void testMissingFileIsRejected() throws Exception {
+		Path path = folder.getRoot().toPath().resolve("missing");
+		
+		Promise<Integer> length = MappedFiles.process(path, new Function<ByteBuffer, Integer>() {
+			@Override
+			public Integer apply(ByteBuffer chunk) {
+				return chunk.remaining();
+			}
+		}, SUM);
+		
+		Assert.assertTrue(length.isRejected());
+		Assert.assertTrue(length.getResult() instanceof NoSuchFileException);
+	}
+	
+	@Test
+	public void testFailingMapperRejects() throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, "one\ntwo\nthree\n".getBytes(StandardCharsets.US_ASCII));
+		
+		Promise<Integer> length = await(MappedFiles.process(path, MappedFiles.NEW_LINE, 1, new Function<ByteBuffer, Integer>() {
+			@Override
+			public Integer apply(ByteBuffer chunk) {
+				if(chunk.get(0) == 't' && chunk.get(1) == 'w') {
+					throw new IllegalStateException("Bad chunk");
+				}
+				return chunk.remaining();
+			}
+		}, SUM));
+		
+		Assert.assertTrue(length.isRejected());
+		Assert.assertEquals("Bad chunk", length.<Exception>getResult().getMessage());
+	}
+	
+	@Test
+	public void testNullCombinedResultIsNotTheList() throws Exception {
+		Path path = folder.newFile().toPath();
+		Files.write(path, "one\ntwo\nthree\n".getBytes(StandardCharsets.US_ASCII));
+		
+		Promise<Integer> length = await(MappedFiles.process(path, MappedFiles.NEW_LINE, 1, new Function<ByteBuffer, Integer>() {
+			@Override
+			public Integer apply(ByteBuffer chunk) {
+				return chunk.remaining();
+			}
+		}, new BinaryOperator<Integer>() {
+			@Override
+			public Integer apply(Integer left, Integer right) {
+				return null;
+			}
+		}));
+		
+		Assert.assertTrue(length.isFulfilled());
+		Assert.assertNull(length.getResult());
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.jfr;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.util.VoidType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JfrEventsTest extends BaseContainerTest {
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testEventsAreRecorded() throws Exception {
+		Assert.assertTrue(JfrEvents.ENABLED);
+		
+		Path file = Files.createTempFile("deferredjava", ".jfr");
+		try(Recording recording = new Recording()) {
+			recording.enable(TaskQueuedEvent.class);
+			recording.enable(TaskExecutionEvent.class);
+			recording.enable(CallbackExecutionEvent.class);
+			recording.enable(SlowCallbackEvent.class).withThreshold(java.time.Duration.ofMillis(20));
+			recording.enable(WhenCompletedEvent.class);
+			recording.start();
+			
+			final CountDownLatch latch = new CountDownLatch(1);
+			Deferred.when(value("Hello"), value("World")).then(new SuccessCallBack<Object, List<Object>>() {
+				@Override
+				public Object call(List<Object> values) {
+					latch.countDown();
+					return VoidType.NOTHING;
+				}
+			});
+			Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+			
+			Deferred<String> d1 = DeferredFactory.createDeferred();
+			d1.then(new SuccessCallBack<Object, String>() {
+				@Override
+				public Object call(String value) {
+					try {
+						Thread.sleep(30);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+					return VoidType.NOTHING;
+				}
+			});
+			d1.resolve("slow");
+			
+			recording.stop();
+			recording.dump(file);
+		}
+		
+		Map<String, Integer> counts = new HashMap<>();
+		for(RecordedEvent event : RecordingFile.readAllEvents(file)) {
+			String name = event.getEventType().getName();
+			counts.put(name, counts.containsKey(name) ? counts.get(name) + 1 : 1);
+			
+			if("org.djava.async.TaskExecution".equals(name)) {
+				Assert.assertTrue(event.getString("container").startsWith("deferred-container-"));
+				Assert.assertFalse(event.getBoolean("failed"));
+			}
+			if("org.djava.async.WhenCompleted".equals(name)) {
+				Assert.assertEquals(2, event.getInt("inputs"));
+			}
+		}
+		Files.delete(file);
+		
+		Assert.assertEquals(Integer.valueOf(2), counts.get("org.djava.async.TaskQueued"));
+		Assert.assertEquals(Integer.valueOf(2), counts.get("org.djava.async.TaskExecution"));
+		Assert.assertEquals(Integer.valueOf(1), counts.get("org.djava.async.WhenCompleted"));
+		Assert.assertEquals(Integer.valueOf(1), counts.get("org.djava.async.SlowCallback"));
+		Assert.assertTrue(counts.get("org.djava.async.CallbackExecution") >= 4);
+	}
+	
+	@Test
+	public void testNothingIsAllocatedWithoutARecording() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		
+		//loads the classes
+		JfrEvents.callbackStarted();
+		JfrEvents.taskStarted();
+		JfrEvents.whenStarted();
+		JfrEvents.taskQueued("container", Object.class, Collections.emptyList());
+		
+		long before = threads.getThreadAllocatedBytes(thread);
+		for(int i = 0; i < 10000; i++) {
+			Assert.assertNull(JfrEvents.callbackStarted());
+			Assert.assertNull(JfrEvents.taskStarted());
+			Assert.assertNull(JfrEvents.whenStarted());
+			JfrEvents.taskQueued("container", Object.class, Collections.emptyList());
+		}
+		long bytes = threads.getThreadAllocatedBytes(thread) - before;
+		
+		//the measurement itself may allocate a little
+		Assert.assertTrue("Allocated " + bytes + " bytes without a recording", bytes < 1024);
+	}
+	
+	private Callable<Object> value(final String value) {
+		return new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return value;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Deferred;
+import org.djava.async.util.DeferredContainer;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContainerMetricsTest extends BaseContainerTest {
+	
+	@Test
+	public void testHistogramBuckets() {
+		for(long value : new long[] {0, 1, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE}) {
+			int index = LogLinearHistogram.bucketIndex(value);
+			Assert.assertTrue(LogLinearHistogram.bucketLowerBound(index) <= value);
+			Assert.assertTrue(LogLinearHistogram.bucketUpperBound(index) >= value);
+		}
+		
+		LogLinearHistogram histogram = new LogLinearHistogram();
+		for(long i = 1; i <= 10000; i++) {
+			histogram.record(i * 1000);
+		}
+		
+		HistogramSnapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(10000, snapshot.getCount());
+		Assert.assertEquals(10000000, snapshot.getMax());
+		Assert.assertEquals(5000500.0, snapshot.getMean(), 0.001);
+		Assert.assertEquals(5000000, snapshot.getPercentile(50), 5000000 / LogLinearHistogram.SUB_BUCKETS);
+		Assert.assertEquals(9900000, snapshot.getPercentile(99), 9900000 / LogLinearHistogram.SUB_BUCKETS);
+	}
+	
+	@Test
+	public void testContainerMetrics() throws Exception {
+		ContainerMetrics metrics = DeferredContainer.getContainer().getMetrics();
+		ContainerMetricsSnapshot before = metrics.snapshot();
+		
+		final CountDownLatch latch = new CountDownLatch(20);
+		for(int i = 0; i < 20; i++) {
+			final int n = i;
+			Deferred.when(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					latch.countDown();
+					if(n % 10 == 0) {
+						throw new RuntimeException("failed");
+					}
+					return n;
+				}
+			});
+		}
+		
+		Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+		
+		ContainerMetricsSnapshot after = metrics.snapshot();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(after.getSettleLatency().getCount() - before.getSettleLatency().getCount() < 20
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			after = metrics.snapshot();
+		}
+		
+		Assert.assertEquals(20, after.getSubmittedTasks() - before.getSubmittedTasks());
+		Assert.assertEquals(18, after.getCompletedTasks() - before.getCompletedTasks());
+		Assert.assertEquals(2, after.getFailedTasks() - before.getFailedTasks());
+		Assert.assertEquals(20, after.getRunTime().getCount() - before.getRunTime().getCount());
+		Assert.assertEquals(20, after.getSettleLatency().getCount() - before.getSettleLatency().getCount());
+		Assert.assertTrue(after.getThroughputSince(before) > 0);
+		
+		Object submitted = ManagementFactory.getPlatformMBeanServer().getAttribute(metrics.getObjectName(), "SubmittedTasks");
+		Assert.assertEquals(after.getSubmittedTasks(), ((Long) submitted).longValue());
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.stream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PromiseStreamTest extends BaseContainerTest {
+	
+	@Test
+	public void testSynchronousOperatorsDoNotNest() {
+		//a long synchronous stream with most of the items filtered out
+		Promise<Long> sum = PromiseStream.from(range(0, 200000))
+			.filter(value -> value % 1000 == 0)
+			.map(value -> (long) value)
+			.reduce(0L, (total, value) -> total + value);
+		
+		Assert.assertTrue(sum.isFulfilled());
+		Assert.assertEquals(Long.valueOf(19900000L), sum.getResult());
+	}
+	
+	@Test
+	public void testMapAsyncKeepsOrderAndBoundsConcurrency() throws Exception {
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+		
+		Promise<List<Integer>> result = await(PromiseStream.from(range(0, 100))
+			.mapAsync(value -> Deferred.when(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+					Thread.sleep((value * 7) % 5);
+					inFlight.decrementAndGet();
+					return value * 2;
+				}
+			}), 4)
+			.collect());
+		
+		List<Integer> expected = new ArrayList<>();
+		for(int i = 0; i < 100; i++) {
+			expected.add(i * 2);
+		}
+		Assert.assertEquals(expected, result.getResult());
+		Assert.assertTrue(maxInFlight.get() <= 4);
+	}
+	
+	@Test
+	public void testMapAsyncUnorderedEmitsInCompletionOrder() {
+		List<Deferred<Integer>> pending = new ArrayList<>();
+		
+		Promise<List<Integer>> result = PromiseStream.of(0, 1, 2, 3)
+			.mapAsyncUnordered(value -> {
+				Deferred<Integer> deferred = DeferredFactory.createDeferred();
+				pending.add(deferred);
+				return deferred.promise();
+			}, 4)
+			.collect();
+		
+		Assert.assertEquals(4, pending.size());
+		for(int i = 3; i >= 0; i--) {
+			pending.get(i).resolve(i);
+		}
+		
+		Assert.assertEquals(Arrays.asList(3, 2, 1, 0), result.getResult());
+	}
+	
+	@Test
+	public void testSourceIsReadOnlyAsFarAsTheWindow() {
+		final AtomicInteger read = new AtomicInteger();
+		final Iterator<Integer> source = range(0, 1000).iterator();
+		List<Deferred<Integer>> pending = new ArrayList<>();
+		
+		Promise<List<Integer>> result = PromiseStream.from(new Iterator<Integer>() {
+			@Override
+			public boolean hasNext() {
+				return source.hasNext();
+			}
+			
+			@Override
+			public Integer next() {
+				read.incrementAndGet();
+				return source.next();
+			}
+		}).mapAsync(value -> {
+			Deferred<Integer> deferred = DeferredFactory.createDeferred();
+			pending.add(deferred);
+			return deferred.promise();
+		}, 3).collect();
+		
+		Assert.assertEquals(3, read.get());
+		
+		//the head frees one place in the window
+		pending.get(0).resolve(0);
+		Assert.assertEquals(4, read.get());
+		
+		for(int i = 1; i < 1000; i++) {
+			pending.get(i).resolve(i);
+		}
+		Assert.assertEquals(1000, result.<List<Integer>>getResult().size());
+	}
+	
+	@Test
+	public void testFlatMapAsync() {
+		Promise<List<Integer>> result = PromiseStream.of(1, 2, 3)
+			.flatMapAsync(value -> resolved(value == 2 ? new ArrayList<Integer>() : Arrays.asList(value, value * 10)), 2)
+			.collect();
+		
+		Assert.assertEquals(Arrays.asList(1, 10, 3, 30), result.getResult());
+	}
+	
+	@Test
+	public void testBuffer() {
+		Promise<List<List<Integer>>> result = PromiseStream.from(range(1, 8)).buffer(3).collect();
+		
+		Assert.assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4, 5, 6), Arrays.asList(7)), result.getResult());
+		Assert.assertEquals(0, PromiseStream.of().buffer(3).collect().<List<?>>getResult().size());
+	}
+	
+	@Test
+	public void testForEach() {
+		final List<String> seen = new ArrayList<>();
+		
+		Promise<Long> count = PromiseStream.of("a", "b", "c").forEach(seen::add);
+		
+		Assert.assertEquals(Long.valueOf(3), count.getResult());
+		Assert.assertEquals(Arrays.asList("a", "b", "c"), seen);
+	}
+	
+	@Test
+	public void testRejectedMappingRejectsTheStream() {
+		final RuntimeException failure = new RuntimeException("Mapping failed");
+		
+		Promise<List<Integer>> result = PromiseStream.from(range(0, 10))
+			.mapAsync(value -> {
+				Deferred<Integer> deferred = DeferredFactory.createDeferred();
+				if(value == 5) {
+					deferred.reject(failure);
+				} else {
+					deferred.resolve(value);
+				}
+				return deferred.promise();
+			}, 2)
+			.collect();
+		
+		Assert.assertTrue(result.isRejected());
+		Assert.assertSame(failure, result.getResult());
+	}
+	
+	@Test
+	public void testNullMappedValueRejectsTheStream() {
+		Promise<List<Integer>> result = PromiseStream.of(1, 2)
+			.mapAsync(value -> this.<Integer>resolved(null), 2)
+			.collect();
+		
+		Assert.assertTrue(result.isRejected());
+		Assert.assertTrue(result.getResult() instanceof NullPointerException);
+	}
+	
+	@Test
+	public void testThrowingMapperRejectsTheStream() {
+		Promise<List<Integer>> result = PromiseStream.of(1, 2)
+			.map((Function<Integer, Integer>) value -> {
+				throw new IllegalStateException("Bad value");
+			})
+			.collect();
+		
+		Assert.assertTrue(result.isRejected());
+		Assert.assertEquals("Bad value", result.<Exception>getResult().getMessage());
+	}
+	
+	private <R> Promise<R> resolved(R value) {
+		Deferred<R> deferred = DeferredFactory.createDeferred();
+		deferred.resolve(value);
+		return deferred.promise();
+	}
+	
+	private static List<Integer> range(int from, int to) {
+		List<Integer> values = new ArrayList<>();
+		for(int i = from; i < to; i++) {
+			values.add(i);
+		}
+		return values;
+	}
+}
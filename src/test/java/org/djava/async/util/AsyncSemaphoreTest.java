@@ -0,0 +1,213 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.djava.async.PromiseScope;
+import org.djava.async.util.AsyncSemaphore.Permit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AsyncSemaphoreTest extends BaseContainerTest {
+	
+	@Test
+	public void testWaitersAreServedInOrder() {
+		AsyncSemaphore semaphore = new AsyncSemaphore(2);
+		
+		Promise<Permit> first = semaphore.acquire();
+		Promise<Permit> second = semaphore.acquire();
+		Assert.assertTrue(first.isFulfilled());
+		Assert.assertTrue(second.isFulfilled());
+		Assert.assertEquals(0, semaphore.availablePermits());
+		
+		Promise<Permit> third = semaphore.acquire();
+		Promise<Permit> fourth = semaphore.acquire();
+		Assert.assertTrue(third.isPending());
+		Assert.assertEquals(2, semaphore.getWaiterCount());
+		
+		first.<Permit>getResult().release();
+		Assert.assertTrue(third.isFulfilled());
+		Assert.assertTrue(fourth.isPending());
+		
+		second.<Permit>getResult().release();
+		Assert.assertTrue(fourth.isFulfilled());
+		
+		third.<Permit>getResult().release();
+		fourth.<Permit>getResult().release();
+		Assert.assertEquals(2, semaphore.availablePermits());
+	}
+	
+	@Test
+	public void testPermitIsReleasedOnce() {
+		AsyncSemaphore semaphore = new AsyncSemaphore(1);
+		
+		Permit permit = semaphore.acquire().getResult();
+		permit.release();
+		permit.release();
+		
+		Assert.assertEquals(1, semaphore.availablePermits());
+	}
+	
+	@Test
+	public void testCancelledWaiterGivesThePermitBack() {
+		AsyncSemaphore semaphore = new AsyncSemaphore(1);
+		Permit permit = semaphore.acquire().getResult();
+		
+		PromiseScope scope = PromiseScope.open();
+		Promise<Permit> cancelled = semaphore.acquire();
+		scope.close();
+		Promise<Permit> waiting = semaphore.acquire();
+		
+		Assert.assertTrue(cancelled.getResult() instanceof CancellationException);
+		
+		permit.release();
+		Assert.assertTrue(waiting.isFulfilled());
+		Assert.assertEquals(0, semaphore.availablePermits());
+		
+		scope = PromiseScope.open();
+		cancelled = semaphore.acquire();
+		scope.close();
+		
+		waiting.<Permit>getResult().release();
+		Assert.assertEquals(1, semaphore.availablePermits());
+		Assert.assertEquals(0, semaphore.getWaiterCount());
+		Assert.assertTrue(semaphore.acquire().isFulfilled());
+	}
+	
+	@Test
+	public void testTooManyWaitersAreRejected() {
+		AsyncSemaphore semaphore = new AsyncSemaphore(1, 2);
+		
+		semaphore.acquire();
+		semaphore.acquire();
+		semaphore.acquire();
+		Promise<Permit> rejected = semaphore.acquire();
+		
+		Assert.assertTrue(rejected.isRejected());
+		Assert.assertTrue(rejected.getResult() instanceof RejectedExecutionException);
+		Assert.assertEquals(2, semaphore.getWaiterCount());
+	}
+	
+	@Test
+	public void testConcurrentAcquiresAndReleases() throws Exception {
+		final AsyncSemaphore semaphore = new AsyncSemaphore(3);
+		final AtomicInteger granted = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(4);
+		
+		for(int i = 0; i < 4; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < 10000; j++) {
+						semaphore.acquire().then(permit -> {
+							granted.incrementAndGet();
+							permit.release();
+							return null;
+						});
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(40000, granted.get());
+		Assert.assertEquals(3, semaphore.availablePermits());
+		Assert.assertEquals(0, semaphore.getWaiterCount());
+	}
+	
+	@Test
+	public void testWithPermitBoundsConcurrency() throws Exception {
+		AsyncSemaphore semaphore = new AsyncSemaphore(2);
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		
+		List<Promise<Integer>> results = new ArrayList<>();
+		for(int i = 0; i < 20; i++) {
+			final int value = i;
+			results.add(semaphore.withPermit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+					Thread.sleep(2);
+					running.decrementAndGet();
+					return value;
+				}
+			}));
+		}
+		
+		for(int i = 0; i < 20; i++) {
+			Assert.assertEquals(Integer.valueOf(i), await(results.get(i)).getResult());
+		}
+		Assert.assertTrue(maxRunning.get() <= 2);
+		Assert.assertEquals(2, semaphore.availablePermits());
+	}
+	
+	@Test
+	public void testFailingCallableReleasesThePermit() throws Exception {
+		AsyncSemaphore semaphore = new AsyncSemaphore(1);
+		
+		Promise<Object> result = await(semaphore.withPermit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				throw new IllegalStateException("Call failed");
+			}
+		}));
+		
+		Assert.assertEquals("Call failed", result.<Exception>getResult().getMessage());
+		Assert.assertEquals(1, semaphore.availablePermits());
+	}
+	
+	@Test
+	public void testWithPermitAsyncHoldsThePermitUntilSettled() {
+		AsyncSemaphore semaphore = new AsyncSemaphore(1);
+		final Deferred<String> operation = DeferredFactory.createDeferred();
+		
+		Promise<String> first = semaphore.withPermitAsync(new Callable<Promise<String>>() {
+			@Override
+			public Promise<String> call() {
+				return operation.promise();
+			}
+		});
+		Promise<String> second = semaphore.withPermitAsync(new Callable<Promise<String>>() {
+			@Override
+			public Promise<String> call() {
+				Deferred<String> deferred = DeferredFactory.createDeferred();
+				deferred.resolve("second");
+				return deferred.promise();
+			}
+		});
+		
+		Assert.assertTrue(second.isPending());
+		
+		operation.resolve("first");
+		Assert.assertEquals("first", first.getResult());
+		Assert.assertEquals("second", second.getResult());
+		Assert.assertEquals(1, semaphore.availablePermits());
+	}
+}
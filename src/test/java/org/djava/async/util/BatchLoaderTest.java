@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Promise;
+import org.djava.async.PromiseScope;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchLoaderTest extends BaseContainerTest {
+	
+	private final List<Set<String>> batches = new ArrayList<>();
+	
+	private final BatchLoader.BulkLoader<String, Integer> lengths = new BatchLoader.BulkLoader<String, Integer>() {
+		@Override
+		public Map<String, Integer> loadAll(Set<String> keys) {
+			synchronized(batches) {
+				batches.add(keys);
+			}
+			
+			Map<String, Integer> values = new HashMap<>();
+			for(String key : keys) {
+				if(!key.startsWith("missing")) {
+					values.put(key, key.length());
+				}
+			}
+			return values;
+		}
+	};
+	
+	@Test
+	public void testKeysAreCoalescedAndDeduplicated() throws Exception {
+		BatchLoader<String, Integer> loader = new BatchLoader<>(lengths, 100, 50, TimeUnit.MILLISECONDS);
+		
+		Promise<Integer> a = loader.load("a");
+		Promise<Integer> bb = loader.load("bb");
+		Promise<Integer> again = loader.load("a");
+		Promise<Integer> missing = loader.load("missing");
+		
+		Assert.assertSame(a, again);
+		Assert.assertEquals(Integer.valueOf(1), await(a).getResult());
+		Assert.assertEquals(Integer.valueOf(2), await(bb).getResult());
+		Assert.assertTrue(await(missing).isFulfilled());
+		Assert.assertNull(missing.getResult());
+		
+		Assert.assertEquals(1, batches.size());
+		Assert.assertEquals(3, batches.get(0).size());
+	}
+	
+	@Test
+	public void testFullBatchIsDispatchedAtOnce() throws Exception {
+		//a long window, only the batch size closes the batches
+		BatchLoader<String, Integer> loader = new BatchLoader<>(lengths, 3, 1, TimeUnit.HOURS);
+		
+		Promise<List<Integer>> values = loader.loadMany(Arrays.asList("a", "bb", "missing", "dddd", "eeeee", "ffffff"));
+		
+		Assert.assertEquals(Arrays.asList(1, 2, null, 4, 5, 6), await(values).getResult());
+		Assert.assertEquals(2, batches.size());
+	}
+	
+	@Test
+	public void testDispatchClosesTheBatch() throws Exception {
+		BatchLoader<String, Integer> loader = new BatchLoader<>(lengths, 100, 1, TimeUnit.HOURS);
+		
+		Promise<Integer> a = loader.load("a");
+		loader.dispatch();
+		
+		Assert.assertEquals(Integer.valueOf(1), await(a).getResult());
+		
+		//the next key starts a new batch
+		Promise<Integer> bb = loader.load("bb");
+		loader.dispatch();
+		Assert.assertEquals(Integer.valueOf(2), await(bb).getResult());
+		Assert.assertEquals(2, batches.size());
+	}
+	
+	@Test
+	public void testCancelledKeyDoesNotStrandTheBatch() throws Exception {
+		BatchLoader<String, Integer> loader = new BatchLoader<>(lengths, 100, 1, TimeUnit.HOURS);
+		
+		PromiseScope scope = PromiseScope.open();
+		Promise<Integer> a = loader.load("a");
+		scope.close();
+		Promise<Integer> bb = loader.load("bb");
+		loader.dispatch();
+		
+		Assert.assertTrue(a.getResult() instanceof CancellationException);
+		Assert.assertEquals(Integer.valueOf(2), await(bb).getResult());
+	}
+	
+	@Test
+	public void testCancelledKeyDoesNotStrandTheRejection() throws Exception {
+		BatchLoader<String, Integer> loader = new BatchLoader<>(new BatchLoader.BulkLoader<String, Integer>() {
+			@Override
+			public Map<String, Integer> loadAll(Set<String> keys) throws Exception {
+				throw new IllegalStateException("Bulk load failed");
+			}
+		}, 100, 1, TimeUnit.HOURS);
+		
+		PromiseScope scope = PromiseScope.open();
+		loader.load("a");
+		scope.close();
+		Promise<Integer> b = loader.load("b");
+		loader.dispatch();
+		
+		Assert.assertEquals("Bulk load failed", await(b).<Exception>getResult().getMessage());
+	}
+	
+	@Test
+	public void testFailedBulkLoadRejectsTheBatch() throws Exception {
+		BatchLoader<String, Integer> loader = new BatchLoader<>(new BatchLoader.BulkLoader<String, Integer>() {
+			@Override
+			public Map<String, Integer> loadAll(Set<String> keys) throws Exception {
+				throw new IllegalStateException("Bulk load failed");
+			}
+		}, 100, 10, TimeUnit.MILLISECONDS);
+		
+		Promise<Integer> a = loader.load("a");
+		Promise<Integer> b = loader.load("b");
+		
+		Assert.assertEquals("Bulk load failed", await(a).<Exception>getResult().getMessage());
+		Assert.assertTrue(await(b).isRejected());
+	}
+}
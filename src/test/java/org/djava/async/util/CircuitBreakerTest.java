@@ -0,0 +1,228 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.djava.async.util.CircuitBreaker.State;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest extends BaseContainerTest {
+	
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	@Test
+	public void testOpensOnTheFailureRate() {
+		CircuitBreaker breaker = breaker(new FakeTicker(), Long.MAX_VALUE);
+		
+		succeed(breaker);
+		fail(breaker);
+		succeed(breaker);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		
+		fail(breaker);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		
+		final AtomicInteger calls = new AtomicInteger();
+		Promise<String> result = breaker.executeAsync(new Callable<Promise<String>>() {
+			@Override
+			public Promise<String> call() {
+				calls.incrementAndGet();
+				return DeferredFactory.<String>createDeferred().promise();
+			}
+		});
+		
+		Assert.assertTrue(result.isRejected());
+		Assert.assertTrue(result.getResult() instanceof RejectedExecutionException);
+		Assert.assertEquals(0, calls.get());
+		
+		Promise<String> again = breaker.execute(new Callable<String>() {
+			@Override
+			public String call() {
+				return "again";
+			}
+		});
+		Assert.assertTrue(again.isRejected());
+		Assert.assertNotSame(result.getResult(), again.getResult());
+	}
+	
+	@Test
+	public void testOldOutcomesLeaveTheWindow() {
+		CircuitBreaker breaker = breaker(new FakeTicker(), Long.MAX_VALUE);
+		
+		fail(breaker);
+		succeed(breaker);
+		succeed(breaker);
+		succeed(breaker);
+		
+		//the first failure leaves the window
+		succeed(breaker);
+		fail(breaker);
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		
+		fail(breaker);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+	}
+	
+	@Test
+	public void testProbesCloseTheBreaker() {
+		FakeTicker ticker = new FakeTicker();
+		CircuitBreaker breaker = open(ticker);
+		
+		ticker.sleep(500);
+		Assert.assertTrue(pending(breaker).promise().isRejected());
+		
+		ticker.sleep(500);
+		Deferred<String> first = pending(breaker);
+		Deferred<String> second = pending(breaker);
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		Assert.assertTrue(pending(breaker).promise().isRejected());
+		
+		first.resolve("first");
+		second.resolve("second");
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		Assert.assertTrue(pending(breaker).promise().isPending());
+	}
+	
+	@Test
+	public void testFailedProbeOpensTheBreaker() {
+		FakeTicker ticker = new FakeTicker();
+		CircuitBreaker breaker = open(ticker);
+		
+		ticker.sleep(1000);
+		fail(breaker);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		Assert.assertTrue(pending(breaker).promise().isRejected());
+	}
+	
+	@Test
+	public void testLateResultIsNotAProbe() {
+		FakeTicker ticker = new FakeTicker();
+		CircuitBreaker breaker = breaker(ticker, Long.MAX_VALUE);
+		
+		Deferred<String> late = pending(breaker);
+		fail(breaker);
+		fail(breaker);
+		fail(breaker);
+		fail(breaker);
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		
+		ticker.sleep(1000);
+		Deferred<String> probe = pending(breaker);
+		late.resolve("late");
+		succeed(breaker);
+		Assert.assertEquals(State.HALF_OPEN, breaker.getState());
+		
+		probe.resolve("probe");
+		Assert.assertEquals(State.CLOSED, breaker.getState());
+		Assert.assertEquals("late", late.promise().getResult());
+	}
+	
+	@Test
+	public void testOpensOnTheSlowCallRate() {
+		FakeTicker ticker = new FakeTicker();
+		CircuitBreaker breaker = breaker(ticker, 100 * MILLIS);
+		
+		for(int i = 0; i < 4; i++) {
+			Deferred<String> call = pending(breaker);
+			ticker.sleep(i < 2 ? 10 : 100);
+			call.resolve("slow");
+		}
+		
+		Assert.assertEquals(State.OPEN, breaker.getState());
+	}
+	
+	@Test
+	public void testOpenBreakerSubmitsNoTask() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker(0.5, 2, 1, TimeUnit.MINUTES);
+		Callable<String> failing = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				throw new IllegalStateException("Call failed");
+			}
+		};
+		
+		Promise<String> first = await(breaker.execute(failing));
+		Promise<String> second = await(breaker.execute(failing));
+		Assert.assertEquals("Call failed", first.<Exception>getResult().getMessage());
+		Assert.assertTrue(second.isRejected());
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		
+		long submitted = DeferredContainer.getContainer().getMetrics().getSubmittedTasks();
+		Promise<String> third = breaker.execute(failing);
+		Assert.assertTrue(third.isRejected());
+		Assert.assertTrue(third.getResult() instanceof RejectedExecutionException);
+		Assert.assertEquals(submitted, DeferredContainer.getContainer().getMetrics().getSubmittedTasks());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testMinimumCallsAboveTheWindow() {
+		new CircuitBreaker(0.5, 1.0, 1, 4, 5, 1, 1, TimeUnit.SECONDS);
+	}
+	
+	private static CircuitBreaker breaker(FakeTicker ticker, long slowCallDuration) {
+		return new CircuitBreaker(0.5, 0.5, slowCallDuration, 4, 4, 1000 * MILLIS, 2, ticker);
+	}
+	
+	private static CircuitBreaker open(FakeTicker ticker) {
+		CircuitBreaker breaker = breaker(ticker, Long.MAX_VALUE);
+		for(int i = 0; i < 4; i++) {
+			fail(breaker);
+		}
+		Assert.assertEquals(State.OPEN, breaker.getState());
+		return breaker;
+	}
+	
+	private static Deferred<String> pending(CircuitBreaker breaker) {
+		final Deferred<String> deferred = DeferredFactory.createDeferred();
+		Promise<String> promise = breaker.executeAsync(new Callable<Promise<String>>() {
+			@Override
+			public Promise<String> call() {
+				return deferred.promise();
+			}
+		});
+		
+		if(!promise.isPending()) {
+			return rejected(promise);
+		}
+		return deferred;
+	}
+	
+	private static Deferred<String> rejected(Promise<String> promise) {
+		Deferred<String> deferred = DeferredFactory.createDeferred();
+		deferred.reject(promise.<Exception>getResult());
+		return deferred;
+	}
+	
+	private static void succeed(CircuitBreaker breaker) {
+		pending(breaker).resolve("ok");
+	}
+	
+	private static void fail(CircuitBreaker breaker) {
+		Deferred<String> call = pending(breaker);
+		if(call.promise().isPending()) {
+			call.reject(new IllegalStateException("Call failed"));
+		}
+	}
+}
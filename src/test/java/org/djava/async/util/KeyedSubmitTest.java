@@ -0,0 +1,181 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyedSubmitTest extends BaseContainerTest {
+	
+	@Test
+	public void testOrderPerKey() throws InterruptedException {
+		final int keys = 8;
+		final int tasksPerKey = 500;
+		
+		final List<List<Integer>> results = new ArrayList<>();
+		for(int i = 0; i < keys; i++) {
+			results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+		}
+		
+		final CountDownLatch latch = new CountDownLatch(keys * tasksPerKey);
+		
+		for(int n = 0; n < tasksPerKey; n++) {
+			for(int k = 0; k < keys; k++) {
+				final int key = k;
+				final int value = n;
+				DeferredContainer.getContainer().submit("account-" + key, new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						results.get(key).add(value);
+						latch.countDown();
+						return value;
+					}
+				});
+			}
+		}
+		
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		
+		for(List<Integer> result : results) {
+			Assert.assertEquals(tasksPerKey, result.size());
+			for(int i = 0; i < tasksPerKey; i++) {
+				Assert.assertEquals(Integer.valueOf(i), result.get(i));
+			}
+		}
+	}
+	
+	@Test
+	public void testNoOverlapPerKey() throws InterruptedException {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final CountDownLatch latch = new CountDownLatch(200);
+		
+		for(int i = 0; i < 200; i++) {
+			DeferredContainer.getContainer().submit("same", new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					if(running.incrementAndGet() > 1) {
+						overlaps.incrementAndGet();
+					}
+					Thread.yield();
+					running.decrementAndGet();
+					latch.countDown();
+					return 0;
+				}
+			});
+		}
+		
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(0, overlaps.get());
+	}
+	
+	@Test
+	public void testIdleKeysEvicted() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(100);
+		
+		for(int i = 0; i < 100; i++) {
+			DeferredContainer.getContainer().submit(i, new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					latch.countDown();
+					return 0;
+				}
+			});
+		}
+		
+		Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		
+		long deadline = System.currentTimeMillis() + 5000;
+		while(DeferredContainer.getContainer().activeKeyCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		Assert.assertEquals(0, DeferredContainer.getContainer().activeKeyCount());
+	}
+	
+	@Test
+	public void testConcurrentSubmittersRunEveryTaskOnce() throws Exception {
+		final int submitters = 4;
+		final int tasksPerSubmitter = 20000;
+		final AtomicIntegerArray runs = new AtomicIntegerArray(submitters * tasksPerSubmitter);
+		final List<List<Promise<Integer>>> promises = new ArrayList<>();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		
+		for(int t = 0; t < submitters; t++) {
+			final int submitter = t;
+			final List<Promise<Integer>> submitted = new ArrayList<>(tasksPerSubmitter);
+			promises.add(submitted);
+			
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch(InterruptedException ex) {
+						return;
+					}
+					
+					for(int i = 0; i < tasksPerSubmitter; i++) {
+						final int id = submitter * tasksPerSubmitter + i;
+						//few keys and short tasks, so that the queues die and are created again all the time
+						submitted.add(DeferredContainer.getContainer().submit(i % 2, new Callable<Integer>() {
+							@Override
+							public Integer call() {
+								runs.incrementAndGet(id);
+								return id;
+							}
+						}));
+					}
+				}
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join(30000);
+		}
+		
+		long deadline = System.currentTimeMillis() + 30000;
+		for(List<Promise<Integer>> submitted : promises) {
+			Assert.assertEquals(tasksPerSubmitter, submitted.size());
+			for(Promise<Integer> promise : submitted) {
+				while(promise.isPending() && System.currentTimeMillis() < deadline) {
+					Thread.sleep(1);
+				}
+				Assert.assertTrue("A task is lost.", promise.isFulfilled());
+			}
+		}
+		
+		for(int id = 0; id < runs.length(); id++) {
+			Assert.assertEquals("Runs of the task " + id, 1, runs.get(id));
+		}
+	}
+
+}
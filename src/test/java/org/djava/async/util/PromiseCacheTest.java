@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.Promise;
+import org.djava.async.PromiseScope;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PromiseCacheTest {
+	
+	private final ConcurrentHashMap<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+	
+	private final List<Deferred<String>> pending = new ArrayList<>();
+	
+	private final AtomicLong time = new AtomicLong();
+	
+	private final LongSupplier ticker = new LongSupplier() {
+		@Override
+		public long getAsLong() {
+			return time.get();
+		}
+	};
+	
+	/**
+	 * Loads a key into the key itself, the loads stay pending until they are resolved by the test.
+	 */
+	private final Function<String, Promise<String>> pendingLoader = new Function<String, Promise<String>>() {
+		@Override
+		public Promise<String> apply(String key) {
+			count(key);
+			Deferred<String> deferred = DeferredFactory.createDeferred();
+			synchronized(pending) {
+				pending.add(deferred);
+			}
+			return deferred.promise();
+		}
+	};
+	
+	private final Function<String, Promise<String>> loader = new Function<String, Promise<String>>() {
+		@Override
+		public Promise<String> apply(String key) {
+			Deferred<String> deferred = DeferredFactory.createDeferred();
+			deferred.resolve(key + "#" + count(key));
+			return deferred.promise();
+		}
+	};
+	
+	@Test
+	public void testConcurrentCallersShareOneLoad() throws Exception {
+		final PromiseCache<String, String> cache = new PromiseCache<>(pendingLoader, 100);
+		final List<Promise<String>> promises = new ArrayList<>();
+		final CountDownLatch done = new CountDownLatch(4);
+		
+		for(int i = 0; i < 4; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for(int j = 0; j < 100; j++) {
+						Promise<String> promise = cache.get("key");
+						synchronized(promises) {
+							promises.add(promise);
+						}
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(1, loads("key"));
+		
+		pending.get(0).resolve("value");
+		for(Promise<String> promise : promises) {
+			Assert.assertEquals("value", promise.getResult());
+		}
+		
+		Assert.assertEquals("value", cache.get("key").getResult());
+		Assert.assertEquals(1, loads("key"));
+	}
+	
+	@Test
+	public void testRejectedLoadIsNotKept() {
+		PromiseCache<String, String> cache = new PromiseCache<>(pendingLoader, 100);
+		
+		Promise<String> first = cache.get("key");
+		pending.get(0).reject(new RuntimeException("Load failed"));
+		Assert.assertTrue(first.isRejected());
+		
+		Promise<String> second = cache.get("key");
+		Assert.assertEquals(2, loads("key"));
+		pending.get(1).resolve("value");
+		Assert.assertEquals("value", second.getResult());
+		Assert.assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void testCancelledCallerDoesNotPoisonTheEntry() {
+		final Deferred<String> load = DeferredFactory.createDeferred();
+		PromiseCache<String, String> cache = new PromiseCache<>(new Function<String, Promise<String>>() {
+			@Override
+			public Promise<String> apply(String key) {
+				count(key);
+				return load.promise();
+			}
+		}, 100);
+		
+		PromiseScope scope = PromiseScope.open();
+		Promise<String> first = cache.get("key");
+		scope.close();
+		Assert.assertTrue(first.isRejected());
+		Assert.assertTrue(first.getResult() instanceof CancellationException);
+		
+		load.resolve("value");
+		
+		Promise<String> second = cache.get("key");
+		Assert.assertTrue(second.isFulfilled());
+		Assert.assertEquals("value", second.getResult());
+		Assert.assertEquals(1, loads("key"));
+	}
+	
+	@Test
+	public void testThrowingLoaderRejects() {
+		PromiseCache<String, String> cache = new PromiseCache<>(new Function<String, Promise<String>>() {
+			@Override
+			public Promise<String> apply(String key) {
+				throw new IllegalStateException("No loader");
+			}
+		}, 100);
+		
+		Promise<String> value = cache.get("key");
+		Assert.assertTrue(value.isRejected());
+		Assert.assertEquals(0, cache.size());
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		PromiseCache<String, String> cache = new PromiseCache<>(loader, 64);
+		
+		for(int i = 0; i < 1000; i++) {
+			Assert.assertEquals("hot#1", cache.get("hot").getResult());
+			cache.get("key" + i);
+		}
+		
+		Assert.assertTrue(cache.size() <= 64);
+		Assert.assertEquals(1, loads("hot"));
+		Assert.assertEquals("key0#2", cache.get("key0").getResult());
+	}
+	
+	@Test
+	public void testValueExpires() {
+		PromiseCache<String, String> cache = new PromiseCache<>(loader, 100, 100, 0, ticker);
+		
+		Assert.assertEquals("key#1", cache.get("key").getResult());
+		time.set(99);
+		Assert.assertEquals("key#1", cache.get("key").getResult());
+		time.set(100);
+		Assert.assertEquals("key#2", cache.get("key").getResult());
+	}
+	
+	@Test
+	public void testValueIsRefreshedAhead() {
+		PromiseCache<String, String> cache = new PromiseCache<>(pendingLoader, 100, 1000, 100, ticker);
+		
+		Promise<String> first = cache.get("key");
+		pending.get(0).resolve("old");
+		Assert.assertEquals("old", first.getResult());
+		
+		time.set(150);
+		//the old value at once, one reload in the background
+		Assert.assertEquals("old", cache.get("key").getResult());
+		Assert.assertEquals("old", cache.get("key").getResult());
+		Assert.assertEquals(2, loads("key"));
+		
+		pending.get(1).resolve("new");
+		Assert.assertEquals("new", cache.get("key").getResult());
+		Assert.assertEquals(2, loads("key"));
+	}
+	
+	@Test
+	public void testFailedRefreshKeepsTheOldValue() {
+		PromiseCache<String, String> cache = new PromiseCache<>(pendingLoader, 100, 1000, 100, ticker);
+		
+		cache.get("key");
+		pending.get(0).resolve("old");
+		
+		time.set(150);
+		cache.get("key");
+		pending.get(1).reject(new RuntimeException("Refresh failed"));
+		
+		Assert.assertEquals("old", cache.get("key").getResult());
+		Assert.assertEquals(3, loads("key"));
+	}
+	
+	@Test
+	public void testInvalidate() {
+		PromiseCache<String, String> cache = new PromiseCache<>(loader, 100);
+		
+		Assert.assertEquals("a#1", cache.get("a").getResult());
+		Assert.assertEquals("b#1", cache.get("b").getResult());
+		
+		cache.invalidate("a");
+		Assert.assertEquals("a#2", cache.get("a").getResult());
+		
+		cache.invalidateAll();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals("b#2", cache.get("b").getResult());
+	}
+	
+	private int count(String key) {
+		AtomicInteger count = loads.get(key);
+		if(count == null) {
+			loads.putIfAbsent(key, new AtomicInteger());
+			count = loads.get(key);
+		}
+		return count.incrementAndGet();
+	}
+	
+	private int loads(String key) {
+		AtomicInteger count = loads.get(key);
+		return count == null ? 0 : count.get();
+	}
+}
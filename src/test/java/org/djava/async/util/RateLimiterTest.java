@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.async.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.djava.async.BaseContainerTest;
+import org.djava.async.Promise;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest extends BaseContainerTest {
+	
+	private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	@Test
+	public void testPermitsAreSpacedAtTheStableRate() {
+		RateLimiter limiter = new RateLimiter(10, 1.0, 0, new FakeTicker());
+		
+		Assert.assertEquals(0, limiter.reserve(1));
+		Assert.assertEquals(100 * MILLIS, limiter.reserve(1));
+		Assert.assertEquals(200 * MILLIS, limiter.reserve(1));
+		Assert.assertEquals(10.0, limiter.getRate(), 0.0001);
+	}
+	
+	@Test
+	public void testLargeAcquireDelaysTheNextCaller() {
+		RateLimiter limiter = new RateLimiter(10, 1.0, 0, new FakeTicker());
+		
+		Assert.assertEquals(0, limiter.reserve(5));
+		Assert.assertEquals(500 * MILLIS, limiter.reserve(1));
+	}
+	
+	@Test
+	public void testIdleLimiterStoresABurst() {
+		FakeTicker ticker = new FakeTicker();
+		RateLimiter limiter = new RateLimiter(10, 1.0, 0, ticker);
+		
+		//two seconds idle, only one second of permits is stored
+		ticker.sleep(2000);
+		Assert.assertEquals(0, limiter.reserve(10));
+		Assert.assertEquals(0, limiter.reserve(1));
+		Assert.assertEquals(100 * MILLIS, limiter.reserve(1));
+	}
+	
+	@Test
+	public void testColdLimiterWarmsUpToTheStableRate() {
+		FakeTicker ticker = new FakeTicker();
+		RateLimiter limiter = new RateLimiter(10, 0, TimeUnit.SECONDS.toNanos(1), ticker);
+		
+		long[] expected = {0, 280, 520, 720, 880, 1000, 1100, 1200};
+		for(long millis : expected) {
+			Assert.assertEquals(millis * MILLIS, limiter.reserve(1));
+		}
+		
+		//idle for the warm-up period, the limiter is cold again
+		ticker.sleep(3000);
+		Assert.assertEquals(0, limiter.reserve(1));
+		Assert.assertEquals(280 * MILLIS, limiter.reserve(1));
+	}
+	
+	@Test
+	public void testTryAcquireDoesNotWait() {
+		RateLimiter limiter = new RateLimiter(10, 1.0, 0, new FakeTicker());
+		
+		Assert.assertTrue(limiter.tryAcquire(1));
+		Assert.assertFalse(limiter.tryAcquire(1));
+		Assert.assertEquals(100 * MILLIS, limiter.reserve(1));
+	}
+	
+	@Test
+	public void testAcquireIsFulfilledWhenDue() throws Exception {
+		RateLimiter limiter = new RateLimiter(20, 0);
+		
+		Promise<Long> first = limiter.acquire();
+		Assert.assertTrue(first.isFulfilled());
+		Assert.assertEquals(Long.valueOf(0), first.getResult());
+		
+		long start = System.nanoTime();
+		Promise<Long> second = limiter.acquire(2);
+		Promise<Long> third = limiter.acquire();
+		Assert.assertTrue(second.isPending());
+		
+		await(second);
+		await(third);
+		Assert.assertTrue(System.nanoTime() - start >= 140 * MILLIS);
+		Assert.assertTrue(third.<Long>getResult() > second.<Long>getResult());
+	}
+	
+	@Test
+	public void testWrapSubmitsTheTaskWhenAllowed() throws Exception {
+		RateLimiter limiter = new RateLimiter(10, 0);
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<Integer> callable = new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return calls.incrementAndGet();
+			}
+		};
+		
+		long submitted = DeferredContainer.getContainer().getMetrics().getSubmittedTasks();
+		Promise<Integer> first = limiter.wrap(callable);
+		Promise<Integer> second = limiter.wrap(callable);
+		Promise<Integer> third = limiter.wrap(callable);
+		Assert.assertEquals(submitted + 1, DeferredContainer.getContainer().getMetrics().getSubmittedTasks());
+		
+		await(first);
+		await(second);
+		await(third);
+		Assert.assertEquals(3, calls.get());
+		//the three calls and the two acquires which were fulfilled when due
+		Assert.assertEquals(submitted + 5, DeferredContainer.getContainer().getMetrics().getSubmittedTasks());
+	}
+	
+	@Test
+	public void testBlockingCallbackDoesNotHoldTheTimer() throws Exception {
+		RateLimiter limiter = new RateLimiter(10, 0);
+		limiter.acquire();
+		
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicReference<String> callbackThread = new AtomicReference<>();
+		Promise<Long> due = limiter.acquire().then(waited -> {
+			callbackThread.set(Thread.currentThread().getName());
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return null;
+		});
+		
+		final CountDownLatch timerRan = new CountDownLatch(1);
+		AsyncTimer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				timerRan.countDown();
+			}
+		}, 150, TimeUnit.MILLISECONDS);
+		
+		try {
+			Assert.assertTrue("The timer is blocked by the callback.", timerRan.await(2, TimeUnit.SECONDS));
+			Assert.assertNotEquals("deferred-timer", callbackThread.get());
+		} finally {
+			release.countDown();
+		}
+		Assert.assertTrue(await(due).isFulfilled());
+	}
+	
+	@Test
+	public void testWrapRejectsWithTheFailureOfTheCallable() throws Exception {
+		RateLimiter limiter = new RateLimiter(100);
+		
+		Promise<Object> result = await(limiter.wrap(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				throw new IllegalStateException("Call failed");
+			}
+		}));
+		
+		Assert.assertTrue(result.isRejected());
+		Assert.assertEquals("Call failed", result.<Exception>getResult().getMessage());
+	}
+	
+	@Test
+	public void testInvalidArguments() {
+		try {
+			new RateLimiter(0);
+			Assert.fail("A zero rate is accepted.");
+		} catch(IllegalArgumentException ex) {
+			//expected
+		}
+		
+		try {
+			new RateLimiter(10).acquire(0);
+			Assert.fail("Zero permits are accepted.");
+		} catch(IllegalArgumentException ex) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.Callbacks.FailureCallBack;
+import org.djava.async.Callbacks.NotificationCallBack;
+import org.djava.async.Callbacks.NotificationEvent;
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.util.VoidType;
+
+/**
+ * Callbacks that count how many times they are called. The counters are atomic so that a 
+ * callback running twice on two threads is counted twice.
+ */
+class CountingCallbacks {
+	
+	final AtomicInteger successes = new AtomicInteger();
+	
+	final AtomicInteger failures = new AtomicInteger();
+	
+	final AtomicInteger notifications = new AtomicInteger();
+	
+	final SuccessCallBack<Object, Object> success = new SuccessCallBack<Object, Object>() {
+		@Override
+		public Object call(Object value) {
+			successes.incrementAndGet();
+			return VoidType.NOTHING;
+		}
+	};
+	
+	final FailureCallBack failure = new FailureCallBack() {
+		@Override
+		public VoidType call(Exception reason) {
+			failures.incrementAndGet();
+			return VoidType.NOTHING;
+		}
+	};
+	
+	final NotificationCallBack notification = new NotificationCallBack() {
+		@Override
+		public VoidType call(NotificationEvent event) {
+			notifications.incrementAndGet();
+			return VoidType.NOTHING;
+		}
+	};
+	
+	/**
+	 * Gets the number of the completion callbacks, success and failure together.
+	 * 
+	 * @return the number of calls
+	 */
+	int completions() {
+		return successes.get() + failures.get();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.I_Result;
+
+/**
+ * Reads the result while the promise is resolved. The state changes before the result is 
+ * written, so a reader that sees a resolved promise spins until the result is visible. It must
+ * never see a missing result.
+ */
+@JCStressTest
+@Outcome(id = "-1", expect = Expect.ACCEPTABLE, desc = "Still pending.")
+@Outcome(id = "1", expect = Expect.ACCEPTABLE, desc = "Resolved, the result is visible.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Resolved, but the result is missing.")
+@State
+public class GetResultStress {
+	
+	final Deferred<Object> deferred = DeferredFactory.createDeferred();
+	
+	@Actor
+	public void resolve() {
+		deferred.resolve("Hello");
+	}
+	
+	@Actor
+	public void read(I_Result r) {
+		if(deferred.isPending()) {
+			r.r1 = -1;
+			return;
+		}
+		
+		r.r1 = "Hello".equals(deferred.getResult()) ? 1 : 0;
+	}
+}
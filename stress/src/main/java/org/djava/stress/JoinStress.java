@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.djava.async.Callbacks.SuccessCallBack;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.djava.async.util.VoidType;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * Two joined promises resolved on two threads while a third thread registers the join. The
+ * joined promise must be fulfilled exactly once, with both values.
+ */
+@JCStressTest
+@Outcome(id = "1, 1", expect = Expect.ACCEPTABLE, desc = "Joined once with both values.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "The join is lost, ran more than once or lost a value.")
+@State
+public class JoinStress {
+	
+	final Deferred<Object> first = DeferredFactory.createDeferred();
+	
+	final Deferred<Object> second = DeferredFactory.createDeferred();
+	
+	final AtomicInteger joined = new AtomicInteger();
+	
+	volatile boolean values;
+	
+	@Actor
+	public void join() {
+		first.promise().join(second.promise()).then(new SuccessCallBack<Object, List<Object>>() {
+			@Override
+			public Object call(List<Object> result) {
+				values = Arrays.<Object>asList("Hello", "World!!").equals(result);
+				joined.incrementAndGet();
+				return VoidType.NOTHING;
+			}
+		});
+	}
+	
+	@Actor
+	public void resolveFirst() {
+		first.resolve("Hello");
+	}
+	
+	@Actor
+	public void resolveSecond() {
+		second.resolve("World!!");
+	}
+	
+	@Arbiter
+	public void arbiter(II_Result r) {
+		r.r1 = joined.get();
+		r.r2 = values ? 1 : 0;
+	}
+}
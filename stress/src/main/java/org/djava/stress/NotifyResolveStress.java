@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import org.djava.async.Callbacks.NotificationEvent;
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * A notification sent while the promise is resolved. The notification may or may not be 
+ * delivered, but it is delivered at most once and it never disturbs the resolution.
+ */
+@JCStressTest
+@Outcome(id = "1, 0", expect = Expect.ACCEPTABLE, desc = "Resolved before the notification.")
+@Outcome(id = "1, 1", expect = Expect.ACCEPTABLE, desc = "Notified, then resolved.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "The handler is lost or a callback ran more than once.")
+@State
+public class NotifyResolveStress {
+	
+	final Deferred<Object> deferred = DeferredFactory.createDeferred();
+	
+	final CountingCallbacks callbacks = new CountingCallbacks();
+	
+	{
+		deferred.then(callbacks.success, callbacks.failure, callbacks.notification);
+	}
+	
+	@Actor
+	public void notifyPromise() {
+		deferred.notify(new NotificationEvent(deferred.promise()));
+	}
+	
+	@Actor
+	public void resolve() {
+		deferred.resolve("Hello");
+	}
+	
+	@Arbiter
+	public void arbiter(II_Result r) {
+		r.r1 = callbacks.completions();
+		r.r2 = callbacks.notifications.get();
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.IIII_Result;
+
+/**
+ * Resolve and reject race for the same promise. Exactly one of them wins, the loser gets an
+ * exception and the handler sees the winner's outcome exactly once.
+ */
+@JCStressTest
+@Outcome(id = "1, 0, 1, 0", expect = Expect.ACCEPTABLE, desc = "Resolve won.")
+@Outcome(id = "0, 1, 0, 1", expect = Expect.ACCEPTABLE, desc = "Reject won.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "Both or none won, or the handler saw the wrong outcome.")
+@State
+public class ResolveRejectStress {
+	
+	final Deferred<Object> deferred = DeferredFactory.createDeferred();
+	
+	final CountingCallbacks callbacks = new CountingCallbacks();
+	
+	{
+		deferred.then(callbacks.success, callbacks.failure, null);
+	}
+	
+	int resolved;
+	
+	int rejected;
+	
+	@Actor
+	public void resolve() {
+		try {
+			deferred.resolve("Hello");
+			resolved = 1;
+		} catch(RuntimeException ex) {
+			//lost the race
+		}
+	}
+	
+	@Actor
+	public void reject() {
+		try {
+			deferred.reject(new RuntimeException("Hello Hell!!"));
+			rejected = 1;
+		} catch(RuntimeException ex) {
+			//lost the race
+		}
+	}
+	
+	@Arbiter
+	public void arbiter(IIII_Result r) {
+		r.r1 = resolved;
+		r.r2 = rejected;
+		r.r3 = callbacks.successes.get();
+		r.r4 = callbacks.failures.get();
+	}
+}
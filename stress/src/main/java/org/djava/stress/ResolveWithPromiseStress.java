@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * A promise resolved with another promise while the other one is resolved. The outer promise
+ * either adopts the inner one on the spot or waits for it through <tt>resolveCalledButWaiting</tt>, 
+ * in both cases it is fulfilled exactly once.
+ */
+@JCStressTest
+@Outcome(id = "1, 1", expect = Expect.ACCEPTABLE, desc = "The outer promise is fulfilled once.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "The outer promise is stuck or fulfilled more than once.")
+@State
+public class ResolveWithPromiseStress {
+	
+	final Deferred<Object> outer = DeferredFactory.createDeferred();
+	
+	final Deferred<Object> inner = DeferredFactory.createDeferred();
+	
+	final CountingCallbacks callbacks = new CountingCallbacks();
+	
+	{
+		outer.then(callbacks.success, callbacks.failure, null);
+	}
+	
+	@Actor
+	public void resolveOuter() {
+		outer.resolve(inner.promise());
+	}
+	
+	@Actor
+	public void resolveInner() {
+		inner.resolve("Hello");
+	}
+	
+	@Arbiter
+	public void arbiter(II_Result r) {
+		r.r1 = callbacks.successes.get();
+		r.r2 = outer.isFulfilled() ? 1 : 0;
+	}
+}
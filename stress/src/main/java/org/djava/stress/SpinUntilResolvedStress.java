@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Mode;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.Signal;
+import org.openjdk.jcstress.annotations.State;
+
+/**
+ * A thread spinning on a pending promise must see the resolution and the result, otherwise it
+ * hangs.
+ */
+@JCStressTest(Mode.Termination)
+@Outcome(id = "TERMINATED", expect = Expect.ACCEPTABLE, desc = "The spinning thread saw the result.")
+@Outcome(id = "STALE", expect = Expect.FORBIDDEN, desc = "The spinning thread hangs.")
+@State
+public class SpinUntilResolvedStress {
+	
+	final Deferred<Object> deferred = DeferredFactory.createDeferred();
+	
+	@Actor
+	public void spin() {
+		while(deferred.isPending()) {
+			//wait loop
+		}
+		
+		deferred.getResult();
+	}
+	
+	@Signal
+	public void resolve() {
+		deferred.resolve("Hello");
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * A handler registered while the promise is rejected on another thread. The failure callback 
+ * must run exactly once, whichever side wins.
+ */
+@JCStressTest
+@Outcome(id = "0, 1", expect = Expect.ACCEPTABLE, desc = "The failure callback ran once.")
+@Outcome(id = "0, 0", expect = Expect.FORBIDDEN, desc = "The handler is lost.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "A callback ran more than once or the wrong one ran.")
+@State
+public class ThenRejectStress {
+	
+	final Deferred<Object> deferred = DeferredFactory.createDeferred();
+	
+	final CountingCallbacks callbacks = new CountingCallbacks();
+	
+	@Actor
+	public void then() {
+		deferred.then(callbacks.success, callbacks.failure, null);
+	}
+	
+	@Actor
+	public void reject() {
+		deferred.reject(new RuntimeException("Hello Hell!!"));
+	}
+	
+	@Arbiter
+	public void arbiter(II_Result r) {
+		r.r1 = callbacks.successes.get();
+		r.r2 = callbacks.failures.get();
+	}
+}
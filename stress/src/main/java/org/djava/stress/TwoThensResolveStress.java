@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 The DeferredJava Project.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.djava.stress;
+
+import org.djava.async.Deferred;
+import org.djava.async.DeferredFactory;
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Expect;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+/**
+ * Two handlers registered from two threads while a third thread resolves the promise. Both 
+ * resolve and the late <tt>then()</tt> drain the handler queue, each handler must still run 
+ * exactly once.
+ */
+@JCStressTest
+@Outcome(id = "1, 1", expect = Expect.ACCEPTABLE, desc = "Both handlers ran once.")
+@Outcome(expect = Expect.FORBIDDEN, desc = "A handler is lost or ran more than once.")
+@State
+public class TwoThensResolveStress {
+	
+	final Deferred<Object> deferred = DeferredFactory.createDeferred();
+	
+	final CountingCallbacks first = new CountingCallbacks();
+	
+	final CountingCallbacks second = new CountingCallbacks();
+	
+	@Actor
+	public void thenFirst() {
+		deferred.then(first.success);
+	}
+	
+	@Actor
+	public void thenSecond() {
+		deferred.then(second.success);
+	}
+	
+	@Actor
+	public void resolve() {
+		deferred.resolve("Hello");
+	}
+	
+	@Arbiter
+	public void arbiter(II_Result r) {
+		r.r1 = first.successes.get();
+		r.r2 = second.successes.get();
+	}
+}